@@ -0,0 +1,25 @@
+package com.github.gregb.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs JMH with the gc profiler always on, so results show the allocation rate next to the
+ * throughput. Takes the usual JMH command line.
+ */
+public class BenchmarkMain {
+
+	public static void main(final String[] args) throws Exception {
+		final CommandLineOptions commandLine = new CommandLineOptions(args);
+
+		if (commandLine.shouldHelp() || commandLine.shouldList()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
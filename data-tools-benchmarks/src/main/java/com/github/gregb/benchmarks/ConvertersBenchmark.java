@@ -0,0 +1,66 @@
+package com.github.gregb.benchmarks;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.gregb.mapping.Converters;
+
+/**
+ * Looking up converters, for registered pairs, pairs found by searching and pairs with none, and
+ * parsing dates in formats early and late in the list of patterns tried.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertersBenchmark {
+
+	private final Converters.StringToLocalDate toLocalDate = new Converters.StringToLocalDate();
+	private final Converters.StringToDateTime toDateTime = new Converters.StringToDateTime();
+
+	@Benchmark
+	public Object getConverterRegistered() {
+		return Converters.getConverter(Timestamp.class, DateTime.class);
+	}
+
+	@Benchmark
+	public Object getConverterSubclass() {
+		// java.sql.Date is found through the java.util.Date entry, then remembered
+		return Converters.getConverter(java.sql.Date.class, LocalDate.class);
+	}
+
+	@Benchmark
+	public Object getConverterMissing() {
+		return Converters.getConverter(String.class, Thread.class);
+	}
+
+	@Benchmark
+	public LocalDate parseFirstPattern() {
+		return toLocalDate.apply("03/15/2015");
+	}
+
+	@Benchmark
+	public LocalDate parseIsoDate() {
+		return toLocalDate.apply("2015-03-15");
+	}
+
+	@Benchmark
+	public DateTime parseIsoDateTime() {
+		return toDateTime.apply("2015-03-15T10:15:30.000Z");
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.github.gregb.benchmarks;
+
+import java.math.BigDecimal;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+import com.github.gregb.database.CopyBehavior;
+import com.github.gregb.database.CopyBehavior.Behavior;
+import com.github.gregb.mapping.Identified;
+
+/**
+ * A typical entity: a mix of numbers, text, an enum and Joda dates, some of them nullable.
+ */
+@SuppressWarnings("serial")
+public class Customer implements Identified<Long> {
+
+	public static enum Status {
+		ACTIVE, SUSPENDED, CLOSED;
+	}
+
+	public Long id;
+	public String firstName;
+	public String lastName;
+	public String email;
+	public Status status;
+	public Integer visits;
+	public BigDecimal balance;
+	public Boolean vip;
+	public LocalDate birthDate;
+
+	@CopyBehavior(Behavior.TAKE_ORIGINAL)
+	public DateTime createdAt;
+
+	public DateTime updatedAt;
+
+	@CopyBehavior(Behavior.MOST_RECENT_NON_NULL)
+	public String notes;
+
+	@Override
+	public Long getId() {
+		return id;
+	}
+
+}
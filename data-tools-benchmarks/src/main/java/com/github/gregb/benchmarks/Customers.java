@@ -0,0 +1,66 @@
+package com.github.gregb.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Generated {@link Customer}s, in memory and in an in-memory H2 database.
+ */
+public final class Customers {
+
+	private static final String[] FIRST_NAMES = { "Anna", "Béla", "Chloé", "David", "Eszter", "Frank", "Gábor", "Hannah", "Ivan", "Júlia" };
+	private static final String[] LAST_NAMES = { "Kovács", "Smith", "Nagy", "Müller", "García", "Tóth", "Johnson", "Szabó", "Rossi", "Horváth" };
+
+	private static final DateTime EPOCH = new DateTime(2015, 1, 1, 0, 0);
+
+	private Customers() {
+	}
+
+	public static Customer random(final Random random, final long id) {
+		final Customer c = new Customer();
+		c.id = id;
+		c.firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+		c.lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+		c.email = c.firstName.toLowerCase() + '.' + id + "@example.com";
+		c.status = Customer.Status.values()[random.nextInt(Customer.Status.values().length)];
+		c.visits = random.nextInt(500);
+		c.balance = BigDecimal.valueOf(random.nextInt(10_000_000), 2);
+		c.vip = random.nextInt(10) == 0;
+		c.birthDate = new LocalDate(1950, 1, 1).plusDays(random.nextInt(20_000));
+		c.createdAt = EPOCH.plusMinutes(random.nextInt(1_000_000));
+		c.updatedAt = random.nextBoolean() ? null : c.createdAt.plusDays(random.nextInt(100));
+		c.notes = random.nextInt(4) == 0 ? "Prefers contact by email; account reviewed " + random.nextInt(12) + " times" : null;
+		return c;
+	}
+
+	/**
+	 * A new in-memory database with a customer table of the given size. Column names are lower
+	 * case, like PostgreSQL's, so they match the repository's column names.
+	 */
+	public static DataSource database(final String name, final int rows) {
+		final SingleConnectionDataSource dataSource = new SingleConnectionDataSource("jdbc:h2:mem:" + name + ";DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "", true);
+		final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+
+		jdbc.execute("DROP TABLE IF EXISTS customer");
+		jdbc.execute("CREATE TABLE customer (id BIGINT PRIMARY KEY, first_name VARCHAR(50), last_name VARCHAR(50), email VARCHAR(100), status VARCHAR(20), visits INT, balance DECIMAL(12, 2), vip BOOLEAN, birth_date DATE, created_at TIMESTAMP, updated_at TIMESTAMP, notes VARCHAR(200))");
+
+		final Random random = new Random(rows);
+		for (long id = 1; id <= rows; id++) {
+			final Customer c = random(random, id);
+			jdbc.update("INSERT INTO customer VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", c.id, c.firstName, c.lastName, c.email, c.status.name(), c.visits, c.balance, c.vip, new Date(c.birthDate.toDate().getTime()),
+					new Timestamp(c.createdAt.getMillis()), c.updatedAt == null ? null : new Timestamp(c.updatedAt.getMillis()), c.notes);
+		}
+
+		return dataSource;
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.github.gregb.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.gregb.database.ColumnChange;
+import com.github.gregb.database.EntityHelper;
+import com.github.gregb.database.RowMappingRepository;
+
+/**
+ * Comparing and merging two versions of an entity, with a few properties changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityDiffBenchmark {
+
+	private RowMappingRepository<Customer> repository;
+	private Customer existing;
+	private Customer updated;
+	private Customer unchanged;
+
+	@Setup
+	public void setup() {
+		repository = new RowMappingRepository<Customer>(Customer.class);
+		existing = Customers.random(new Random(1), 1);
+		unchanged = Customers.random(new Random(1), 1);
+		updated = Customers.random(new Random(1), 1);
+		updated.email = "changed@example.com";
+		updated.visits = existing.visits + 1;
+		updated.notes = null;
+	}
+
+	@Benchmark
+	public Map<String, ColumnChange> scanForChanges() {
+		return repository.scanForChanges(existing, updated);
+	}
+
+	@Benchmark
+	public Map<String, ColumnChange> scanForChangesNone() {
+		return repository.scanForChanges(existing, unchanged);
+	}
+
+	@Benchmark
+	public Customer updateMerge() {
+		return EntityHelper.updateMerge(existing, updated);
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.github.gregb.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.gregb.util.CSVBiMapper;
+import com.github.gregb.util.CommaSeparatedLongs;
+import com.google.common.collect.BiMap;
+
+/**
+ * Parsing id lists and two column CSV files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+	@Param({ "10", "10000" })
+	public int size;
+
+	private String ids;
+	private byte[] csv;
+
+	@Setup
+	public void setup() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			sb.append(i == 0 ? "" : ",").append(1_000_000L + i * 7L);
+		}
+		ids = sb.toString();
+
+		final StringBuilder rows = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			rows.append("code-").append(i).append(",\"Name ").append(i).append(", Inc.\"\n");
+		}
+		csv = rows.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public List<Long> commaSeparatedLongs() {
+		return CommaSeparatedLongs.parse(ids);
+	}
+
+	@Benchmark
+	public BiMap<String, String> csvBiMapper() throws IOException {
+		return CSVBiMapper.map(new ByteArrayInputStream(csv));
+	}
+
+}
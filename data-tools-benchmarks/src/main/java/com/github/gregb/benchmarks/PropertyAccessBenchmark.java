@@ -0,0 +1,72 @@
+package com.github.gregb.benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.gregb.mapping.PropertyHelper;
+
+/**
+ * Reading and writing a property through {@link PropertyHelper}: reflectively, and through the
+ * compiled accessor and mutator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyAccessBenchmark {
+
+	private Customer customer;
+	private PropertyHelper email;
+	private Function<Object, Object> accessor;
+	private BiConsumer<Object, Object> mutator;
+
+	@Setup
+	public void setup() {
+		customer = Customers.random(new Random(1), 1);
+		email = PropertyHelper.getFromClass(Customer.class).get("email");
+		accessor = email.getAccessor();
+		mutator = email.getMutator();
+	}
+
+	@Benchmark
+	public Object getReflective() throws IllegalAccessException, InvocationTargetException {
+		return email.getValue(customer);
+	}
+
+	@Benchmark
+	public Object getAccessor() {
+		return accessor.apply(customer);
+	}
+
+	@Benchmark
+	public void setReflective() throws IllegalAccessException, InvocationTargetException {
+		email.setValue(customer, "someone@example.com");
+	}
+
+	@Benchmark
+	public void setMutator() {
+		mutator.accept(customer, "someone@example.com");
+	}
+
+	@Benchmark
+	public Object getFromClass() {
+		return PropertyHelper.getFromClass(Customer.class);
+	}
+
+}
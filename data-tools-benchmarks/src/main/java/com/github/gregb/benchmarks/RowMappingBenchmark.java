@@ -0,0 +1,59 @@
+package com.github.gregb.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.github.gregb.database.RowMappingRepository;
+
+/**
+ * Reading customers from H2 through the repository's row mapper, against Spring's column map
+ * mapper as a baseline for the driver's own cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMappingBenchmark {
+
+	@Param({ "1", "1000" })
+	public int rows;
+
+	private JdbcTemplate jdbc;
+	private RowMappingRepository<Customer> repository;
+
+	@Setup
+	public void setup() {
+		final DataSource dataSource = Customers.database("rowmapping" + rows, rows);
+		jdbc = new JdbcTemplate(dataSource);
+		repository = new RowMappingRepository<Customer>(Customer.class);
+	}
+
+	@Benchmark
+	public List<Customer> repositoryRowMapper() {
+		return jdbc.query("SELECT * FROM customer", repository.getRowMapper());
+	}
+
+	@Benchmark
+	public List<?> columnMapBaseline() {
+		return jdbc.query("SELECT * FROM customer", new ColumnMapRowMapper());
+	}
+
+}
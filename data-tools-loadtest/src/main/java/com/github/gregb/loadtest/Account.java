@@ -0,0 +1,38 @@
+package com.github.gregb.loadtest;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+import com.github.gregb.database.DefaultOrder;
+import com.github.gregb.mapping.Identified;
+
+@SuppressWarnings("serial")
+@Table(name = "account")
+public class Account implements Identified<Long> {
+
+	@Id
+	@Column(name = "id", insertable = false, updatable = false)
+	@DefaultOrder
+	public Long id;
+
+	public String name;
+	public String email;
+	public String region;
+	public Integer visits;
+	public BigDecimal balance;
+	public Boolean active;
+	public LocalDate openedOn;
+	public DateTime updatedAt;
+
+	@Override
+	public Long getId() {
+		return id;
+	}
+
+}
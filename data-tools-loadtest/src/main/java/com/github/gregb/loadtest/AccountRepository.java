@@ -0,0 +1,47 @@
+package com.github.gregb.loadtest;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import com.github.gregb.database.JdbcRepository;
+
+public class AccountRepository extends JdbcRepository<Account> {
+
+	public AccountRepository(final DataSource dataSource) {
+		super(Account.class);
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+	}
+
+	public void createTable() {
+		jdbcTemplate.execute("DROP TABLE IF EXISTS account");
+		jdbcTemplate.execute("CREATE TABLE account (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(100), email VARCHAR(100), region VARCHAR(20), visits INT, balance DECIMAL(12, 2), active BOOLEAN, opened_on DATE, updated_at TIMESTAMP)");
+		jdbcTemplate.execute("CREATE INDEX account_region ON account (region)");
+	}
+
+	/**
+	 * Inserts generated accounts in batches, bypassing the repository.
+	 */
+	public void insertRandom(final int rows, final Random random) {
+		final List<Object[]> batch = new ArrayList<Object[]>();
+
+		for (int i = 0; i < rows; i++) {
+			final Account a = Operation.newAccount(random);
+			batch.add(new Object[] { a.name, a.email, a.region, a.visits, a.balance, a.active, new Date(a.openedOn.toDate().getTime()), new Timestamp(a.updatedAt.getMillis()) });
+
+			if (batch.size() == 1000 || i == rows - 1) {
+				jdbcTemplate.batchUpdate("INSERT INTO account (name, email, region, visits, balance, active, opened_on, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", batch);
+				batch.clear();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+package com.github.gregb.loadtest;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+
+/**
+ * Drives a mix of repository calls from many threads against an embedded H2 database behind a
+ * HikariCP pool, and reports latency percentiles per operation, throughput and the time spent
+ * waiting for a connection.
+ *
+ * Settings are given as <code>name=value</code> arguments:
+ * <ul>
+ * <li><code>threads</code> - worker threads (8)</li>
+ * <li><code>pool</code> - maximum pool size (8)</li>
+ * <li><code>seconds</code> - measured duration (30), after <code>warmup</code> seconds (5)</li>
+ * <li><code>rows</code> - accounts inserted before the run (10000)</li>
+ * <li><code>mix</code> - weighted operations (findById:70,selectWhere:15,insert:10,partialUpdate:5)</li>
+ * <li><code>seed</code> - random seed; each thread derives its own (1)</li>
+ * <li><code>url</code> - JDBC URL, e.g. to use a file database (in-memory H2)</li>
+ * <li><code>histograms</code> - directory to write each operation's percentile distribution to,
+ * for plotting or comparing runs (none)</li>
+ * </ul>
+ * The same seed and settings give the same sequence of calls per thread; timings of course vary.
+ */
+public class LoadTest {
+
+	private final Map<String, String> settings;
+	private final Map<Operation, Recorder> latencies = new EnumMap<Operation, Recorder>(Operation.class);
+	private final Map<Operation, LongAdder> errors = new EnumMap<Operation, LongAdder>(Operation.class);
+	private final Recorder poolWait = new Recorder(3);
+
+	private final Operation[] choices;
+	private final int[] cumulativeWeights;
+
+	public LoadTest(final Map<String, String> settings) {
+		this.settings = settings;
+
+		final Map<Operation, Integer> mix = parseMix(setting("mix", "findById:70,selectWhere:15,insert:10,partialUpdate:5"));
+		this.choices = mix.keySet().toArray(new Operation[mix.size()]);
+		this.cumulativeWeights = new int[choices.length];
+
+		int total = 0;
+		for (int i = 0; i < choices.length; i++) {
+			total += mix.get(choices[i]);
+			cumulativeWeights[i] = total;
+			latencies.put(choices[i], new Recorder(3));
+			errors.put(choices[i], new LongAdder());
+		}
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final Map<String, String> settings = new LinkedHashMap<String, String>();
+
+		for (final String arg : args) {
+			final int eq = arg.indexOf('=');
+			if (eq < 1) {
+				throw new IllegalArgumentException("Expected name=value, got " + arg);
+			}
+			settings.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+
+		new LoadTest(settings).run(System.out);
+	}
+
+	static Map<Operation, Integer> parseMix(final String mix) {
+		final Map<Operation, Integer> result = new LinkedHashMap<Operation, Integer>();
+
+		for (final String item : mix.split(",")) {
+			final String[] parts = item.trim().split(":");
+			final int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+			if (weight < 0) {
+				throw new IllegalArgumentException("Negative weight in mix: " + item);
+			}
+			if (weight > 0) {
+				result.put(Operation.forLabel(parts[0].trim()), weight);
+			}
+		}
+
+		if (result.isEmpty()) {
+			throw new IllegalArgumentException("No operations in mix: " + mix);
+		}
+
+		return result;
+	}
+
+	private String setting(final String name, final String defaultValue) {
+		final String value = settings.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private int intSetting(final String name, final int defaultValue) {
+		return Integer.parseInt(setting(name, Integer.toString(defaultValue)));
+	}
+
+	public void run(final PrintStream out) throws InterruptedException, FileNotFoundException {
+		final int threads = intSetting("threads", 8);
+		final int rows = intSetting("rows", 10000);
+		final long seed = Long.parseLong(setting("seed", "1"));
+
+		try (HikariDataSource dataSource = dataSource(intSetting("pool", 8))) {
+			final AccountRepository repository = new AccountRepository(dataSource);
+			repository.createTable();
+			repository.insertRandom(rows, new Random(seed));
+			out.printf("%d accounts, %d threads, pool of %d, mix %s%n", rows, threads, dataSource.getMaximumPoolSize(), setting("mix", "default"));
+
+			final long warmupNanos = TimeUnit.SECONDS.toNanos(intSetting("warmup", 5));
+			final long measureNanos = TimeUnit.SECONDS.toNanos(intSetting("seconds", 30));
+			final long start = System.nanoTime();
+			final long measureFrom = start + warmupNanos;
+			final long end = measureFrom + measureNanos;
+
+			final CountDownLatch done = new CountDownLatch(threads);
+			for (int t = 0; t < threads; t++) {
+				final Random random = new Random(seed * 31 + t);
+				final Thread worker = new Thread(() -> {
+					try {
+						work(repository, random, rows, end);
+					} finally {
+						done.countDown();
+					}
+				}, "loadtest-" + t);
+				worker.setDaemon(true);
+				worker.start();
+			}
+
+			sleepUntil(measureFrom);
+			discardWarmup();
+			final long measuredFrom = System.nanoTime();
+
+			done.await();
+			final double seconds = (System.nanoTime() - measuredFrom) / 1e9;
+
+			report(out, intervals(), poolWait.getIntervalHistogram(), seconds);
+		}
+	}
+
+	private HikariDataSource dataSource(final int poolSize) {
+		final HikariConfig config = new HikariConfig();
+		config.setJdbcUrl(setting("url", "jdbc:h2:mem:loadtest;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1"));
+		config.setUsername("sa");
+		config.setPassword("");
+		config.setMaximumPoolSize(poolSize);
+		config.setMinimumIdle(poolSize);
+		config.setPoolName("loadtest");
+		config.setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+			@Override
+			public void recordConnectionAcquiredNanos(final long elapsedAcquiredNanos) {
+				poolWait.recordValue(elapsedAcquiredNanos);
+			}
+		});
+		return new HikariDataSource(config);
+	}
+
+	private void work(final AccountRepository repository, final Random random, final long maxId, final long end) {
+		while (System.nanoTime() < end) {
+			final Operation operation = choose(random);
+			final long started = System.nanoTime();
+
+			try {
+				operation.run(repository, random, maxId);
+			} catch (final RuntimeException e) {
+				errors.get(operation).increment();
+			}
+
+			latencies.get(operation).recordValue(System.nanoTime() - started);
+		}
+	}
+
+	private Operation choose(final Random random) {
+		final int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+
+		for (int i = 0; i < cumulativeWeights.length; i++) {
+			if (pick < cumulativeWeights[i]) {
+				return choices[i];
+			}
+		}
+
+		throw new IllegalStateException();
+	}
+
+	private Map<Operation, Histogram> intervals() {
+		final Map<Operation, Histogram> result = new EnumMap<Operation, Histogram>(Operation.class);
+
+		for (final Map.Entry<Operation, Recorder> e : latencies.entrySet()) {
+			result.put(e.getKey(), e.getValue().getIntervalHistogram());
+		}
+
+		return result;
+	}
+
+	private void discardWarmup() {
+		intervals();
+		poolWait.reset();
+		for (final LongAdder count : errors.values()) {
+			count.reset();
+		}
+	}
+
+	private void report(final PrintStream out, final Map<Operation, Histogram> histograms, final Histogram wait, final double seconds) throws FileNotFoundException {
+		out.printf("%nMeasured %.1f s%n%n", seconds);
+		out.printf("%-14s %10s %10s %8s %10s %10s %10s %10s %10s%n", "operation", "count", "ops/s", "errors", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+
+		final Histogram all = new Histogram(3);
+		for (final Map.Entry<Operation, Histogram> e : histograms.entrySet()) {
+			row(out, e.getKey().getLabel(), e.getValue(), errors.get(e.getKey()).sum(), seconds);
+			all.add(e.getValue());
+		}
+
+		long totalErrors = 0;
+		for (final LongAdder count : errors.values()) {
+			totalErrors += count.sum();
+		}
+		row(out, "all", all, totalErrors, seconds);
+
+		out.println();
+		row(out, "pool wait", wait, 0, seconds);
+
+		final String directory = settings.get("histograms");
+		if (directory != null) {
+			final Path dir = Paths.get(directory);
+			for (final Map.Entry<Operation, Histogram> e : histograms.entrySet()) {
+				writeDistribution(dir.resolve(e.getKey().getLabel() + ".hgrm"), e.getValue());
+			}
+			writeDistribution(dir.resolve("poolWait.hgrm"), wait);
+			out.printf("%nPercentile distributions written to %s%n", dir.toAbsolutePath());
+		}
+	}
+
+	private static void row(final PrintStream out, final String label, final Histogram h, final long errors, final double seconds) {
+		out.printf("%-14s %10d %10.0f %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", label, h.getTotalCount(), h.getTotalCount() / seconds, errors, micros(h, 50), micros(h, 90), micros(h, 99), micros(h, 99.9), h.getMaxValue() / 1000.0);
+	}
+
+	private static double micros(final Histogram h, final double percentile) {
+		return h.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	private static void writeDistribution(final Path file, final Histogram histogram) throws FileNotFoundException {
+		try {
+			Files.createDirectories(file.getParent());
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		try (PrintStream out = new PrintStream(file.toFile())) {
+			// in microseconds
+			histogram.outputPercentileDistribution(out, 1000.0);
+		}
+	}
+
+	private static void sleepUntil(final long nanoTime) throws InterruptedException {
+		long remaining;
+		while ((remaining = nanoTime - System.nanoTime()) > 0) {
+			TimeUnit.NANOSECONDS.sleep(remaining);
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.github.gregb.loadtest;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.springframework.data.domain.PageRequest;
+
+import com.github.gregb.database.Where;
+
+/**
+ * The repository calls a load test can mix.
+ */
+public enum Operation {
+
+	FIND_BY_ID("findById") {
+		@Override
+		void run(final AccountRepository repository, final Random random, final long maxId) {
+			repository.findById(1 + (long) (random.nextDouble() * maxId));
+		}
+	},
+
+	SELECT_WHERE("selectWhere") {
+		@Override
+		void run(final AccountRepository repository, final Random random, final long maxId) {
+			final Where where = Where.and().equalTo("region", REGIONS[random.nextInt(REGIONS.length)]);
+			final List<Account> page = repository.selectWhere(where, new PageRequest(random.nextInt(10), 20));
+			if (page.isEmpty()) {
+				throw new IllegalStateException("Empty page");
+			}
+		}
+	},
+
+	INSERT("insert") {
+		@Override
+		void run(final AccountRepository repository, final Random random, final long maxId) {
+			repository.insert(newAccount(random));
+		}
+	},
+
+	/**
+	 * Changes two columns; the repository reads the current row first, so this is a select and an
+	 * update.
+	 */
+	PARTIAL_UPDATE("partialUpdate") {
+		@Override
+		void run(final AccountRepository repository, final Random random, final long maxId) {
+			final Account changes = new Account();
+			changes.id = 1 + (long) (random.nextDouble() * maxId);
+			changes.visits = random.nextInt(1000);
+			changes.updatedAt = DateTime.now();
+			repository.partialUpdate(changes);
+		}
+	};
+
+	static final String[] REGIONS = { "north", "south", "east", "west", "central" };
+
+	private final String label;
+
+	private Operation(final String label) {
+		this.label = label;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @param maxId
+	 *            The highest id known to exist.
+	 */
+	abstract void run(AccountRepository repository, Random random, long maxId);
+
+	public static Operation forLabel(final String label) {
+		for (final Operation o : values()) {
+			if (o.label.equalsIgnoreCase(label) || o.name().equalsIgnoreCase(label)) {
+				return o;
+			}
+		}
+		throw new IllegalArgumentException("Unknown operation: " + label);
+	}
+
+	static Account newAccount(final Random random) {
+		final Account a = new Account();
+		final int n = random.nextInt(1_000_000);
+		a.name = "Account " + n;
+		a.email = "account." + n + "@example.com";
+		a.region = REGIONS[random.nextInt(REGIONS.length)];
+		a.visits = random.nextInt(1000);
+		a.balance = BigDecimal.valueOf(random.nextInt(10_000_000), 2);
+		a.active = random.nextInt(10) != 0;
+		a.openedOn = new LocalDate(2010, 1, 1).plusDays(random.nextInt(3000));
+		a.updatedAt = DateTime.now();
+		return a;
+	}
+
+}
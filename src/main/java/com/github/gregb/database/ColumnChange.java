@@ -30,7 +30,7 @@ public class ColumnChange {
 		change.newValue = newValue;
 		change.assignment = change.columnName + " = :" + change.parameterName;
 
-		log.debug("Generated " + change);
+		log.debug("Generated {}", change);
 		return change;
 	}
 
@@ -44,7 +44,7 @@ public class ColumnChange {
 		change.newValue = null;
 		change.assignment = change.columnName + " = NULL";
 
-		log.debug("Generated " + change);
+		log.debug("Generated {}", change);
 		return change;
 	}
 
@@ -58,7 +58,7 @@ public class ColumnChange {
 		change.newValue = newValue;
 		change.assignment = change.columnName + " = :" + change.parameterName;
 
-		log.debug("Generated " + change);
+		log.debug("Generated {}", change);
 		return change;
 	}
 
@@ -0,0 +1,36 @@
+package com.github.gregb.database;
+
+import java.sql.ResultSet;
+
+/**
+ * How a {@link RowMappingRepository} gets a column's value into its property. Chosen per column
+ * and result shape, on the first row that needs it, and kept for the following rows.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public enum ColumnStrategy {
+
+	/**
+	 * The column's class is already the property's type; the value is set as read.
+	 */
+	DIRECT,
+
+	/**
+	 * The driver coerces the value, with {@link ResultSet#getObject(int, Class)}. Should a later
+	 * value fail, the column moves to {@link #CONVERTER}.
+	 */
+	DRIVER,
+
+	/**
+	 * The driver could not coerce the value; it is read as is and converted by a
+	 * {@link com.github.gregb.mapping.Converters Converters} function.
+	 */
+	CONVERTER,
+
+	/**
+	 * The entity has no property for the column; the value is not read.
+	 */
+	SKIP
+
+}
@@ -0,0 +1,121 @@
+package com.github.gregb.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.function.Function;
+
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import com.github.gregb.mapping.Converters;
+import com.github.gregb.util.CsvWriter;
+
+/**
+ * Writes a result set as CSV while it is read, one line per row, without mapping rows to entities.
+ * The header line holds the column labels.
+ *
+ * Each column's formatter is chosen from {@link Converters} by the class of its first non null
+ * value, and reused for the rest of the rows. Timestamps are written as ISO-8601 in UTC with
+ * milliseconds, e.g. <code>2015-01-02T03:04:05.678Z</code>, and dates as <code>2015-01-02</code>,
+ * so both read back through {@link Converters} as {@link CsvImporter} does.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class CsvExtractor implements ResultSetExtractor<Long> {
+
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = ISODateTimeFormat.dateTime().withZoneUTC();
+
+	private static final Function<Object, Object> TIMESTAMP_TO_STRING = value -> TIMESTAMP_FORMAT.print(((Timestamp) value).getTime());
+
+	private static final Function<Object, Object> DATE_TO_STRING = Converters.getConverter(java.sql.Date.class, LocalDate.class)
+			.andThen(date -> ISODateTimeFormat.date().print((LocalDate) date));
+
+	private final CsvWriter out;
+	private final boolean header;
+
+	/**
+	 * @param out
+	 *            Receives the rows; flushed, but not closed, once the result set is read.
+	 * @param header
+	 *            Whether to write the column labels first.
+	 */
+	public CsvExtractor(final CsvWriter out, final boolean header) {
+		this.out = out;
+		this.header = header;
+	}
+
+	@Override
+	public Long extractData(final ResultSet rs) throws SQLException {
+		final ResultSetMetaData metaData = rs.getMetaData();
+		final int columnCount = metaData.getColumnCount();
+
+		final Class<?>[] classes = new Class<?>[columnCount + 1];
+		@SuppressWarnings("unchecked")
+		final Function<Object, Object>[] formatters = (Function<Object, Object>[]) new Function<?, ?>[columnCount + 1];
+
+		long rows = 0;
+
+		try {
+			if (header) {
+				for (int i = 1; i <= columnCount; i++) {
+					out.field(JdbcUtils.lookupColumnName(metaData, i));
+				}
+				out.endRow();
+			}
+
+			while (rs.next()) {
+				for (int i = 1; i <= columnCount; i++) {
+					final Object value = JdbcUtils.getResultSetValue(rs, i);
+
+					if (value == null) {
+						out.field(null);
+						continue;
+					}
+
+					if (value.getClass() != classes[i]) {
+						classes[i] = value.getClass();
+						formatters[i] = formatterFor(classes[i]);
+					}
+
+					final Object formatted = formatters[i].apply(value);
+					out.field(formatted == null ? null : formatted.toString());
+				}
+
+				out.endRow();
+				rows++;
+			}
+
+			out.flush();
+		} catch (final IOException e) {
+			throw new UncheckedIOException("CSV export failed after " + rows + " rows", e);
+		}
+
+		return rows;
+	}
+
+	private static Function<Object, Object> formatterFor(final Class<?> type) {
+		if (type == String.class) {
+			return Function.identity();
+		}
+
+		if (Timestamp.class.isAssignableFrom(type)) {
+			return TIMESTAMP_TO_STRING;
+		}
+
+		if (java.sql.Date.class.isAssignableFrom(type)) {
+			return DATE_TO_STRING;
+		}
+
+		// falls back to toString when nothing better is registered
+		return Converters.getConverter(type, String.class);
+	}
+
+}
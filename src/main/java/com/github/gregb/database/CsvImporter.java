@@ -0,0 +1,408 @@
+package com.github.gregb.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import com.github.gregb.mapping.Converters;
+import com.github.gregb.mapping.Identified;
+import com.github.gregb.mapping.IdentifiedEnumParser;
+import com.github.gregb.mapping.PropertyHelper;
+import com.github.gregb.util.CsvReader;
+import com.google.common.primitives.Primitives;
+
+/**
+ * Loads CSV data into a repository's table with batched inserts.
+ *
+ * The first row is a header naming a property or column for each field. Rows are parsed and
+ * converted on the calling thread, and inserted in batches on a writer thread. A bounded queue sits
+ * between the two, so parsing waits when the database falls behind. The repository records each
+ * batch as one {@link RepositoryOperation#INSERT}, for its metrics and listeners.
+ *
+ * Rows which can't be converted, or don't have one field per header field, are rejected and counted, and the import carries on. A failed
+ * batch stops the import. Each batch commits on its own: batches already written stay written,
+ * and a transaction on the calling thread doesn't cover the writer thread.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+public class CsvImporter<T extends Identified<Long>> {
+
+	private static final Logger log = LoggerFactory.getLogger(CsvImporter.class);
+
+	private static final List<SqlParameterSource> END = Collections.emptyList();
+
+	private final JdbcRepository<T> repository;
+	private final Supplier<T> constructor;
+
+	private CsvReader reader = new CsvReader();
+	private int batchSize = 1000;
+	private int queuedBatches = 4;
+	private int maxRejectsKept = 100;
+	private boolean ignoreUnknownColumns = false;
+
+	public static class Reject {
+
+		public final long row;
+		public final String reason;
+
+		Reject(final long row, final String reason) {
+			this.row = row;
+			this.reason = reason;
+		}
+
+		@Override
+		public String toString() {
+			return "row " + row + ": " + reason;
+		}
+	}
+
+	public static class Report {
+
+		public long rowsRead;
+		public long inserted;
+		public long rejected;
+		public long elapsedNanos;
+
+		/**
+		 * The first rejects, up to {@link CsvImporter#setMaxRejectsKept(int)}.
+		 */
+		public final List<Reject> rejects = new ArrayList<Reject>();
+
+		public double getRowsPerSecond() {
+			return elapsedNanos == 0 ? 0 : rowsRead * 1e9 / elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("read %d, inserted %d, rejected %d in %d ms (%.0f rows/s)", rowsRead, inserted, rejected, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getRowsPerSecond());
+		}
+	}
+
+	public CsvImporter(final JdbcRepository<T> repository) {
+		this.repository = repository;
+		this.constructor = PropertyHelper.getConstructor(repository.getEntityClass());
+	}
+
+	public void setReader(final CsvReader reader) {
+		this.reader = reader;
+	}
+
+	public void setBatchSize(final int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * How many full batches may wait for the writer before parsing blocks.
+	 */
+	public void setQueuedBatches(final int queuedBatches) {
+		this.queuedBatches = queuedBatches;
+	}
+
+	public void setMaxRejectsKept(final int maxRejectsKept) {
+		this.maxRejectsKept = maxRejectsKept;
+	}
+
+	/**
+	 * Whether header fields matching no property or column are skipped, rather than failing the
+	 * import.
+	 */
+	public void setIgnoreUnknownColumns(final boolean ignoreUnknownColumns) {
+		this.ignoreUnknownColumns = ignoreUnknownColumns;
+	}
+
+	public Report importFile(final Path file) throws IOException {
+		return run(consumer -> reader.read(file, consumer));
+	}
+
+	/**
+	 * Imports from the stream; it is not closed.
+	 */
+	public Report importStream(final InputStream is) throws IOException {
+		return run(consumer -> reader.read(is, consumer));
+	}
+
+	private interface Source {
+		void read(Consumer<String[]> consumer) throws IOException;
+	}
+
+	private Report run(final Source source) throws IOException {
+		final long start = System.nanoTime();
+		final Report report = new Report();
+		final BlockingQueue<List<SqlParameterSource>> queue = new ArrayBlockingQueue<List<SqlParameterSource>>(Math.max(1, queuedBatches));
+		final Writer writer = new Writer(queue);
+		final Thread writerThread = new Thread(writer, "csv-import-" + repository.tableName);
+		final Parser parser = new Parser(report, queue, writer);
+
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		try {
+			source.read(parser);
+			parser.flush();
+			parser.put(END);
+		} catch (final RuntimeException | IOException e) {
+			writerThread.interrupt();
+			throw e;
+		} finally {
+			try {
+				writerThread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		report.inserted = writer.inserted;
+		report.elapsedNanos = System.nanoTime() - start;
+
+		if (writer.failure != null) {
+			throw new RuntimeException("CSV import into " + repository.tableName + " failed after " + writer.inserted + " rows", writer.failure);
+		}
+
+		log.info("CSV import into {}: {}", repository.tableName, report);
+		return report;
+	}
+
+	/**
+	 * Converts rows to insert parameters and hands them to the writer in batches.
+	 */
+	private class Parser implements Consumer<String[]> {
+
+		private final Report report;
+		private final BlockingQueue<List<SqlParameterSource>> queue;
+		private final Writer writer;
+
+		private Function<Object, Object>[] converters;
+		private BiConsumer<Object, Object>[] mutators;
+		private String[] names;
+		private List<SqlParameterSource> batch = new ArrayList<SqlParameterSource>();
+
+		Parser(final Report report, final BlockingQueue<List<SqlParameterSource>> queue, final Writer writer) {
+			this.report = report;
+			this.queue = queue;
+			this.writer = writer;
+		}
+
+		@Override
+		public void accept(final String[] fields) {
+			if (converters == null) {
+				mapHeader(fields);
+				return;
+			}
+
+			final long row = ++report.rowsRead;
+
+			if (fields.length != converters.length) {
+				reject(row, "expected " + converters.length + " fields, got " + fields.length);
+				return;
+			}
+
+			final T entity = constructor.get();
+
+			for (int i = 0; i < fields.length; i++) {
+				if (converters[i] == null) {
+					continue;
+				}
+
+				try {
+					mutators[i].accept(entity, converters[i].apply(fields[i]));
+				} catch (final RuntimeException e) {
+					reject(row, names[i] + ": " + e.getMessage());
+					return;
+				}
+			}
+
+			batch.add(repository.buildParameterMapFromObject(entity));
+
+			if (batch.size() >= batchSize) {
+				flush();
+			}
+		}
+
+		private void reject(final long row, final String reason) {
+			report.rejected++;
+
+			if (report.rejects.size() < maxRejectsKept) {
+				report.rejects.add(new Reject(row, reason));
+			}
+		}
+
+		void flush() {
+			if (!batch.isEmpty()) {
+				put(batch);
+				batch = new ArrayList<SqlParameterSource>(batchSize);
+			}
+		}
+
+		void put(final List<SqlParameterSource> parameters) {
+			try {
+				// stop at the first batch after the writer died, not once the queue is full; then
+				// wait for room, giving up if the writer dies meanwhile
+				checkWriter();
+				while (!queue.offer(parameters, 100, TimeUnit.MILLISECONDS)) {
+					checkWriter();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while importing into " + repository.tableName, e);
+			}
+		}
+
+		private void checkWriter() {
+			if (writer.failure != null) {
+				throw new RuntimeException("CSV import into " + repository.tableName + " failed after " + writer.inserted + " rows", writer.failure);
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private void mapHeader(final String[] header) {
+			converters = new Function[header.length];
+			mutators = new BiConsumer[header.length];
+			names = new String[header.length];
+
+			final List<String> unknown = new ArrayList<String>();
+
+			for (int i = 0; i < header.length; i++) {
+				final String name = header[i].trim();
+				final PropertyHelper property = findProperty(name);
+
+				if (property == null) {
+					unknown.add(name);
+					continue;
+				}
+
+				final BiConsumer<Object, Object> mutator = property.getMutator();
+				if (mutator == null) {
+					throw new IllegalArgumentException("Column " + name + " maps to read only property " + property.getName());
+				}
+
+				names[i] = name;
+				mutators[i] = mutator;
+				converters[i] = fromString(property.getType());
+			}
+
+			if (!unknown.isEmpty()) {
+				if (!ignoreUnknownColumns) {
+					throw new IllegalArgumentException("No property or column in " + repository.tableName + " for " + unknown);
+				}
+				log.warn("Ignoring CSV columns with no mapping in {}: {}", repository.tableName, unknown);
+			}
+		}
+	}
+
+	private PropertyHelper findProperty(final String name) {
+		final String column = repository.columnsByPropertyName.get(name);
+		if (column != null) {
+			return repository.propertiesByColumn.get(column);
+		}
+
+		for (final Entry<String, PropertyHelper> e : repository.propertiesByColumn.entrySet()) {
+			if (e.getKey().equalsIgnoreCase(name)) {
+				return e.getValue();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Builds the conversion from a CSV field to a property value. Empty fields are null, except for
+	 * strings, and rejected for primitives.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Function<Object, Object> fromString(final Class<?> propertyType) {
+		final Class<?> type = Primitives.wrap(propertyType);
+
+		if (type == String.class) {
+			return Function.identity();
+		}
+
+		final Function<Object, Object> converter;
+
+		if (Enum.class.isAssignableFrom(type) && Identified.class.isAssignableFrom(type)) {
+			final IdentifiedEnumParser parser = IdentifiedEnumParser.forType((Class) IdentifiedEnumParser.identityClassOf(type), (Class) type);
+			converter = s -> {
+				final Object value = parser.parse((String) s);
+				if (value == null) {
+					throw new IllegalArgumentException("No " + type.getSimpleName() + " with id " + s);
+				}
+				return value;
+			};
+		} else if (Enum.class.isAssignableFrom(type)) {
+			converter = new Converters.StringToEnum(type);
+		} else {
+			converter = Converters.getConverter(String.class, type);
+			if (converter == null) {
+				throw new IllegalArgumentException("No converter from String to " + type);
+			}
+		}
+
+		final boolean required = propertyType.isPrimitive();
+
+		return s -> {
+			final String trimmed = ((String) s).trim();
+
+			if (trimmed.isEmpty()) {
+				if (required) {
+					throw new IllegalArgumentException("a value is required");
+				}
+				return null;
+			}
+
+			return converter.apply(trimmed);
+		};
+	}
+
+	/**
+	 * Takes batches off the queue and inserts them, until the end marker.
+	 */
+	private class Writer implements Runnable {
+
+		private final BlockingQueue<List<SqlParameterSource>> queue;
+
+		volatile long inserted;
+		volatile Throwable failure;
+
+		Writer(final BlockingQueue<List<SqlParameterSource>> queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final List<SqlParameterSource> batch = queue.take();
+
+					if (batch == END) {
+						return;
+					}
+
+					repository.batchInsert(batch);
+					inserted += batch.size();
+				}
+			} catch (final InterruptedException e) {
+				log.debug("CSV import writer for {} interrupted", repository.tableName);
+			} catch (final Throwable e) {
+				failure = e;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.github.gregb.database;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.persistence.Column;
+
+import com.github.gregb.database.CopyBehavior.Behavior;
+import com.github.gregb.mapping.PropertyHelper;
+
+/**
+ * The rules {@link RowMappingRepository#scanForChanges(Object, Object, boolean)} applies to each
+ * column of an entity, resolved once from the entity's annotations.
+ *
+ * Only columns which can ever change are part of the plan: columns marked
+ * <code>@Column(updatable = false)</code>, or with {@link Behavior#IGNORE} or
+ * {@link Behavior#TAKE_ORIGINAL}, are left out. Columns are indexed in property name order, and a
+ * {@link Diff} reports changed columns as bits at those indexes.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+public class DiffPlan<T> {
+
+	private final String[] columnNames;
+	private final String[] propertyNames;
+	private final PropertyHelper[] accessors;
+	private final Behavior[] behaviors;
+	private final String[] assignments;
+	private final String[] nullAssignments;
+
+	private DiffPlan(final List<PropertyHelper> properties, final Map<PropertyHelper, String> columns) {
+		final int size = properties.size();
+
+		this.columnNames = new String[size];
+		this.propertyNames = new String[size];
+		this.accessors = new PropertyHelper[size];
+		this.behaviors = new Behavior[size];
+		this.assignments = new String[size];
+		this.nullAssignments = new String[size];
+
+		for (int i = 0; i < size; i++) {
+			final PropertyHelper ph = properties.get(i);
+			final CopyBehavior copyBehavior = ph.getAnnotation(CopyBehavior.class);
+
+			this.accessors[i] = ph;
+			this.propertyNames[i] = ph.getName();
+			this.columnNames[i] = columns.get(ph);
+			this.behaviors[i] = copyBehavior == null ? Behavior.MOST_RECENT_NON_NULL : copyBehavior.value();
+			this.assignments[i] = columnNames[i] + " = :" + columnNames[i];
+			this.nullAssignments[i] = columnNames[i] + " = NULL";
+		}
+	}
+
+	/**
+	 * Resolves the plan for the columns of an entity.
+	 *
+	 * @param propertiesByColumn
+	 *            The mapped columns, as found by {@link RowMappingRepository}.
+	 */
+	public static <T> DiffPlan<T> build(final Map<String, PropertyHelper> propertiesByColumn) {
+		final List<PropertyHelper> properties = new ArrayList<PropertyHelper>();
+		final Map<PropertyHelper, String> columns = new IdentityHashMap<PropertyHelper, String>();
+
+		propertiesByColumn.forEach((columnName, ph) -> {
+			final Column column = ph.getAnnotation(Column.class);
+			if (column != null && !column.updatable()) {
+				return;
+			}
+
+			final CopyBehavior copyBehavior = ph.getAnnotation(CopyBehavior.class);
+			if (copyBehavior != null && (copyBehavior.value() == Behavior.IGNORE || copyBehavior.value() == Behavior.TAKE_ORIGINAL)) {
+				// column is never updated
+				return;
+			}
+
+			properties.add(ph);
+			columns.put(ph, columnName);
+		});
+
+		properties.sort(Comparator.comparing(PropertyHelper::getName));
+
+		return new DiffPlan<T>(properties, columns);
+	}
+
+	/**
+	 * The number of columns in the plan.
+	 */
+	public int size() {
+		return columnNames.length;
+	}
+
+	public String getColumnName(final int index) {
+		return columnNames[index];
+	}
+
+	public String getPropertyName(final int index) {
+		return propertyNames[index];
+	}
+
+	/**
+	 * The assignment to use in an UPDATE statement for a changed column, e.g.
+	 * <code>column = :column</code> or <code>column = NULL</code>.
+	 */
+	public String getAssignment(final int index, final boolean nulled) {
+		return nulled ? nullAssignments[index] : assignments[index];
+	}
+
+	/**
+	 * Creates an empty diff sized for this plan, for reuse with
+	 * {@link #diff(Object, Object, boolean, Diff)}.
+	 */
+	public Diff newDiff() {
+		return new Diff(size());
+	}
+
+	public Diff diff(final T existing, final T updated, final boolean deleteOverride) {
+		final Diff diff = newDiff();
+		diff(existing, updated, deleteOverride, diff);
+		return diff;
+	}
+
+	/**
+	 * Compares two versions of an entity, using the same rules as
+	 * {@link RowMappingRepository#scanForChanges(Object, Object, boolean)}.
+	 *
+	 * @param existing
+	 *            The stored version, may be null.
+	 * @param updated
+	 *            The new version, may be null.
+	 * @param deleteOverride
+	 *            Whether a null updated value clears a {@link Behavior#MOST_RECENT_NON_NULL} column.
+	 * @param into
+	 *            Cleared, then filled with the changes.
+	 * @return Whether any column changed.
+	 */
+	public boolean diff(final T existing, final T updated, final boolean deleteOverride, final Diff into) {
+		into.clear();
+
+		for (int i = 0; i < accessors.length; i++) {
+			final Object dbValue;
+			final Object updatedValue;
+
+			try {
+				dbValue = existing == null ? null : accessors[i].getValue(existing);
+				updatedValue = updated == null ? null : accessors[i].getValue(updated);
+			} catch (final Exception e) {
+				throw new QueryConstructionException("Error generating assignment statements for entity update", e);
+			}
+
+			switch (behaviors[i]) {
+				case TAKE_UPDATED:
+					// column is updated if value is different
+					if (!Objects.deepEquals(dbValue, updatedValue)) {
+						into.set(i, dbValue, updatedValue);
+					}
+					break;
+				case MOST_RECENT_NON_NULL:
+					// if updated value is not null, use that
+					// otherwise only a delete override clears the existing value
+					if (updatedValue != null) {
+						if (!Objects.deepEquals(dbValue, updatedValue)) {
+							into.set(i, dbValue, updatedValue);
+						}
+					} else if (dbValue != null && deleteOverride) {
+						into.set(i, dbValue, null);
+					}
+					break;
+				case ALWAYS_NULL:
+					if (dbValue != null) {
+						into.set(i, dbValue, null);
+					}
+					break;
+				default:
+					// not part of the plan
+					break;
+			}
+		}
+
+		return !into.changed.isEmpty();
+	}
+
+	/**
+	 * The changes between two versions of an entity, indexed by plan column.
+	 */
+	public static class Diff {
+
+		/**
+		 * Columns whose value changed.
+		 */
+		public final BitSet changed;
+
+		/**
+		 * Changed columns whose new value is null.
+		 */
+		public final BitSet nulled;
+
+		public final Object[] oldValues;
+		public final Object[] newValues;
+
+		private Diff(final int size) {
+			this.changed = new BitSet(size);
+			this.nulled = new BitSet(size);
+			this.oldValues = new Object[size];
+			this.newValues = new Object[size];
+		}
+
+		private void set(final int index, final Object oldValue, final Object newValue) {
+			changed.set(index);
+			if (newValue == null) {
+				nulled.set(index);
+			}
+			oldValues[index] = oldValue;
+			newValues[index] = newValue;
+		}
+
+		private void clear() {
+			for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+				oldValues[i] = null;
+				newValues[i] = null;
+			}
+			changed.clear();
+			nulled.clear();
+		}
+
+		public boolean isEmpty() {
+			return changed.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,452 @@
+package com.github.gregb.database;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.github.gregb.mapping.Converters;
+import com.github.gregb.mapping.Identified;
+import com.github.gregb.mapping.IdentifiedEnumIndex;
+import com.github.gregb.mapping.IdentifiedEnumParser;
+import com.github.gregb.mapping.PropertyHelper;
+import com.github.gregb.mapping.ValueKind;
+import com.github.gregb.util.Varints;
+
+/**
+ * A compact binary form of an entity's mapped columns, for caches and queues, in place of Java
+ * serialization.
+ *
+ * An encoded entity is a schema fingerprint, a null bitmap, then the non null values in column
+ * name order:
+ * <ul>
+ * <li>integral numbers, LocalDate (epoch days) and DateTime (epoch millis) as zigzag varints;</li>
+ * <li>doubles as 8 bytes, booleans as 1;</li>
+ * <li>strings as a varint length and UTF-8;</li>
+ * <li>enums with integral ids by id, other {@link Identified} enums by their id's text, and plain
+ * enums by name, so reordering constants doesn't break stored data;</li>
+ * <li>anything else as text, through {@link Converters}.</li>
+ * </ul>
+ * The fingerprint covers column names and types, so data written for another version of the
+ * entity is refused rather than misread.
+ *
+ * Encoding into a buffer and decoding allocate nothing but the decoded values.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+public class EntityCodec<T> {
+
+	// by entity class and the repository's columns with their property names, as repositories of
+	// one class may map different columns
+	private static final ConcurrentMap<List<Object>, EntityCodec<?>> CODECS = new ConcurrentHashMap<List<Object>, EntityCodec<?>>();
+
+	private static final int FINGERPRINT_BYTES = 8;
+
+	private final Class<T> type;
+	private final Supplier<T> constructor;
+	private final FieldCodec[] fields;
+	private final int nullBytes;
+	private final long fingerprint;
+
+	/**
+	 * The codec for a repository's entity and columns, shared with repositories mapping the same.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> EntityCodec<T> forRepository(final RowMappingRepository<T> repository) {
+		final Map<String, String> columns = new TreeMap<String, String>();
+		for (final Entry<String, PropertyHelper> e : repository.propertiesByColumn.entrySet()) {
+			columns.put(e.getKey(), e.getValue().getName());
+		}
+
+		final List<Object> key = Arrays.<Object> asList(repository.getEntityClass(), columns);
+		EntityCodec<?> codec = CODECS.get(key);
+
+		if (codec == null) {
+			codec = new EntityCodec<T>(repository.getEntityClass(), repository.propertiesByColumn);
+			final EntityCodec<?> existing = CODECS.putIfAbsent(key, codec);
+			codec = existing == null ? codec : existing;
+		}
+
+		return (EntityCodec<T>) codec;
+	}
+
+	/**
+	 * @param propertiesByColumn
+	 *            The columns to encode, and their properties.
+	 * @throws IllegalArgumentException
+	 *             If a property has no mutator, or a type that can't be written as text.
+	 */
+	public EntityCodec(final Class<T> type, final Map<String, PropertyHelper> propertiesByColumn) {
+		this.type = type;
+		this.constructor = PropertyHelper.getConstructor(type);
+
+		final List<FieldCodec> list = new ArrayList<FieldCodec>();
+		long hash = 0xcbf29ce484222325L;
+
+		for (final Map.Entry<String, PropertyHelper> e : new TreeMap<String, PropertyHelper>(propertiesByColumn).entrySet()) {
+			final FieldCodec field = new FieldCodec(list.size(), e.getKey(), e.getValue());
+			list.add(field);
+
+			// FNV-1a over "column:type;"
+			for (final char c : (e.getKey() + ':' + e.getValue().getType().getName() + ';').toCharArray()) {
+				hash ^= c;
+				hash *= 0x100000001b3L;
+			}
+		}
+
+		this.fields = list.toArray(new FieldCodec[list.size()]);
+		this.nullBytes = (fields.length + 7) / 8;
+		this.fingerprint = hash;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * The exact number of bytes {@link #encode(Object, ByteBuffer)} writes for the entity.
+	 */
+	public int encodedSize(final T entity) {
+		int size = FINGERPRINT_BYTES + nullBytes;
+
+		for (final FieldCodec field : fields) {
+			final Object value = field.accessor.apply(entity);
+			if (value != null) {
+				size += field.size(value);
+			}
+		}
+
+		return size;
+	}
+
+	public byte[] encode(final T entity) {
+		final ByteBuffer buffer = ByteBuffer.allocate(encodedSize(entity));
+		encode(entity, buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * Writes the entity at the buffer's position, advancing it.
+	 *
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer has less than {@link #encodedSize(Object)} bytes remaining.
+	 */
+	public void encode(final T entity, final ByteBuffer buffer) {
+		buffer.putLong(fingerprint);
+
+		// the bitmap is filled in once the nulls are known
+		final int bitmap = buffer.position();
+		for (int i = 0; i < nullBytes; i++) {
+			buffer.put((byte) 0);
+		}
+
+		for (final FieldCodec field : fields) {
+			final Object value = field.accessor.apply(entity);
+
+			if (value == null) {
+				final int at = bitmap + field.index / 8;
+				buffer.put(at, (byte) (buffer.get(at) | 1 << (field.index % 8)));
+			} else {
+				field.write(buffer, value);
+			}
+		}
+	}
+
+	public T decode(final byte[] bytes) {
+		return decode(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads an entity at the buffer's position, advancing it.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the data was written for a different schema, or is malformed.
+	 */
+	public T decode(final ByteBuffer buffer) {
+		if (buffer.remaining() < FINGERPRINT_BYTES + nullBytes) {
+			throw new IllegalArgumentException("Truncated " + type.getSimpleName() + ": " + buffer.remaining() + " bytes");
+		}
+
+		final long found = buffer.getLong();
+		if (found != fingerprint) {
+			throw new IllegalArgumentException("Schema mismatch for " + type.getSimpleName() + ": expected fingerprint " + Long.toHexString(fingerprint) + ", got " + Long.toHexString(found));
+		}
+
+		final int bitmap = buffer.position();
+		buffer.position(bitmap + nullBytes);
+
+		final T entity = constructor.get();
+
+		for (final FieldCodec field : fields) {
+			if ((buffer.get(bitmap + field.index / 8) & 1 << (field.index % 8)) == 0) {
+				field.mutator.accept(entity, field.read(buffer));
+			}
+		}
+
+		return entity;
+	}
+
+	/**
+	 * The number of bytes UTF-8 takes for the text, without encoding it. Like
+	 * {@link String#getBytes(java.nio.charset.Charset)}, an unpaired surrogate becomes '?'.
+	 */
+	static int utf8Length(final CharSequence s) {
+		final int length = s.length();
+		int bytes = 0;
+
+		for (int i = 0; i < length; i++) {
+			final char c = s.charAt(i);
+
+			if (c < 0x80) {
+				bytes += 1;
+			} else if (c < 0x800) {
+				bytes += 2;
+			} else if (!Character.isSurrogate(c)) {
+				bytes += 3;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			} else {
+				bytes += 1;
+			}
+		}
+
+		return bytes;
+	}
+
+	static void writeUtf8(final ByteBuffer buffer, final CharSequence s) {
+		final int length = s.length();
+
+		for (int i = 0; i < length; i++) {
+			final char c = s.charAt(i);
+
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | c >> 6));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			} else if (!Character.isSurrogate(c)) {
+				buffer.put((byte) (0xE0 | c >> 12));
+				buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, s.charAt(++i));
+				buffer.put((byte) (0xF0 | cp >> 18));
+				buffer.put((byte) (0x80 | cp >> 12 & 0x3F));
+				buffer.put((byte) (0x80 | cp >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | cp & 0x3F));
+			} else {
+				buffer.put((byte) '?');
+			}
+		}
+	}
+
+	private static String readUtf8(final ByteBuffer buffer) {
+		final long length = Varints.readUnsigned(buffer);
+
+		if (length > buffer.remaining()) {
+			throw new IllegalArgumentException("String of " + length + " bytes overruns the data");
+		}
+
+		final int n = (int) length;
+		final String s;
+
+		if (buffer.hasArray()) {
+			s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), n, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + n);
+		} else {
+			final byte[] bytes = new byte[n];
+			buffer.get(bytes);
+			s = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		return s;
+	}
+
+	private static void writeText(final ByteBuffer buffer, final CharSequence s) {
+		Varints.writeUnsigned(buffer, utf8Length(s));
+		writeUtf8(buffer, s);
+	}
+
+	private static int textSize(final CharSequence s) {
+		final int bytes = utf8Length(s);
+		return Varints.sizeUnsigned(bytes) + bytes;
+	}
+
+	private enum Encoding {
+		VARINT, DOUBLE, BOOLEAN, STRING, ENUM_LONG_ID, ENUM_TEXT_ID, ENUM_NAME, TEXT
+	}
+
+	/**
+	 * Reads and writes one column.
+	 */
+	private static class FieldCodec {
+
+		final int index;
+		final String column;
+		final Class<?> propertyType;
+		final ValueKind kind;
+		final Encoding encoding;
+		final Function<Object, Object> accessor;
+		final BiConsumer<Object, Object> mutator;
+
+		// enums
+		IdentifiedEnumIndex<?> enumIndex;
+		IdentifiedEnumParser<?, ?> parser;
+
+		// anything else, as text
+		Function<Object, Object> toText;
+		Function<Object, Object> fromText;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		FieldCodec(final int index, final String column, final PropertyHelper property) {
+			this.index = index;
+			this.column = column;
+			this.propertyType = property.getType();
+			this.kind = ValueKind.of(propertyType);
+			this.accessor = property.getAccessor();
+			this.mutator = property.getMutator();
+
+			if (mutator == null) {
+				throw new IllegalArgumentException("Column " + column + " maps to read only property " + property.getName());
+			}
+
+			switch (kind) {
+			case LONG:
+			case LOCAL_DATE:
+			case DATE_TIME:
+				encoding = Encoding.VARINT;
+				break;
+			case DOUBLE:
+				encoding = Encoding.DOUBLE;
+				break;
+			case BOOLEAN:
+				encoding = Encoding.BOOLEAN;
+				break;
+			case STRING:
+				encoding = Encoding.STRING;
+				break;
+			case ENUM:
+				if (Identified.class.isAssignableFrom(propertyType)) {
+					final Class<?> idClass = IdentifiedEnumParser.identityClassOf(propertyType);
+					if (idClass == Long.class || idClass == Integer.class) {
+						encoding = Encoding.ENUM_LONG_ID;
+						enumIndex = IdentifiedEnumIndex.of((Class) propertyType);
+					} else {
+						encoding = Encoding.ENUM_TEXT_ID;
+						parser = IdentifiedEnumParser.forType((Class) idClass, (Class) propertyType);
+					}
+				} else {
+					encoding = Encoding.ENUM_NAME;
+				}
+				break;
+			default:
+				encoding = Encoding.TEXT;
+				toText = Converters.getConverter(propertyType, String.class);
+				fromText = Converters.getConverter(String.class, propertyType);
+				if (fromText == null) {
+					throw new IllegalArgumentException("Column " + column + " is a " + propertyType + ", which can't be read back from text");
+				}
+			}
+		}
+
+		int size(final Object value) {
+			switch (encoding) {
+			case VARINT:
+				return Varints.sizeSigned(kind.toLong(value));
+			case DOUBLE:
+				return 8;
+			case BOOLEAN:
+				return 1;
+			case STRING:
+				return textSize((String) value);
+			case ENUM_LONG_ID:
+				return Varints.sizeSigned(((Number) ((Identified<?>) value).getId()).longValue());
+			case ENUM_TEXT_ID:
+				return textSize(((Identified<?>) value).getId().toString());
+			case ENUM_NAME:
+				return textSize(((Enum<?>) value).name());
+			default:
+				return textSize((String) toText.apply(value));
+			}
+		}
+
+		void write(final ByteBuffer buffer, final Object value) {
+			switch (encoding) {
+			case VARINT:
+				Varints.writeSigned(buffer, kind.toLong(value));
+				break;
+			case DOUBLE:
+				buffer.putDouble(kind.toDouble(value));
+				break;
+			case BOOLEAN:
+				buffer.put((byte) kind.toLong(value));
+				break;
+			case STRING:
+				writeText(buffer, (String) value);
+				break;
+			case ENUM_LONG_ID:
+				Varints.writeSigned(buffer, ((Number) ((Identified<?>) value).getId()).longValue());
+				break;
+			case ENUM_TEXT_ID:
+				writeText(buffer, ((Identified<?>) value).getId().toString());
+				break;
+			case ENUM_NAME:
+				writeText(buffer, ((Enum<?>) value).name());
+				break;
+			default:
+				writeText(buffer, (String) toText.apply(value));
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Object read(final ByteBuffer buffer) {
+			final Object value;
+
+			switch (encoding) {
+			case VARINT:
+				return kind.fromLong(Varints.readSigned(buffer), propertyType);
+			case DOUBLE:
+				return kind.fromDouble(buffer.getDouble(), propertyType);
+			case BOOLEAN:
+				return buffer.get() != 0;
+			case STRING:
+				return readUtf8(buffer);
+			case ENUM_LONG_ID:
+				value = enumIndex.lookup(Varints.readSigned(buffer));
+				break;
+			case ENUM_TEXT_ID:
+				value = parser.parse(readUtf8(buffer));
+				break;
+			case ENUM_NAME:
+				value = Enum.valueOf((Class) propertyType, readUtf8(buffer));
+				break;
+			default:
+				return fromText.apply(readUtf8(buffer));
+			}
+
+			if (value == null) {
+				throw new IllegalArgumentException("No " + propertyType.getSimpleName() + " for the value stored in column " + column);
+			}
+
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.github.gregb.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.gregb.database.CopyBehavior.Behavior;
+import com.github.gregb.mapping.Accessor;
+import com.github.gregb.mapping.PropertyHelper;
+
+/**
+ * The merge and equivalence functions behind {@link EntityHelper#updateMerge(Object, Object)} and
+ * {@link EntityHelper#areEquivalent(Object, Object)}, compiled once per class.
+ *
+ * Property accessors, the constructor and each property's {@link CopyBehavior} are resolved when
+ * the copier is built, so a merge is a constructor call plus one compiled get/set per property.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+public class EntityCopier<T> {
+
+	private static final Logger log = LoggerFactory.getLogger(EntityCopier.class);
+
+	private static final ClassValue<EntityCopier<?>> COPIERS = new ClassValue<EntityCopier<?>>() {
+		@Override
+		protected EntityCopier<?> computeValue(final Class<?> type) {
+			return new EntityCopier<>(type);
+		}
+	};
+
+	private final Class<T> type;
+	private final Supplier<T> constructor;
+
+	// properties which can be written, used by merge
+	private final String[] copiedNames;
+	private final Accessor[] copiedGetters;
+	private final BiConsumer<Object, Object>[] copiedSetters;
+	private final Behavior[] behaviors;
+
+	// all readable properties, used by equivalence
+	private final String[] comparedNames;
+	private final Accessor[] comparedGetters;
+
+	@SuppressWarnings("unchecked")
+	public static <T> EntityCopier<T> forClass(final Class<T> type) {
+		return (EntityCopier<T>) COPIERS.get(type);
+	}
+
+	@SuppressWarnings("unchecked")
+	private EntityCopier(final Class<T> type) {
+		this.type = type;
+
+		Supplier<T> c;
+		try {
+			c = PropertyHelper.getConstructor(type);
+		} catch (final RuntimeException e) {
+			// only merge needs an instance; comparing still works
+			log.debug("No usable default constructor for {}", type);
+			c = () -> {
+				throw e;
+			};
+		}
+		this.constructor = c;
+
+		final List<PropertyHelper> copied = new ArrayList<PropertyHelper>();
+		final List<Entry<String, PropertyHelper>> compared = new ArrayList<Entry<String, PropertyHelper>>();
+
+		for (final Entry<String, PropertyHelper> entry : PropertyHelper.getFromClass(type).entrySet()) {
+			final PropertyHelper ph = entry.getValue();
+
+			if (ph.getGetter() == null && ph.getField() == null) {
+				continue;
+			}
+
+			// instances of the same class always share it
+			if (!entry.getKey().equals("class")) {
+				compared.add(entry);
+			}
+
+			if (ph.getMutator() != null) {
+				copied.add(ph);
+			}
+		}
+
+		final int n = copied.size();
+		this.copiedNames = new String[n];
+		this.copiedGetters = new Accessor[n];
+		this.copiedSetters = (BiConsumer<Object, Object>[]) new BiConsumer<?, ?>[n];
+		this.behaviors = new Behavior[n];
+
+		for (int i = 0; i < n; i++) {
+			final PropertyHelper ph = copied.get(i);
+			final CopyBehavior copyBehavior = ph.getAnnotation(CopyBehavior.class);
+
+			copiedNames[i] = ph.getName();
+			copiedGetters[i] = ph.getAccessor();
+			copiedSetters[i] = ph.getMutator();
+			behaviors[i] = copyBehavior == null ? Behavior.MOST_RECENT_NON_NULL : copyBehavior.value();
+		}
+
+		this.comparedNames = new String[compared.size()];
+		this.comparedGetters = new Accessor[compared.size()];
+
+		for (int i = 0; i < compared.size(); i++) {
+			comparedNames[i] = compared.get(i).getKey();
+			comparedGetters[i] = compared.get(i).getValue().getAccessor();
+		}
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * See {@link EntityHelper#updateMerge(Object, Object)}. Read-only properties are skipped.
+	 */
+	public T merge(final T existingEntity, final T updatedEntity) {
+		final boolean debug = log.isDebugEnabled();
+		final T newObject = constructor.get();
+
+		for (int i = 0; i < copiedGetters.length; i++) {
+			final Function<Object, Object> getter = copiedGetters[i];
+			final BiConsumer<Object, Object> setter = copiedSetters[i];
+
+			final Object existingValue = getter.apply(existingEntity);
+			Object updatedValue = getter.apply(updatedEntity);
+
+			// by value, so Object and CharSequence properties holding strings are trimmed too
+			if (updatedValue instanceof String) {
+				updatedValue = EntityHelper.toTrimmedOrNull((String) updatedValue);
+			}
+
+			switch (behaviors[i]) {
+				case IGNORE:
+					if (debug) {
+						log.debug("IGNORE - doing nothing to field {}", copiedNames[i]);
+					}
+					break;
+				case TAKE_UPDATED:
+					// new object always gets updated value
+					if (debug) {
+						log.debug("TAKE_UPDATED - copying {} = {} overwriting value {}", copiedNames[i], updatedValue, existingValue);
+					}
+					setter.accept(newObject, updatedValue);
+					break;
+				case TAKE_ORIGINAL:
+					// new object always gets existing value
+					if (debug) {
+						log.debug("TAKE_ORIGINAL - copying {} = {} ignoring new value {}", copiedNames[i], existingValue, updatedValue);
+					}
+					setter.accept(newObject, existingValue);
+					break;
+				case MOST_RECENT_NON_NULL:
+					// if updated value is not null, use that
+					// otherwise use existing value
+					if (updatedValue != null) {
+						if (debug) {
+							log.debug("MOST_RECENT_NON_NULL - copying {} = {} overwriting value {}", copiedNames[i], updatedValue, existingValue);
+						}
+						setter.accept(newObject, updatedValue);
+					} else {
+						if (debug) {
+							log.debug("MOST_RECENT_NON_NULL - copying {} = {} ignoring new value {}", copiedNames[i], existingValue, updatedValue);
+						}
+						setter.accept(newObject, existingValue);
+					}
+					break;
+				case ALWAYS_NULL:
+					// like it says
+					if (debug) {
+						log.debug("ALWAYS_NULL - setting {} = null", copiedNames[i]);
+					}
+					setter.accept(newObject, null);
+			}
+		}
+
+		return newObject;
+	}
+
+	/**
+	 * See {@link EntityHelper#areEquivalent(Object, Object)}. Both objects must be of this
+	 * copier's class.
+	 */
+	public boolean equivalent(final T a, final T b) {
+		for (int i = 0; i < comparedGetters.length; i++) {
+			try {
+				if (!Objects.equals(comparedGetters[i].apply(a), comparedGetters[i].apply(b))) {
+					return false;
+				}
+			} catch (final RuntimeException e) {
+				log.error("Error comparing object field in " + comparedNames[i] + " objects: \n\t" + a + "\n\t" + b);
+			}
+		}
+
+		return true;
+	}
+}
@@ -3,15 +3,11 @@ package com.github.gregb.database;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.gregb.database.CopyBehavior.Behavior;
-import com.github.gregb.mapping.ObjectBackedPropertyContainer;
 import com.github.gregb.mapping.PropertyHelper;
-import com.google.common.base.Objects;
 
 /**
  * Helps Entities!
@@ -95,91 +91,31 @@ public class EntityHelper {
 		return trimmed;
 	}
 
+	/**
+	 * Compares two objects property by property.
+	 *
+	 * @return True if both are of the same class and all their properties are equal.
+	 */
+	@SuppressWarnings("unchecked")
 	public static <T> boolean areEquivalent(final T a, final T b) {
 
 		if (!a.getClass().equals(b.getClass())) {
 			return false;
 		}
 
-		final ObjectBackedPropertyContainer<?> container = ObjectBackedPropertyContainer.fromClass(a.getClass());
-
-		for (final String propertyName : container) {
-			final PropertyHelper propertyHelper = container.getPropertyHelper(propertyName);
-
-			try {
-				final Object aValue = propertyHelper.getValue(a);
-				final Object bValue = propertyHelper.getValue(b);
-
-				final boolean comparison = Objects.equal(aValue, bValue);
-				if (comparison == false) {
-					return false;
-				}
-
-			}
-			catch (final Throwable e) {
-				log.error("Error comparing object field in " + propertyName + " objects: \n\t" + a + "\n\t" + b);
-			}
-		}
-
-		return true;
+		return EntityCopier.forClass((Class<T>) a.getClass()).equivalent(a, b);
 	}
 
+	/**
+	 * Creates a new entity combining an existing and an updated version, following the
+	 * {@link CopyBehavior} of each property.
+	 *
+	 * @return A new instance; neither argument is modified.
+	 */
 	@SuppressWarnings("unchecked")
 	public static <T> T updateMerge(final T existingEntity, final T updatedEntity) {
 		try {
-			final Map<String, PropertyHelper> columns = PropertyHelper.getFromInstance(updatedEntity);
-
-			final T newObject = (T) existingEntity.getClass().newInstance();
-
-			for (final Entry<String, PropertyHelper> columnEntry : columns.entrySet()) {
-				final String fieldName = columnEntry.getKey();
-				final PropertyHelper entityColumn = columnEntry.getValue();
-
-				final Object existingValue = entityColumn.getValue(existingEntity);
-				Object updatedValue = entityColumn.getValue(updatedEntity);
-
-				if (updatedValue instanceof String) {
-					updatedValue = toTrimmedOrNull((String) updatedValue);
-				}
-
-				final CopyBehavior copyBehavior = entityColumn.getAnnotation(CopyBehavior.class);
-				final CopyBehavior.Behavior behavior = copyBehavior == null ? Behavior.MOST_RECENT_NON_NULL : copyBehavior.value();
-
-				switch (behavior) {
-					case IGNORE:
-						log.debug("IGNORE - doing nothing to field " + fieldName);
-						break;
-					case TAKE_UPDATED:
-						// new object always gets updated value
-						log.debug("TAKE_UPDATED - copying " + fieldName + " = " + updatedValue + " overwriting value " + existingValue);
-						entityColumn.setValue(newObject, updatedValue);
-						break;
-					case TAKE_ORIGINAL:
-						// new object always gets existing value
-						log.debug("TAKE_ORIGINAL - copying " + fieldName + " = " + existingValue + " ignoring new value " + updatedValue);
-						entityColumn.setValue(newObject, existingValue);
-						break;
-					case MOST_RECENT_NON_NULL:
-						// if updated value is not null, use that
-						// otherwise use existing value
-						if (updatedValue != null) {
-							log.debug("MOST_RECENT_NON_NULL - copying " + fieldName + " = " + updatedValue + " overwriting value " + existingValue);
-							entityColumn.setValue(newObject, updatedValue);
-						}
-						else {
-							log.debug("MOST_RECENT_NON_NULL - copying " + fieldName + " = " + existingValue + " ignoring new value " + updatedValue);
-							entityColumn.setValue(newObject, existingValue);
-						}
-						break;
-					case ALWAYS_NULL:
-						// like it says
-						log.debug("ALWAYS_NULL - setting " + fieldName + " = null");
-						entityColumn.setValue(newObject, null);
-
-				}
-			}
-
-			return newObject;
+			return EntityCopier.forClass((Class<T>) existingEntity.getClass()).merge(existingEntity, updatedEntity);
 		}
 		catch (final Throwable e) {
 			log.error("Error copying entity", e);
@@ -0,0 +1,668 @@
+package com.github.gregb.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import com.github.gregb.mapping.Identified;
+import com.github.gregb.mapping.PropertyHelper;
+import com.github.gregb.mapping.ValueKind;
+import com.github.gregb.util.LongIntHashMap;
+
+/**
+ * Entities stored column by column, for filtering and aggregating many rows in memory without
+ * keeping an object per row.
+ *
+ * Each writable property becomes a column, stored according to its {@link ValueKind}: numbers,
+ * booleans and dates in a long[] or double[], strings and enums as int codes into a dictionary,
+ * anything else as objects. Nulls are tracked separately.
+ *
+ * Filters produce a {@link BitSet} of matching rows, which can be combined with the BitSet
+ * operations and passed to the aggregates, or to {@link #materialize(int)} to get entities back.
+ * Aggregates take null for all rows. The table is read only once built.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+public class EntityTable<T> {
+
+	private final Class<T> type;
+	private final Supplier<T> constructor;
+	private final Map<String, Column> columns;
+	private final int size;
+
+	private EntityTable(final Builder<T> builder) {
+		this.type = builder.type;
+		this.constructor = builder.constructor;
+		this.size = builder.size;
+		this.columns = new LinkedHashMap<String, Column>();
+
+		for (final Column c : builder.columns) {
+			c.trim(size);
+			columns.put(c.name, c);
+		}
+	}
+
+	public static <T> Builder<T> builder(final Class<T> type) {
+		return new Builder<T>(type);
+	}
+
+	public static <T> EntityTable<T> of(final Class<T> type, final Collection<? extends T> entities) {
+		final Builder<T> builder = new Builder<T>(type);
+		entities.forEach(builder::add);
+		return builder.build();
+	}
+
+	/**
+	 * Loads the matching rows of a repository, mapping one row at a time into the table rather
+	 * than building a list of entities first.
+	 */
+	public static <T extends Identified<Long>> EntityTable<T> load(final JdbcRepository<T> repository, final Where where) {
+		final Builder<T> builder = new Builder<T>(repository.getEntityClass());
+		final MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+		final String whereClause = where == null ? "" : where.toSql(parameterSource, repository::convertParameterValue);
+
+		repository.exportWhere(whereClause, null, parameterSource, rs -> {
+			final RowMapper<T> mapper = repository.newQueryMapper();
+			int rowNum = 0;
+			while (rs.next()) {
+				builder.add(mapper.mapRow(rs, rowNum++));
+			}
+			return null;
+		});
+
+		return builder.build();
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Collection<String> getPropertyNames() {
+		return columns.keySet();
+	}
+
+	public ValueKind getKind(final String property) {
+		return column(property).kind;
+	}
+
+	public Object get(final String property, final int row) {
+		return column(property).get(row);
+	}
+
+	public boolean isNull(final String property, final int row) {
+		return column(property).nulls.get(row);
+	}
+
+	/**
+	 * Rows whose value is not null and passes the test. For {@link ValueKind#isLong()} columns the
+	 * test sees the stored long, e.g. days since the epoch for dates.
+	 */
+	public BitSet filterLong(final String property, final LongPredicate test) {
+		final LongColumn c = column(property, LongColumn.class);
+		final BitSet result = new BitSet(size);
+		final long[] values = c.values;
+
+		for (int i = 0; i < size; i++) {
+			if (test.test(values[i]) && !c.nulls.get(i)) {
+				result.set(i);
+			}
+		}
+
+		return result;
+	}
+
+	public BitSet filterDouble(final String property, final DoublePredicate test) {
+		final DoubleColumn c = column(property, DoubleColumn.class);
+		final BitSet result = new BitSet(size);
+		final double[] values = c.values;
+
+		for (int i = 0; i < size; i++) {
+			if (test.test(values[i]) && !c.nulls.get(i)) {
+				result.set(i);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Rows whose value lies between the bounds, inclusive, for number and date columns. Either
+	 * bound may be null for no limit.
+	 */
+	public BitSet between(final String property, final Object from, final Object to) {
+		final Column c = column(property);
+
+		if (c instanceof LongColumn) {
+			final long low = from == null ? Long.MIN_VALUE : c.kind.toLong(from);
+			final long high = to == null ? Long.MAX_VALUE : c.kind.toLong(to);
+			return filterLong(property, v -> v >= low && v <= high);
+		}
+
+		if (c instanceof DoubleColumn) {
+			final double low = from == null ? Double.NEGATIVE_INFINITY : c.kind.toDouble(from);
+			final double high = to == null ? Double.POSITIVE_INFINITY : c.kind.toDouble(to);
+			return filterDouble(property, v -> v >= low && v <= high);
+		}
+
+		throw new IllegalArgumentException(property + " is not a number or date column");
+	}
+
+	/**
+	 * Rows whose value equals the given one; null finds the null rows. On string and enum columns
+	 * this compares dictionary codes.
+	 */
+	public BitSet filterEquals(final String property, final Object value) {
+		final Column c = column(property);
+
+		if (value == null) {
+			return (BitSet) c.nulls.clone();
+		}
+
+		if (c instanceof DictionaryColumn) {
+			final DictionaryColumn d = (DictionaryColumn) c;
+			final Integer code = d.codes.get(value);
+			final BitSet result = new BitSet(size);
+
+			if (code != null) {
+				final int wanted = code;
+				final int[] values = d.values;
+				for (int i = 0; i < size; i++) {
+					if (values[i] == wanted) {
+						result.set(i);
+					}
+				}
+			}
+
+			return result;
+		}
+
+		if (c instanceof LongColumn) {
+			final long wanted = c.kind.toLong(value);
+			return filterLong(property, v -> v == wanted);
+		}
+
+		return filter(property, value::equals);
+	}
+
+	/**
+	 * Rows whose value passes the test, for any column; values are boxed, so this is the slow
+	 * path. The test also sees nulls.
+	 */
+	public BitSet filter(final String property, final Predicate<Object> test) {
+		final Column c = column(property);
+		final BitSet result = new BitSet(size);
+
+		for (int i = 0; i < size; i++) {
+			if (test.test(c.get(i))) {
+				result.set(i);
+			}
+		}
+
+		return result;
+	}
+
+	public int count(final BitSet rows) {
+		return rows == null ? size : rows.cardinality();
+	}
+
+	/**
+	 * The number of rows with a value in the column.
+	 */
+	public int countNotNull(final String property, final BitSet rows) {
+		final BitSet present = all();
+		present.andNot(column(property).nulls);
+		if (rows != null) {
+			present.and(rows);
+		}
+		return present.cardinality();
+	}
+
+	/**
+	 * The sum over a number column, skipping nulls.
+	 */
+	public double sum(final String property, final BitSet rows) {
+		final Column c = column(property);
+		final BitSet selected = selected(c, rows);
+		double sum = 0;
+
+		if (c instanceof LongColumn && c.kind == ValueKind.LONG) {
+			final long[] values = ((LongColumn) c).values;
+			long total = 0;
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+				total += values[i];
+			}
+			return total;
+		}
+
+		if (c instanceof DoubleColumn) {
+			final double[] values = ((DoubleColumn) c).values;
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+				sum += values[i];
+			}
+			return sum;
+		}
+
+		throw new IllegalArgumentException(property + " is not a number column");
+	}
+
+	/**
+	 * The smallest value in a number or date column, or null when every selected row is null.
+	 */
+	public Object min(final String property, final BitSet rows) {
+		return extreme(property, rows, -1);
+	}
+
+	public Object max(final String property, final BitSet rows) {
+		return extreme(property, rows, 1);
+	}
+
+	private Object extreme(final String property, final BitSet rows, final int sign) {
+		final Column c = column(property);
+		final BitSet selected = selected(c, rows);
+		int best = -1;
+
+		if (c instanceof LongColumn) {
+			final long[] values = ((LongColumn) c).values;
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+				if (best < 0 || Long.compare(values[i], values[best]) * sign > 0) {
+					best = i;
+				}
+			}
+		} else if (c instanceof DoubleColumn) {
+			final double[] values = ((DoubleColumn) c).values;
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+				if (best < 0 || Double.compare(values[i], values[best]) * sign > 0) {
+					best = i;
+				}
+			}
+		} else {
+			throw new IllegalArgumentException(property + " is not a number or date column");
+		}
+
+		return best < 0 ? null : c.get(best);
+	}
+
+	/**
+	 * Splits rows by the value of a column. Null values are grouped under null.
+	 *
+	 * @return The rows of each value, in order of first appearance.
+	 */
+	public Map<Object, BitSet> groupBy(final String property, final BitSet rows) {
+		final Column c = column(property);
+		final BitSet selected = rows == null ? all() : rows;
+		final Map<Object, BitSet> groups = new LinkedHashMap<Object, BitSet>();
+
+		if (c instanceof DictionaryColumn) {
+			final DictionaryColumn d = (DictionaryColumn) c;
+			final BitSet[] byCode = new BitSet[d.dictionary.size() + 1];
+
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+				// null is code -1, kept in the last slot
+				final int slot = d.values[i] < 0 ? byCode.length - 1 : d.values[i];
+				if (byCode[slot] == null) {
+					byCode[slot] = new BitSet(size);
+					groups.put(slot == byCode.length - 1 ? null : d.dictionary.get(slot), byCode[slot]);
+				}
+				byCode[slot].set(i);
+			}
+
+			return groups;
+		}
+
+		if (c instanceof LongColumn) {
+			final LongColumn l = (LongColumn) c;
+			final LongIntHashMap slots = new LongIntHashMap();
+			final List<BitSet> sets = new ArrayList<BitSet>();
+			BitSet nullRows = null;
+
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+				if (l.nulls.get(i)) {
+					if (nullRows == null) {
+						nullRows = new BitSet(size);
+						groups.put(null, nullRows);
+					}
+					nullRows.set(i);
+					continue;
+				}
+
+				int slot = slots.get(l.values[i], -1);
+				if (slot < 0) {
+					slot = sets.size();
+					slots.put(l.values[i], slot, -1);
+					sets.add(new BitSet(size));
+					groups.put(l.get(i), sets.get(slot));
+				}
+				sets.get(slot).set(i);
+			}
+
+			return groups;
+		}
+
+		for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+			groups.computeIfAbsent(c.get(i), k -> new BitSet(size)).set(i);
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Builds the entity stored at a row.
+	 */
+	public T materialize(final int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+
+		final T entity = constructor.get();
+
+		for (final Column c : columns.values()) {
+			final Object value = c.get(row);
+			if (value != null) {
+				c.mutator.accept(entity, value);
+			}
+		}
+
+		return entity;
+	}
+
+	public List<T> materialize(final BitSet rows) {
+		final List<T> result = new ArrayList<T>(rows.cardinality());
+		for (int i = rows.nextSetBit(0); i >= 0 && i < size; i = rows.nextSetBit(i + 1)) {
+			result.add(materialize(i));
+		}
+		return result;
+	}
+
+	private BitSet all() {
+		final BitSet all = new BitSet(size);
+		all.set(0, size);
+		return all;
+	}
+
+	private BitSet selected(final Column c, final BitSet rows) {
+		final BitSet selected = rows == null ? all() : (BitSet) rows.clone();
+		selected.andNot(c.nulls);
+		return selected;
+	}
+
+	private Column column(final String property) {
+		final Column c = columns.get(property);
+		if (c == null) {
+			throw new IllegalArgumentException("No column " + property + " in table of " + type);
+		}
+		return c;
+	}
+
+	private <C extends Column> C column(final String property, final Class<C> columnClass) {
+		final Column c = column(property);
+		if (!columnClass.isInstance(c)) {
+			throw new IllegalArgumentException(property + " is a " + c.kind + " column");
+		}
+		return columnClass.cast(c);
+	}
+
+	/**
+	 * Appends entities to a new table.
+	 */
+	public static class Builder<T> {
+
+		private final Class<T> type;
+		private final Supplier<T> constructor;
+		private final List<Column> columns = new ArrayList<Column>();
+		private int size;
+		private boolean built;
+
+		Builder(final Class<T> type) {
+			this.type = type;
+			this.constructor = PropertyHelper.getConstructor(type);
+
+			for (final Entry<String, PropertyHelper> e : PropertyHelper.getFromClass(type).entrySet()) {
+				final PropertyHelper property = e.getValue();
+				final BiConsumer<Object, Object> mutator = property.getMutator();
+
+				// only what can be put back into an entity
+				if (e.getKey().equals("class") || mutator == null) {
+					continue;
+				}
+
+				columns.add(Column.create(e.getKey(), property, mutator));
+			}
+		}
+
+		public Builder<T> add(final T entity) {
+			if (built) {
+				throw new IllegalStateException("Table already built");
+			}
+
+			for (final Column c : columns) {
+				final Object value = c.accessor.apply(entity);
+				c.ensureCapacity(size + 1);
+				if (value == null) {
+					c.nulls.set(size);
+					c.setNull(size);
+				} else {
+					c.set(size, value);
+				}
+			}
+
+			size++;
+			return this;
+		}
+
+		public EntityTable<T> build() {
+			built = true;
+			return new EntityTable<T>(this);
+		}
+	}
+
+	private abstract static class Column {
+
+		final String name;
+		final ValueKind kind;
+		final Class<?> type;
+		final Function<Object, Object> accessor;
+		final BiConsumer<Object, Object> mutator;
+		final BitSet nulls = new BitSet();
+
+		Column(final String name, final PropertyHelper property, final BiConsumer<Object, Object> mutator) {
+			this.name = name;
+			this.type = property.getType();
+			this.kind = ValueKind.of(type);
+			this.accessor = property.getAccessor();
+			this.mutator = mutator;
+		}
+
+		static Column create(final String name, final PropertyHelper property, final BiConsumer<Object, Object> mutator) {
+			final ValueKind kind = ValueKind.of(property.getType());
+
+			if (kind.isLong()) {
+				return new LongColumn(name, property, mutator);
+			}
+			if (kind == ValueKind.DOUBLE) {
+				return new DoubleColumn(name, property, mutator);
+			}
+			if (kind == ValueKind.STRING || kind == ValueKind.ENUM) {
+				return new DictionaryColumn(name, property, mutator);
+			}
+			return new ObjectColumn(name, property, mutator);
+		}
+
+		abstract void ensureCapacity(int capacity);
+
+		abstract void trim(int size);
+
+		abstract void set(int row, Object value);
+
+		void setNull(final int row) {
+		}
+
+		abstract Object get(int row);
+
+		static int grow(final int length, final int capacity) {
+			return Math.max(capacity, Math.max(16, length + (length >> 1)));
+		}
+	}
+
+	private static class LongColumn extends Column {
+
+		long[] values = new long[0];
+
+		LongColumn(final String name, final PropertyHelper property, final BiConsumer<Object, Object> mutator) {
+			super(name, property, mutator);
+		}
+
+		@Override
+		void ensureCapacity(final int capacity) {
+			if (capacity > values.length) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+
+		@Override
+		void trim(final int size) {
+			values = Arrays.copyOf(values, size);
+		}
+
+		@Override
+		void set(final int row, final Object value) {
+			values[row] = kind.toLong(value);
+		}
+
+		@Override
+		Object get(final int row) {
+			return nulls.get(row) ? null : kind.fromLong(values[row], type);
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+
+		double[] values = new double[0];
+
+		DoubleColumn(final String name, final PropertyHelper property, final BiConsumer<Object, Object> mutator) {
+			super(name, property, mutator);
+		}
+
+		@Override
+		void ensureCapacity(final int capacity) {
+			if (capacity > values.length) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+
+		@Override
+		void trim(final int size) {
+			values = Arrays.copyOf(values, size);
+		}
+
+		@Override
+		void set(final int row, final Object value) {
+			values[row] = kind.toDouble(value);
+		}
+
+		@Override
+		Object get(final int row) {
+			return nulls.get(row) ? null : kind.fromDouble(values[row], type);
+		}
+	}
+
+	/**
+	 * Strings and enums, as codes into the distinct values in order of first appearance.
+	 */
+	private static class DictionaryColumn extends Column {
+
+		int[] values = new int[0];
+		final List<Object> dictionary = new ArrayList<Object>();
+		final Map<Object, Integer> codes = new HashMap<Object, Integer>();
+
+		DictionaryColumn(final String name, final PropertyHelper property, final BiConsumer<Object, Object> mutator) {
+			super(name, property, mutator);
+		}
+
+		@Override
+		void ensureCapacity(final int capacity) {
+			if (capacity > values.length) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+
+		@Override
+		void trim(final int size) {
+			values = Arrays.copyOf(values, size);
+		}
+
+		@Override
+		void set(final int row, final Object value) {
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				codes.put(value, code);
+			}
+			values[row] = code;
+		}
+
+		@Override
+		void setNull(final int row) {
+			values[row] = -1;
+		}
+
+		@Override
+		Object get(final int row) {
+			return values[row] < 0 ? null : dictionary.get(values[row]);
+		}
+	}
+
+	private static class ObjectColumn extends Column {
+
+		Object[] values = new Object[0];
+
+		ObjectColumn(final String name, final PropertyHelper property, final BiConsumer<Object, Object> mutator) {
+			super(name, property, mutator);
+		}
+
+		@Override
+		void ensureCapacity(final int capacity) {
+			if (capacity > values.length) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+
+		@Override
+		void trim(final int size) {
+			values = Arrays.copyOf(values, size);
+		}
+
+		@Override
+		void set(final int row, final Object value) {
+			values[row] = value;
+		}
+
+		@Override
+		Object get(final int row) {
+			return values[row];
+		}
+	}
+
+}
@@ -80,4 +80,85 @@ public class JSSelectData {
 
 	}
 
+	/**
+	 * Renders the data the way a JSON mapper renders the public fields, with labels in order.
+	 */
+	public String toJson() {
+		final StringBuilder sb = new StringBuilder(32 + order.size() * 48);
+		sb.append("{\"labels\":{");
+
+		boolean first = true;
+		for (final String id : order) {
+			final Label label = labels.get(id);
+			if (label == null) {
+				continue;
+			}
+
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+
+			appendString(sb, id);
+			sb.append(":{\"primary\":");
+			appendString(sb, label.primary);
+			sb.append(",\"secondary\":");
+			appendString(sb, label.secondary);
+			sb.append(",\"tooltip\":");
+			appendString(sb, label.tooltip);
+			sb.append('}');
+		}
+
+		sb.append("},\"order\":[");
+
+		first = true;
+		for (final String id : order) {
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			appendString(sb, id);
+		}
+
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private static void appendString(final StringBuilder sb, final String s) {
+		if (s == null) {
+			sb.append("null");
+			return;
+		}
+
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				// also escape '<' so the JSON can be inlined in a script tag
+				if (c < 0x20 || c == '<' || c == '\u2028' || c == '\u2029') {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
 }
@@ -0,0 +1,170 @@
+package com.github.gregb.database;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.github.gregb.database.JSSelectData.Label;
+import com.github.gregb.mapping.Described;
+import com.github.gregb.mapping.Identified;
+
+/**
+ * Builds each {@link JSSelectData} once and keeps it, together with its JSON, for select boxes
+ * rendered over and over from the same options.
+ *
+ * The cache keeps its own copy of the options, in which labels with the same text are a single
+ * instance, and hands out copies, so no caller can change what the next one gets. Enum options
+ * never change; options loaded from a repository
+ * are dropped with {@link #invalidate(Object)} when the table changes, and reloaded on the next
+ * request.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public final class JSSelectDataCache {
+
+	private static final ConcurrentMap<List<Object>, Cached> CACHE = new ConcurrentHashMap<List<Object>, Cached>();
+
+	// bumped by invalidate, so a load which began before it is never served after it
+	private static final ConcurrentMap<Object, AtomicLong> GENERATIONS = new ConcurrentHashMap<Object, AtomicLong>();
+
+	private JSSelectDataCache() {
+	}
+
+	/**
+	 * Options built once, with their JSON rendering.
+	 */
+	public static final class Cached {
+
+		private final JSSelectData data;
+		private final byte[] json;
+		private final long generation;
+
+		private Cached(final JSSelectData data, final long generation) {
+			this.data = data;
+			this.json = data.toJson().getBytes(StandardCharsets.UTF_8);
+			this.generation = generation;
+		}
+
+		/**
+		 * @return A copy of the options, with labels of its own; the label map and order list are
+		 *         unmodifiable. Built on every call, unlike the JSON.
+		 */
+		public JSSelectData getData() {
+			final Map<String, Label> labels = new HashMap<String, Label>(data.labels.size() * 2);
+			for (final Entry<String, Label> e : data.labels.entrySet()) {
+				labels.put(e.getKey(), copy(e.getValue()));
+			}
+
+			final JSSelectData copy = new JSSelectData();
+			copy.labels = Collections.unmodifiableMap(labels);
+			copy.order = data.order;
+			return copy;
+		}
+
+		public int getJsonLength() {
+			return json.length;
+		}
+
+		/**
+		 * @return A copy of the UTF-8 JSON.
+		 */
+		public byte[] getJson() {
+			return json.clone();
+		}
+
+		/**
+		 * Writes the UTF-8 JSON, e.g. straight into a response body.
+		 */
+		public void writeJson(final OutputStream out) throws IOException {
+			out.write(json);
+		}
+	}
+
+	/**
+	 * The options for every constant of an enum, keyed by id.
+	 */
+	public static <T extends Enum<T> & Identified<?> & Described> Cached forEnum(final Class<T> type, final Label defaultLabel) {
+		return get(type, defaultLabel, () -> JSSelectData.fromDescribed(type.getEnumConstants(), defaultLabel));
+	}
+
+	/**
+	 * The options stored under a key, loading them the first time.
+	 *
+	 * @param key
+	 *            Identifies the option list, e.g. the repository class; used to invalidate.
+	 * @param loader
+	 *            Builds the options. The default label, if any, should already be in them.
+	 */
+	public static Cached get(final Object key, final Label defaultLabel, final Supplier<JSSelectData> loader) {
+		final List<Object> cacheKey = Arrays.<Object> asList(key, labelKey(defaultLabel));
+		final long generation = generationOf(key);
+		final Cached cached = CACHE.get(cacheKey);
+
+		if (cached != null && cached.generation == generation) {
+			return cached;
+		}
+
+		// built outside the map so a slow loader doesn't block other keys; if the key was
+		// invalidated meanwhile, this caller still gets what it loaded, but the next one reloads
+		final Cached loaded = new Cached(freeze(loader.get()), generation);
+		return CACHE.merge(cacheKey, loaded, (current, other) -> current.generation >= other.generation ? current : other);
+	}
+
+	/**
+	 * Drops every option list stored under the key, whatever its default label.
+	 */
+	public static void invalidate(final Object key) {
+		GENERATIONS.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+		CACHE.keySet().removeIf(k -> k.get(0).equals(key));
+	}
+
+	private static long generationOf(final Object key) {
+		final AtomicLong generation = GENERATIONS.get(key);
+		return generation == null ? 0 : generation.get();
+	}
+
+	private static List<String> labelKey(final Label label) {
+		return label == null ? null : Arrays.asList(label.primary, label.secondary, label.tooltip);
+	}
+
+	private static Label copy(final Label label) {
+		if (label == null) {
+			return null;
+		}
+
+		final Label copy = new Label();
+		copy.primary = label.primary;
+		copy.secondary = label.secondary;
+		copy.tooltip = label.tooltip;
+		return copy;
+	}
+
+	private static JSSelectData freeze(final JSSelectData data) {
+		final Map<String, Label> labels = new HashMap<String, Label>(data.labels.size() * 2);
+		final Map<List<String>, Label> distinct = new HashMap<List<String>, Label>();
+
+		// copied, so the loader's labels, such as Label.ANY, aren't shared with the cache
+		for (final Entry<String, Label> e : data.labels.entrySet()) {
+			final Label label = e.getValue();
+			labels.put(e.getKey(), label == null ? null : distinct.computeIfAbsent(labelKey(label), k -> copy(label)));
+		}
+
+		final JSSelectData frozen = new JSSelectData();
+		frozen.labels = Collections.unmodifiableMap(labels);
+		frozen.order = Collections.unmodifiableList(new ArrayList<String>(data.order));
+		return frozen;
+	}
+
+}
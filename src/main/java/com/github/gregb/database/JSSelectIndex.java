@@ -0,0 +1,273 @@
+package com.github.gregb.database;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+import com.github.gregb.database.JSSelectData.Label;
+import com.github.gregb.mapping.Described;
+import com.github.gregb.mapping.Identified;
+
+/**
+ * A server side search over the descriptions of many entities, for selects with too many options
+ * to send to the browser whole. Results come back a page at a time as {@link JSSelectData}.
+ *
+ * Descriptions are normalized (lower case, accents removed) and split into words. Every word is
+ * kept in a sorted map, so a prefix lookup is a range scan over the words starting with the
+ * longest word of the query. Substring lookups scan every description.
+ *
+ * Lookups don't lock and may run while the index is updated; each entity is always seen whole,
+ * either before or after its update.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+public class JSSelectIndex<T extends Identified<Long> & Described> {
+
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+	private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	// separates the word from the id in word keys; sorts before any character of a word
+	private static final char SEPARATOR = '\u0000';
+
+	private final ConcurrentSkipListMap<String, Entry> byWord = new ConcurrentSkipListMap<String, Entry>();
+	private final ConcurrentSkipListMap<Long, Entry> byId = new ConcurrentSkipListMap<Long, Entry>();
+
+	private static class Entry {
+
+		final String key;
+		final String normalized;
+		final String[] words;
+		final Label label;
+
+		Entry(final Long id, final String description) {
+			this.key = id.toString();
+			this.normalized = normalize(description);
+			this.words = split(normalized);
+			this.label = new Label();
+			this.label.primary = description;
+		}
+	}
+
+	public JSSelectIndex() {
+	}
+
+	public JSSelectIndex(final Collection<? extends T> items) {
+		items.forEach(this::put);
+	}
+
+	public int size() {
+		return byId.size();
+	}
+
+	/**
+	 * Adds an entity, or updates it if its id is already indexed.
+	 */
+	public synchronized void put(final T item) {
+		final Entry entry = new Entry(item.getId(), descriptionOf(item));
+		final Entry old = byId.put(item.getId(), entry);
+
+		for (final String word : entry.words) {
+			byWord.put(wordKey(word, entry), entry);
+		}
+
+		if (old != null) {
+			removeWords(old);
+		}
+	}
+
+	public synchronized void remove(final Long id) {
+		final Entry old = byId.remove(id);
+
+		if (old != null) {
+			removeWords(old);
+		}
+	}
+
+	/**
+	 * Brings the index in line with the current entities: new and changed ones are put, and ids no
+	 * longer present are removed. Unchanged entities are left alone.
+	 */
+	public synchronized void refresh(final Collection<? extends T> current) {
+		final Set<Long> seen = new HashSet<Long>(current.size() * 2);
+
+		for (final T item : current) {
+			seen.add(item.getId());
+
+			final Entry existing = byId.get(item.getId());
+			if (existing == null || !existing.label.primary.equals(descriptionOf(item))) {
+				put(item);
+			}
+		}
+
+		for (final Long id : new ArrayList<Long>(byId.keySet())) {
+			if (!seen.contains(id)) {
+				remove(id);
+			}
+		}
+	}
+
+	public void refresh(final JdbcRepository<T> repository) {
+		refresh(repository.findAll());
+	}
+
+	/**
+	 * Finds entities with a word starting with each word of the query, ordered by the matching word
+	 * and then the id as text.
+	 *
+	 * @param offset
+	 *            The number of matches to skip.
+	 * @param limit
+	 *            The most matches to return.
+	 * @param defaultLabel
+	 *            If not null, added first with an empty key, as in
+	 *            {@link JSSelectData#fromDescribed(Map, Label)}.
+	 */
+	public JSSelectData startingWith(final String query, final int offset, final int limit, final Label defaultLabel) {
+		final String[] queryWords = split(normalize(query));
+		final JSSelectData data = newData(defaultLabel);
+
+		if (queryWords.length == 0) {
+			addPage(data, byId.values(), offset, limit);
+			return data;
+		}
+
+		String longest = queryWords[0];
+		for (final String word : queryWords) {
+			if (word.length() > longest.length()) {
+				longest = word;
+			}
+		}
+
+		// every key of a word starting with the prefix sorts between these
+		final NavigableMap<String, Entry> range = byWord.subMap(longest, true, longest + Character.MAX_VALUE, false);
+		// an entity being updated may briefly be under both its old and new words
+		final Set<String> seen = new HashSet<String>();
+		final List<Entry> matches = new ArrayList<Entry>();
+		int skipped = 0;
+
+		for (final Entry entry : range.values()) {
+			if (matches.size() >= limit) {
+				break;
+			}
+
+			if (!seen.add(entry.key) || !matchesAll(entry, queryWords)) {
+				continue;
+			}
+
+			if (skipped++ < offset) {
+				continue;
+			}
+
+			matches.add(entry);
+		}
+
+		addPage(data, matches, 0, limit);
+		return data;
+	}
+
+	/**
+	 * Finds entities whose description contains the query anywhere, in id order. Scans every
+	 * entity, so is slower than {@link #startingWith(String, int, int, Label)}.
+	 */
+	public JSSelectData containing(final String query, final int offset, final int limit, final Label defaultLabel) {
+		final String normalized = normalize(query).trim();
+		final JSSelectData data = newData(defaultLabel);
+		final List<Entry> matches = new ArrayList<Entry>();
+		int skipped = 0;
+
+		for (final Entry entry : byId.values()) {
+			if (matches.size() >= limit) {
+				break;
+			}
+
+			if (entry.normalized.contains(normalized) && skipped++ >= offset) {
+				matches.add(entry);
+			}
+		}
+
+		addPage(data, matches, 0, limit);
+		return data;
+	}
+
+	private void removeWords(final Entry old) {
+		for (final String word : old.words) {
+			// a word kept by a replacement has already been pointed at it
+			byWord.remove(wordKey(word, old), old);
+		}
+	}
+
+	private static String descriptionOf(final Described item) {
+		return item.getDescription() == null ? "" : item.getDescription();
+	}
+
+	private static boolean matchesAll(final Entry entry, final String[] queryWords) {
+		for (final String queryWord : queryWords) {
+			boolean found = false;
+
+			for (final String word : entry.words) {
+				if (word.startsWith(queryWord)) {
+					found = true;
+					break;
+				}
+			}
+
+			if (!found) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static JSSelectData newData(final Label defaultLabel) {
+		final JSSelectData data = new JSSelectData();
+
+		if (defaultLabel != null) {
+			data.order.add("");
+			data.labels.put("", defaultLabel);
+		}
+
+		return data;
+	}
+
+	private static void addPage(final JSSelectData data, final Collection<Entry> entries, final int offset, final int limit) {
+		int index = 0;
+
+		for (final Entry entry : entries) {
+			if (index >= offset + limit) {
+				break;
+			}
+
+			if (index++ >= offset) {
+				data.order.add(entry.key);
+				data.labels.put(entry.key, entry.label);
+			}
+		}
+	}
+
+	private static String wordKey(final String word, final Entry entry) {
+		return word + SEPARATOR + entry.key;
+	}
+
+	static String normalize(final String s) {
+		final String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
+		return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+	}
+
+	private static String[] split(final String normalized) {
+		final String trimmed = NON_WORD.matcher(normalized).replaceAll(" ").trim();
+		return trimmed.isEmpty() ? new String[0] : trimmed.split(" ");
+	}
+
+}
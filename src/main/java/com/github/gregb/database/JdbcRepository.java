@@ -1,17 +1,32 @@
 package com.github.gregb.database;
 
-import java.sql.Array;
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.UUID;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
@@ -21,22 +36,35 @@ import javax.persistence.Table;
 
 import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.domain.Sort.Order;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.SqlParameter;
 import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 
 import com.github.gregb.mapping.Converters;
 import com.github.gregb.mapping.Identified;
 import com.github.gregb.mapping.PropertyHelper;
+import com.github.gregb.mapping.SlotPropertyContainer;
+import com.github.gregb.util.CsvWriter;
 import com.google.common.base.CaseFormat;
 import com.google.common.collect.Iterables;
 
@@ -58,11 +86,34 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 	protected String updateStatement;
 	protected String deleteStatement;
 	protected Sort defaultSort;
+	protected int synchronizeBatchSize = 500;
+	protected int exportFetchSize = 1000;
+	protected final RepositoryMetrics metrics;
+	protected volatile SlowQueryLog slowQueryLog;
+
+	private static final SlotRowMapper SLOT_ROW_MAPPER = new SlotRowMapper();
 
 	private static final Collector<CharSequence, ?, String> SIMPLE_COMMA_JOINER = Collectors.joining(", ");
 	private static final Function<String, String> PREPEND_COLON = s -> ":" + s;
 	private static final Function<String, String> SET_PARAMETER = s -> s + "= :" + s;
 
+	// element classes after convertParameterValue, by PostgreSQL array element type
+	private static final Map<Class<?>, String> ARRAY_ELEMENT_TYPES = new HashMap<>();
+
+	static {
+		ARRAY_ELEMENT_TYPES.put(String.class, "varchar");
+		ARRAY_ELEMENT_TYPES.put(Short.class, "int2");
+		ARRAY_ELEMENT_TYPES.put(Integer.class, "int4");
+		ARRAY_ELEMENT_TYPES.put(Long.class, "int8");
+		ARRAY_ELEMENT_TYPES.put(Float.class, "float4");
+		ARRAY_ELEMENT_TYPES.put(Double.class, "float8");
+		ARRAY_ELEMENT_TYPES.put(BigDecimal.class, "numeric");
+		ARRAY_ELEMENT_TYPES.put(Boolean.class, "bool");
+		ARRAY_ELEMENT_TYPES.put(UUID.class, "uuid");
+		ARRAY_ELEMENT_TYPES.put(Date.class, "date");
+		ARRAY_ELEMENT_TYPES.put(Timestamp.class, "timestamp");
+	}
+
 	private static final Map<Class<? extends JdbcRepository<? extends Identified<Long>>>, JdbcRepository<?>> repositoriesByEntity = new HashMap<>();
 
 	public static enum SaveAction {
@@ -72,6 +123,7 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 	@SuppressWarnings("unchecked")
 	public JdbcRepository(final Class<T> entityClass) {
 		super(entityClass);
+		this.metrics = RepositoryMetrics.forEntity(entityClass);
 		setupId();
 		buildQueries();
 		repositoriesByEntity.put((Class<? extends JdbcRepository<? extends Identified<Long>>>) entityClass, this);
@@ -194,51 +246,85 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 
 	public T test() {
 		final String sql = "SELECT * FROM " + tableName + " LIMIT 1";
-		log.trace("SQL OUT: " + sql);
-		return jdbcTemplate.queryForObject(sql, rowMapper);
+		log.trace("SQL OUT: {}", sql);
+		return jdbcTemplate.queryForObject(sql, newQueryMapper());
 	}
 
 	public Optional<T> findById(final Long id) {
-		log.trace("SQL OUT: " + this.selectById + "; id = " + id);
-
-		try {
-			final T o = jdbcTemplate.queryForObject(this.selectById, this.rowMapper, id);
-			return Optional.ofNullable(o);
-		} catch (final EmptyResultDataAccessException e) {
-			return Optional.empty();
-		}
+		log.trace("SQL OUT: {}; id = {}", this.selectById, id);
+		return Optional.ofNullable(runStatement(RepositoryOperation.FIND_BY_ID, selectById, () -> positional(id), newQueryMapper(),
+				mapper -> DataAccessUtils.singleResult(jdbcTemplate.query(this.selectById, mapper, id)), o -> o == null ? 0 : 1));
 	}
 
 	public T findByIdOrException(final Long id) {
-
-		try {
-			final T o = jdbcTemplate.queryForObject(this.selectById, this.rowMapper, id);
-			return o;
-		} catch (final EmptyResultDataAccessException e) {
-			throw new AccessException(getEntityClass(), id, e);
-		}
+		return findById(id).orElseThrow(() -> new AccessException(getEntityClass(), id, new EmptyResultDataAccessException(1)));
 	}
 
 	public List<T> findByIds(final Collection<Long> ids) {
-		log.trace("SQL OUT: " + this.selectById + "; id = " + ids);
-		final List<T> result = jdbcTemplate.query(this.selectByIds, this.rowMapper, ids);
-		return result;
+		log.trace("SQL OUT: {}; id = {}", this.selectByIds, ids);
+		return runStatement(RepositoryOperation.FIND_BY_IDS, selectByIds, () -> positional(ids), newQueryMapper(), mapper -> jdbcTemplate.query(this.selectByIds, mapper, ids), List::size);
 	}
 
 	public Long countAll() {
 		final String sql = "SELECT COUNT(*) FROM " + tableName;
-		log.trace("SQL OUT: " + sql);
-		return jdbcTemplate.queryForLong(sql);
+		log.trace("SQL OUT: {}", sql);
+		return count(sql, null);
 	}
 
 	public List<T> findAll() {
-		return jdbcTemplate.query(this.selectAll, this.rowMapper);
+		log.trace("SQL OUT: {}", this.selectAll);
+		return runStatement(RepositoryOperation.FIND_ALL, selectAll, () -> positional(), newQueryMapper(), mapper -> jdbcTemplate.query(this.selectAll, mapper), List::size);
 	}
 
 	public Long countWhere(final String whereClause, final MapSqlParameterSource parameterSource) {
 		final String sql = "SELECT COUNT(*) FROM " + tableName + " WHERE " + whereClause;
-		log.trace("SQL OUT: " + sql + "; " + paramsToString(parameterSource));
-		return namedTemplate.queryForLong(sql, parameterSource);
+		log.trace("SQL OUT: {}; {}", sql, paramsToString(parameterSource));
+		return count(sql, parameterSource);
+	}
+
+	private Long count(final String sql, final MapSqlParameterSource parameterSource) {
+		return runStatement(RepositoryOperation.COUNT, sql, values(parameterSource), null,
+				mapper -> parameterSource == null ? jdbcTemplate.queryForLong(sql) : namedTemplate.queryForLong(sql, parameterSource), count -> 1);
+	}
+
+	private List<T> select(final String sql, final MapSqlParameterSource parameterSource) {
+		log.trace("SQL OUT: {}; {}", sql, paramsToString(parameterSource));
+		return runStatement(RepositoryOperation.SELECT, sql, values(parameterSource), newQueryMapper(), mapper -> namedTemplate.query(sql, parameterSource, mapper), List::size);
+	}
+
+	private int update(final RepositoryOperation operation, final String sql, final MapSqlParameterSource parameterSource) {
+		log.trace("SQL OUT: {}; {}", sql, paramsToString(parameterSource));
+		return runStatement(operation, sql, values(parameterSource), null, mapper -> namedTemplate.update(sql, parameterSource), updated -> updated);
+	}
+
+	public Long countWhere(final Where where) {
+		return countWhere(where, new MapSqlParameterSource());
+	}
+
+	/**
+	 * Counts rows matching the clause. Values bound by the clause are converted and added to the
+	 * parameter source.
+	 */
+	public Long countWhere(final Where where, final MapSqlParameterSource parameterSource) {
+		final String whereClause = where.toSql(parameterSource, this::convertParameterValue);
+		return countWhere(whereClause, parameterSource);
+	}
+
+	public List<T> selectWhere(final Where where) {
+		return selectWhere(where, null, new MapSqlParameterSource());
+	}
+
+	public List<T> selectWhere(final Where where, final Pageable p) {
+		return selectWhere(where, p, new MapSqlParameterSource());
+	}
+
+	/**
+	 * Selects rows matching the clause. Values bound by the clause are converted and added to the
+	 * parameter source.
+	 */
+	public List<T> selectWhere(final Where where, final Pageable p, final MapSqlParameterSource parameterSource) {
+		final String whereClause = where.toSql(parameterSource, this::convertParameterValue);
+		return selectWhere(whereClause, p, parameterSource);
 	}
 
 	public List<T> selectWhere(final String whereClause, final MapSqlParameterSource parameterSource) {
@@ -254,21 +340,17 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 		sb.append(whereClause);
 		appendOrderByClause(p, sb);
 
-		final String sql = sb.toString();
-		log.trace("SQL OUT: " + sql + "; " + paramsToString(parameterSource));
-		return namedTemplate.query(sql, parameterSource, rowMapper);
+		return select(sb.toString(), parameterSource);
 	}
 
 	public Long countFrom(final String from, final String whereClause, final MapSqlParameterSource parameterSource) {
 		final String sql = "SELECT COUNT(*) FROM " + from + " WHERE " + whereClause;
-		log.trace("SQL OUT: " + sql + "; " + paramsToString(parameterSource));
-		return namedTemplate.queryForLong(sql, parameterSource);
+		log.trace("SQL OUT: {}; {}", sql, paramsToString(parameterSource));
+		return count(sql, parameterSource);
 	}
 
 	public List<T> selectFrom(final String select, final String from, final String whereClause, final MapSqlParameterSource parameterSource) {
-		final String sql = "SELECT " + select + " FROM " + from + " WHERE " + whereClause;
-		log.trace("SQL OUT: " + sql + "; " + paramsToString(parameterSource));
-		return namedTemplate.query(sql, parameterSource, rowMapper);
+		return select("SELECT " + select + " FROM " + from + " WHERE " + whereClause, parameterSource);
 	}
 
 	public List<T> selectFrom(final String select, final String from, final String whereClause, final Pageable p, final MapSqlParameterSource parameterSource) {
@@ -281,23 +363,87 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 		sb.append(whereClause);
 		appendOrderByClause(p, sb);
 
+		return select(sb.toString(), parameterSource);
+	}
+
+	/**
+	 * Writes the matching rows as UTF-8 CSV. The stream is flushed but not closed.
+	 *
+	 * @return The number of rows written, not counting the header.
+	 * @see #exportWhere(Where, Pageable, Writer)
+	 */
+	public long exportWhere(final Where where, final Pageable p, final OutputStream out) {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		return exportWhere(where, p, writer);
+	}
+
+	/**
+	 * Writes the matching rows as CSV, with a header of column names, straight from the result set
+	 * without building entities. Rows are fetched {@link #exportFetchSize} at a time; some drivers
+	 * (e.g. PostgreSQL) only stream inside a transaction. The writer is flushed but not closed.
+	 *
+	 * @return The number of rows written, not counting the header.
+	 */
+	public long exportWhere(final Where where, final Pageable p, final Writer out) {
+		final MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+		final String whereClause = where.toSql(parameterSource, this::convertParameterValue);
+		return exportWhere(whereClause, p, parameterSource, new CsvExtractor(new CsvWriter(out), true));
+	}
+
+	/**
+	 * Streams the matching rows, in page order, to the extractor. The rows aren't counted in the
+	 * {@link RepositoryOperation#EXPORT} metrics, as only the extractor sees them.
+	 */
+	public <R> R exportWhere(final String whereClause, final Pageable p, final MapSqlParameterSource parameterSource, final ResultSetExtractor<R> extractor) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("SELECT * FROM ");
+		sb.append(tableName);
+		sb.append(" WHERE ");
+		sb.append(whereClause.isEmpty() ? "1 = 1" : whereClause);
+		appendOrderByClause(p, sb);
+
 		final String sql = sb.toString();
-		log.trace("SQL OUT: " + sql + "; " + paramsToString(parameterSource));
-		return namedTemplate.query(sql, parameterSource, rowMapper);
+		log.trace("SQL OUT: {}; {}", sql, parameterSource.getValues());
+
+		final PreparedStatementCreator creator = fetchingStatement(sql, parameterSource);
+		return runStatement(RepositoryOperation.EXPORT, sql, values(parameterSource), null, mapper -> namedTemplate.getJdbcOperations().query(creator, extractor), result -> 0);
+	}
+
+	/**
+	 * A statement fetching {@link #exportFetchSize} rows at a time, for queries whose rows are
+	 * handled as they arrive.
+	 */
+	private PreparedStatementCreator fetchingStatement(final String sql, final MapSqlParameterSource parameterSource) {
+		// NamedParameterJdbcTemplate has no per query fetch size, so expand the named parameters here
+		final ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(sql);
+		final String sqlToUse = NamedParameterUtils.substituteNamedParameters(parsedSql, parameterSource);
+		final List<SqlParameter> declaredParameters = NamedParameterUtils.buildSqlParameterList(parsedSql, parameterSource);
+		final Object[] values = NamedParameterUtils.buildValueArray(parsedSql, parameterSource, null);
+		final PreparedStatementCreator creator = new PreparedStatementCreatorFactory(sqlToUse, declaredParameters).newPreparedStatementCreator(values);
+
+		return con -> {
+			final PreparedStatement ps = creator.createPreparedStatement(con);
+			ps.setFetchSize(exportFetchSize);
+			return ps;
+		};
+	}
+
+	/**
+	 * Runs any query, mapping each row to a container of its columns rather than to an entity.
+	 */
+	public List<SlotPropertyContainer> selectContainers(final String sql, final MapSqlParameterSource parameterSource) {
+		log.trace("SQL OUT: {}; {}", sql, parameterSource.getValues());
+		return runStatement(RepositoryOperation.SELECT, sql, values(parameterSource), SLOT_ROW_MAPPER.newQueryMapper(), mapper -> namedTemplate.query(sql, parameterSource, mapper),
+				List::size);
 	}
 
 	public int update(final String set, final String where, final Map<String, Object> namedParameters) {
 		final String sql = "UPDATE " + tableName + " SET " + set + " WHERE " + where;
-		log.trace("SQL OUT: " + sql + "; " + namedParameters);
-		final int updated = namedTemplate.update(sql, namedParameters);
-		return updated;
+		return update(RepositoryOperation.UPDATE, sql, new MapSqlParameterSource(namedParameters));
 	}
 
 	public int updatebyId(final T entity) {
-		final MapSqlParameterSource parameterSource = buildParameterMapFromObject(entity);
-		log.trace("SQL OUT: " + updateStatement + "; " + paramsToString(parameterSource));
-		final int updated = namedTemplate.update(updateStatement, parameterSource);
-		return updated;
+		return update(RepositoryOperation.UPDATE, updateStatement, buildParameterMapFromObject(entity));
 	}
 
 	public int updateById(final Long id, final Map<String, Object> fields) {
@@ -312,10 +458,7 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 
 		final String set = updateColumns.stream().map(SET_PARAMETER).collect(SIMPLE_COMMA_JOINER);
 		final String sql = "UPDATE " + tableName + " SET " + set + " WHERE " + idField + " = :id";
-		log.trace("SQL OUT: " + sql + "; " + parameterSource);
-
-		final int updated = namedTemplate.update(sql, parameterSource);
-		return updated;
+		return update(RepositoryOperation.UPDATE, sql, parameterSource);
 	}
 
 	public int partialUpdate(final T updated) {
@@ -324,7 +467,7 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 			throw new IllegalArgumentException("Can't update entity without id: " + updated);
 		}
 
-		log.debug("Updating object with new data:  " + updated);
+		log.debug("Updating object with new data: {}", updated);
 
 		final T dbVersion = findByIdOrException(updated.getId());
 
@@ -332,65 +475,118 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 			throw new DataRetrievalFailureException("Unable to locate original record for " + updated);
 		}
 
-		log.debug("Loaded original instance " + dbVersion);
+		log.debug("Loaded original instance {}", dbVersion);
 
 		final ConvertingSqlParameterSource paramSource = new ConvertingSqlParameterSource("id", dbVersion.getId());
 		final StringBuilder sb = new StringBuilder("UPDATE ");
 		sb.append(tableName);
 
-		final Map<String, ColumnChange> changes = scanForChanges(dbVersion, updated);
+		final DiffPlan.Diff diff = diffPlan.diff(dbVersion, updated, false);
 
-		final String assignmentClause = changes.values().stream().map(c -> c.assignment).collect(Collectors.joining(", "));
-
-		changes.values().stream().forEach(c -> {
-			paramSource.addValue(c.parameterName, c.newValue);
-		});
-
-		if (changes.size() > 0) {
+		if (!diff.isEmpty()) {
 
 			sb.append(" SET ");
-			sb.append(assignmentClause);
+			appendAssignments(diff, sb, paramSource);
 			sb.append(" WHERE ");
 			sb.append(idColumn);
 			sb.append(" = :id");
 			sb.append(";");
 
-			final String sql = sb.toString();
-
-			log.trace("SQL OUT: {}; {}", sql, paramsToString(paramSource));
-			return namedTemplate.update(sql, paramSource);
+			return update(RepositoryOperation.PARTIAL_UPDATE, sb.toString(), paramSource);
 		}
 
 		log.debug("Object not changed, ignoring update request.");
 		return 0;
 	}
 
-	Array makeJdbcArray(final Object value, final Object[] elements) {
+	/**
+	 * Appends the SET assignments for the changed columns of a diff, adding the new values to the
+	 * parameter source.
+	 */
+	protected void appendAssignments(final DiffPlan.Diff diff, final StringBuilder sb, final MapSqlParameterSource paramSource) {
+		appendAssignments(diff, sb);
+
+		for (int i = diff.changed.nextSetBit(0); i >= 0; i = diff.changed.nextSetBit(i + 1)) {
+			if (!diff.nulled.get(i)) {
+				paramSource.addValue(diffPlan.getColumnName(i), diff.newValues[i]);
+			}
+		}
+	}
 
-		final Class<?> elementClass = elements[0].getClass();
+	/**
+	 * Appends the SET assignments for the changed columns of a diff, without their values.
+	 */
+	void appendAssignments(final DiffPlan.Diff diff, final StringBuilder sb) {
+		boolean first = true;
 
-		try {
-			if (Enum.class.isAssignableFrom(elementClass)) {
-				return jdbcTemplate.getDataSource().getConnection().createArrayOf("varchar", elements);
+		for (int i = diff.changed.nextSetBit(0); i >= 0; i = diff.changed.nextSetBit(i + 1)) {
+			if (!first) {
+				sb.append(", ");
 			}
 
-			if (String.class.isAssignableFrom(elementClass)) {
-				return jdbcTemplate.getDataSource().getConnection().createArrayOf("varchar", elements);
+			sb.append(diffPlan.getAssignment(i, diff.nulled.get(i)));
+			first = false;
+		}
+	}
+
+	/**
+	 * Binds the elements as one SQL array, each converted as a single value would be. The array
+	 * is created on the statement's own connection when the parameter is set.
+	 */
+	SqlParameterValue makeJdbcArray(final Object[] elements) {
+		final Object[] converted = new Object[elements.length];
+		String elementType = null;
+
+		for (int i = 0; i < elements.length; i++) {
+			Object element = convertParameterValue(elements[i]);
+
+			if (element instanceof SqlParameterValue) {
+				element = ((SqlParameterValue) element).getValue();
 			}
 
-			if (Integer.class.isAssignableFrom(elementClass)) {
-				return jdbcTemplate.getDataSource().getConnection().createArrayOf("int4", elements);
+			if (element instanceof SqlTypeValue) {
+				throw new RuntimeException("Nested arrays not supported: " + elements[i]);
 			}
 
-			if (Long.class.isAssignableFrom(elementClass)) {
-				return jdbcTemplate.getDataSource().getConnection().createArrayOf("int8", elements);
+			if (elementType == null && element != null) {
+				elementType = arrayElementType(element.getClass());
 			}
 
-		} catch (final SQLException e) {
-			throw new RuntimeException("Can't make jdbc array from elements", e);
+			converted[i] = element;
+		}
+
+		return new SqlParameterValue(Types.ARRAY, new JdbcArrayValue(elementType == null ? "varchar" : elementType, converted));
+	}
+
+	private static String arrayElementType(final Class<?> elementClass) {
+		final String typeName = ARRAY_ELEMENT_TYPES.get(elementClass);
+
+		if (typeName == null) {
+			throw new RuntimeException("Array type not supported: " + elementClass);
+		}
+
+		return typeName;
+	}
+
+	private static class JdbcArrayValue extends AbstractSqlTypeValue {
+
+		private final String elementType;
+		private final Object[] elements;
+
+		JdbcArrayValue(final String elementType, final Object[] elements) {
+			this.elementType = elementType;
+			this.elements = elements;
+		}
+
+		@Override
+		protected Object createTypeValue(final Connection con, final int sqlType, final String typeName) throws SQLException {
+			return con.createArrayOf(elementType, elements);
 		}
 
-		throw new RuntimeException("Array type not supported: " + elementClass);
+		@Override
+		public String toString() {
+			return elementType + Arrays.toString(elements);
+		}
 	}
 
 	public long insert(final T object) {
@@ -399,19 +595,35 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 		final String sql = this.insertStatement;
 		final KeyHolder generatedKeyHolder = new GeneratedKeyHolder();
 
-		log.trace("SQL OUT: " + sql);
-		namedTemplate.update(sql, parameterSource, generatedKeyHolder, new String[] { idColumn });
+		log.trace("SQL OUT: {}; {}", sql, paramsToString(parameterSource));
+		// the id is set inside the statement, so the entity has it before the completion hooks run,
+		// even if a strict RepeatedQueryDetector throws from them
+		return runStatement(RepositoryOperation.INSERT, sql, values(parameterSource), null, mapper -> {
+			namedTemplate.update(sql, parameterSource, generatedKeyHolder, new String[] { idColumn });
+			final long newPrimaryKey = generatedKeyHolder.getKey().longValue();
+			setId(object, newPrimaryKey);
+			return newPrimaryKey;
+		}, inserted -> 1);
+	}
+
+	/**
+	 * Inserts the rows in one JDBC batch, recorded as one {@link RepositoryOperation#INSERT} of
+	 * that many rows. Generated ids are not read back.
+	 */
+	void batchInsert(final List<SqlParameterSource> rows) {
+		log.trace("SQL OUT: {}; batch of {}", insertStatement, rows.size());
+		runStatement(RepositoryOperation.INSERT, insertStatement, null, null, mapper -> namedTemplate.batchUpdate(insertStatement, rows.toArray(new SqlParameterSource[rows.size()])),
+				counts -> rows.size());
+	}
 
-		final long newPrimaryKey = generatedKeyHolder.getKey().longValue();
+	private void setId(final T object, final long id) {
 		final PropertyHelper idProperty = this.propertiesByColumn.get(idColumn);
 
 		try {
-			idProperty.setValue(object, newPrimaryKey);
+			idProperty.setValue(object, id);
 		} catch (final Throwable e) {
 			throw new RuntimeException("Unable to set id value for object", e);
 		}
-
-		return newPrimaryKey;
 	}
 
 	protected MapSqlParameterSource buildParameterMapFromObject(final Object object) {
@@ -491,13 +703,11 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 
 		if (value instanceof Collection) {
 			final Collection<?> collection = (Collection<?>) value;
-			final Object[] elements = collection.toArray();
-			return makeJdbcArray(value, elements);
+			return makeJdbcArray(collection.toArray());
 		}
 
 		if (value instanceof Object[]) {
-			final Object[] elements = (Object[]) value;
-			return makeJdbcArray(value, elements);
+			return makeJdbcArray((Object[]) value);
 		}
 
 		if (value instanceof Enum) {
@@ -545,15 +755,15 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 		return tableName;
 	}
 
-	private String paramsToString(final MapSqlParameterSource parameterSource) {
-		return parameterSource == null ? null : parameterSource.getValues().toString();
+	/**
+	 * The parameter values, for logging; the map's toString only runs if the message is logged.
+	 */
+	private static Object paramsToString(final MapSqlParameterSource parameterSource) {
+		return parameterSource == null ? null : parameterSource.getValues();
 	}
 
 	public int deleteById(final Long id) {
-		final MapSqlParameterSource parameterSource = new MapSqlParameterSource("id", id);
-		log.trace("SQL OUT: " + deleteStatement + "; " + paramsToString(parameterSource));
-		final int updated = namedTemplate.update(deleteStatement, parameterSource);
-		return updated;
+		return update(RepositoryOperation.DELETE, deleteStatement, new MapSqlParameterSource("id", id));
 	}
 
 	// Inspired by
@@ -583,6 +793,337 @@ public abstract class JdbcRepository<T extends Identified<Long>> extends RowMapp
 		return Optional.ofNullable(list.iterator().next());
 	}
 
+	/**
+	 * Makes the rows in scope match the desired entities, matching them by @Id. See
+	 * {@link #synchronize(Collection, Where, String)}.
+	 */
+	public SyncResult synchronize(final Collection<T> desired, final Where scope) {
+		return synchronize(desired, scope, idField);
+	}
+
+	/**
+	 * Makes the rows in scope match the desired entities. Rows and entities are matched on the
+	 * given property; matched pairs are updated following {@link #scanForChanges(Object, Object)},
+	 * unmatched entities are inserted, and unmatched rows are deleted. Statements are executed as
+	 * JDBC batches, with updates grouped by the columns they change.
+	 *
+	 * Batched inserts do not report generated keys, so inserted entities are not given ids.
+	 *
+	 * Rows in scope with a null key can't be matched and are left alone. Desired entities need a
+	 * key, except when matching on the @Id, where one without is new and inserted.
+	 *
+	 * @param desired
+	 *            The entities which should exist in scope. Keys must be unique.
+	 * @param scope
+	 *            Limits the rows considered; null for the whole table.
+	 * @param keyProperty
+	 *            The property to match on, usually the @Id or a natural key.
+	 */
+	public SyncResult synchronize(final Collection<T> desired, final Where scope, final String keyProperty) {
+		return synchronize(desired, scope, keyProperty, false);
+	}
+
+	/**
+	 * As {@link #synchronize(Collection, Where, String)}, with matched pairs compared following
+	 * {@link #scanForChanges(Object, Object, boolean)}.
+	 *
+	 * @param deleteOverride
+	 *            Whether a null in a desired entity clears the column.
+	 */
+	public SyncResult synchronize(final Collection<T> desired, final Where scope, final String keyProperty, final boolean deleteOverride) {
+		return runStatement(RepositoryOperation.SYNCHRONIZE, null, null, null, mapper -> synchronizeAll(desired, scope, keyProperty, deleteOverride), result -> result.inserted + result.updated + result.deleted);
+	}
+
+	private SyncResult synchronizeAll(final Collection<T> desired, final Where scope, final String keyProperty, final boolean deleteOverride) {
+		final PropertyHelper key = getKeyProperty(keyProperty);
+
+		final boolean byId = keyProperty.equals(idField);
+
+		final Map<Object, T> byKey = new HashMap<Object, T>(desired.size() * 2);
+		for (final T t : desired) {
+			final Object k = getKey(key, t);
+			if (k == null && !byId) {
+				throw new IllegalArgumentException("Null " + keyProperty + " in entities to synchronize: " + t);
+			}
+			if (k != null && byKey.put(k, t) != null) {
+				throw new IllegalArgumentException("Duplicate " + keyProperty + " in entities to synchronize: " + k);
+			}
+		}
+
+		final SyncBatch<T> batch = new SyncBatch<T>(this, synchronizeBatchSize, deleteOverride);
+		final MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+
+		for (final T current : selectWhere(scopeClause(scope, parameterSource), null, parameterSource)) {
+			final Object k = getKey(key, current);
+
+			if (k == null) {
+				continue;
+			}
+
+			final T match = byKey.remove(k);
+
+			if (match == null) {
+				batch.delete(current);
+			} else {
+				batch.update(current, match);
+			}
+		}
+
+		for (final T t : desired) {
+			final Object k = getKey(key, t);
+			if (k == null || byKey.containsKey(k)) {
+				batch.insert(t);
+			}
+		}
+
+		batch.flush();
+		return batch.result;
+	}
+
+	/**
+	 * Streaming form of {@link #synchronize(Collection, Where, String)}, for when neither side fits
+	 * in memory. Rows in scope are read ordered by the key column and merged with the desired
+	 * entities as they arrive, {@link #exportFetchSize} rows at a time, flushing batches as they
+	 * fill. As with {@link #exportWhere(Where, Pageable, Writer)}, some drivers only stream inside a
+	 * transaction.
+	 *
+	 * The key must sort the same way in Java as in the database (numbers and ids always do;
+	 * strings depend on the column collation). Out of order input fails the synchronization, as
+	 * does a desired entity without a key; rows in scope with a null key are left alone.
+	 *
+	 * Deletes are sent before each batch of inserts or updates, but only those queued so far: a
+	 * desired entity reusing a unique value of a row further along in key order may still clash.
+	 *
+	 * @param desiredSorted
+	 *            The desired entities, in ascending key order.
+	 */
+	public SyncResult synchronizeSorted(final Iterator<T> desiredSorted, final Where scope, final String keyProperty) {
+		return synchronizeSorted(desiredSorted, scope, keyProperty, false);
+	}
+
+	/**
+	 * As {@link #synchronizeSorted(Iterator, Where, String)}, with matched pairs compared following
+	 * {@link #scanForChanges(Object, Object, boolean)}.
+	 *
+	 * @param deleteOverride
+	 *            Whether a null in a desired entity clears the column.
+	 */
+	public SyncResult synchronizeSorted(final Iterator<T> desiredSorted, final Where scope, final String keyProperty, final boolean deleteOverride) {
+		return runStatement(RepositoryOperation.SYNCHRONIZE, null, null, null, mapper -> synchronizeMerging(desiredSorted, scope, keyProperty, deleteOverride), result -> result.inserted + result.updated + result.deleted);
+	}
+
+	private SyncResult synchronizeMerging(final Iterator<T> desiredSorted, final Where scope, final String keyProperty, final boolean deleteOverride) {
+		final PropertyHelper key = getKeyProperty(keyProperty);
+		final String keyColumn = columnsByPropertyName.get(keyProperty);
+		final MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+		final String sql = "SELECT * FROM " + tableName + " WHERE " + scopeClause(scope, parameterSource) + " ORDER BY " + keyColumn;
+
+		final SyncBatch<T> batch = new SyncBatch<T>(this, synchronizeBatchSize, deleteOverride);
+		final SortedMerge merge = new SortedMerge(desiredSorted, key, batch);
+
+		log.trace("SQL OUT: {}; {}", sql, parameterSource.getValues());
+		namedTemplate.getJdbcOperations().query(fetchingStatement(sql, parameterSource), merge);
+
+		merge.finish();
+		batch.flush();
+		return batch.result;
+	}
+
+	private String scopeClause(final Where scope, final MapSqlParameterSource parameterSource) {
+		final String clause = scope == null ? "" : scope.toSql(parameterSource, this::convertParameterValue);
+		return clause.isEmpty() ? "1 = 1" : clause;
+	}
+
+	private PropertyHelper getKeyProperty(final String keyProperty) {
+		final PropertyHelper key = container.getPropertyHelper(keyProperty);
+
+		if (key == null || !columnsByPropertyName.containsKey(keyProperty)) {
+			throw new IllegalArgumentException("No mapped property " + keyProperty + " in " + entityClass);
+		}
+
+		return key;
+	}
+
+	private static Object getKey(final PropertyHelper key, final Object entity) {
+		try {
+			return key.getValue(entity);
+		} catch (final Exception e) {
+			throw new QueryConstructionException("Unable to read key " + key.getName() + " from " + entity, e);
+		}
+	}
+
+	private class SortedMerge implements RowCallbackHandler {
+
+		private final Iterator<T> desired;
+		private final PropertyHelper key;
+		private final SyncBatch<T> batch;
+		private final RowMapper<T> mapper = newQueryMapper();
+
+		private int rowNum = 0;
+		private T pending;
+		private Comparable<Object> pendingKey;
+		private Comparable<Object> lastDesiredKey;
+		private Comparable<Object> lastCurrentKey;
+
+		SortedMerge(final Iterator<T> desired, final PropertyHelper key, final SyncBatch<T> batch) {
+			this.desired = desired;
+			this.key = key;
+			this.batch = batch;
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			if (!desired.hasNext()) {
+				pending = null;
+				pendingKey = null;
+				return;
+			}
+
+			pending = desired.next();
+			pendingKey = (Comparable<Object>) getKey(key, pending);
+
+			if (pendingKey == null) {
+				throw new IllegalArgumentException("Null " + key.getName() + " in entities to synchronize: " + pending);
+			}
+
+			if (lastDesiredKey != null && lastDesiredKey.compareTo(pendingKey) >= 0) {
+				throw new IllegalArgumentException("Entities to synchronize are not in ascending " + key.getName() + " order at " + pendingKey);
+			}
+
+			lastDesiredKey = pendingKey;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void processRow(final ResultSet rs) throws SQLException {
+			final T current = mapper.mapRow(rs, rowNum++);
+			final Comparable<Object> currentKey = (Comparable<Object>) getKey(key, current);
+
+			// can't be matched; left alone, wherever the database sorts nulls
+			if (currentKey == null) {
+				return;
+			}
+
+			if (lastCurrentKey != null && lastCurrentKey.compareTo(currentKey) > 0) {
+				throw new IllegalStateException("Database order of " + key.getName() + " differs from Java order at " + currentKey);
+			}
+			lastCurrentKey = currentKey;
+
+			while (pending != null && pendingKey.compareTo(currentKey) < 0) {
+				batch.insert(pending);
+				advance();
+			}
+
+			if (pending != null && pendingKey.compareTo(currentKey) == 0) {
+				batch.update(current, pending);
+				advance();
+			} else {
+				batch.delete(current);
+			}
+		}
+
+		void finish() {
+			while (pending != null) {
+				batch.insert(pending);
+				advance();
+			}
+		}
+	}
+
+	public RepositoryMetrics getMetrics() {
+		return metrics;
+	}
+
+	public SlowQueryLog getSlowQueryLog() {
+		return slowQueryLog;
+	}
+
+	/**
+	 * Captures this repository's statements slower than the log's threshold; null to stop.
+	 */
+	public void setSlowQueryLog(final SlowQueryLog slowQueryLog) {
+		this.slowQueryLog = slowQueryLog;
+	}
+
+	/**
+	 * A statement, given its timed row mapper, or null if it maps no rows.
+	 */
+	@FunctionalInterface
+	private interface StatementCall<M, R> {
+		R run(RowMapper<M> mapper);
+	}
+
+	/**
+	 * Runs a statement between the listener, metrics, slow query and repeated query hooks. The
+	 * hooks after a completed statement run outside its try block, so that a strict
+	 * {@link RepeatedQueryDetector}, which throws from there, doesn't also count the statement as
+	 * failed. The detector goes last, so a slow statement is still captured.
+	 *
+	 * @param sql
+	 *            Null if the operation runs more than one statement.
+	 * @param parameters
+	 *            The statement's values, asked for only if it is slow; null if there are none.
+	 * @param mapper
+	 *            Timed and passed to the statement; null if it maps no rows.
+	 * @param rows
+	 *            The rows returned or affected, from the statement's result.
+	 */
+	private <M, R> R runStatement(final RepositoryOperation operation, final String sql, final Supplier<Map<String, ?>> parameters, final RowMapper<M> mapper,
+			final StatementCall<M, R> statement, final ToLongFunction<R> rows) {
+		final RepositoryEvent event = RepositoryListeners.before(entityClass, operation, sql);
+		final long started = metrics.begin();
+		final TimedRowMapper<M> timed = mapper == null ? null : new TimedRowMapper<M>(mapper, event);
+
+		final R result;
+
+		try {
+			result = statement.run(timed);
+		} catch (final RuntimeException e) {
+			final long nanos = metrics.fail(operation, sql, started);
+			RepositoryListeners.after(event, 0, e);
+			captureSlow(operation, sql, parameters, nanos, 0, e);
+			throw e;
+		}
+
+		final long count = rows.applyAsLong(result);
+		final long nanos = metrics.complete(operation, sql, started, count, timed == null ? 0 : timed.getNanos());
+		RepositoryListeners.after(event, count, null);
+		captureSlow(operation, sql, parameters, nanos, count, null);
+
+		if (sql != null) {
+			RepeatedQueryDetector.record(entityClass, sql);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Hands a slow statement, completed or failed, to the {@link SlowQueryLog}, if there is one.
+	 */
+	private void captureSlow(final RepositoryOperation operation, final String sql, final Supplier<Map<String, ?>> parameters, final long nanos, final long rows, final Throwable error) {
+		final SlowQueryLog slow = slowQueryLog;
+
+		if (slow != null && sql != null && nanos >= slow.getThresholdNanos()) {
+			slow.capture(jdbcTemplate, entityClass, operation, sql, parameters == null ? null : parameters.get(), nanos, rows, error);
+		}
+	}
+
+	private static Supplier<Map<String, ?>> values(final MapSqlParameterSource parameterSource) {
+		return parameterSource == null ? null : parameterSource::getValues;
+	}
+
+	/**
+	 * Positional values keyed by their index from 1, as the slow query log shows them.
+	 */
+	private static Map<String, ?> positional(final Object... args) {
+		final Map<String, Object> parameters = new TreeMap<String, Object>();
+		for (int i = 0; i < args.length; i++) {
+			parameters.put(Integer.toString(i + 1), args[i]);
+		}
+		return parameters;
+	}
+
 	public SaveAction save(final T t) {
 		if (t.getId() != null) {
 			final int rowsUpdated = partialUpdate(t);
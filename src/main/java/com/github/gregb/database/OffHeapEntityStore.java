@@ -0,0 +1,554 @@
+package com.github.gregb.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import com.github.gregb.mapping.Identified;
+import com.github.gregb.mapping.PropertyHelper;
+import com.github.gregb.mapping.ValueKind;
+import com.github.gregb.util.LongIntHashMap;
+
+/**
+ * Entities kept outside the Java heap, for reference tables too large to cache as objects without
+ * long garbage collection pauses.
+ *
+ * Each entity is a fixed width record in direct (or memory mapped) buffers: a null bitmap, then
+ * one slot per property sized by its {@link ValueKind}. Strings live in a separate append only
+ * area, referenced by offset and length; enums are stored by ordinal. Properties of other types
+ * are not stored. Only the id to record index stays on the heap, as a primitive hash map.
+ *
+ * {@link FieldReader}s read a single property straight from the buffer, so a lookup decodes only
+ * what it asks for; {@link #get(long)} builds the whole entity.
+ *
+ * Thread safe behind a read-write lock: any number of threads may read at once, while a write
+ * waits for them and holds them off until it is done. Strings replaced by updates are not
+ * reclaimed; rebuild the store if that matters.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+public class OffHeapEntityStore<T extends Identified<Long>> implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(OffHeapEntityStore.class);
+
+	private static final int CHUNK_BYTES = 1 << 26;
+	private static final int NO_ROW = -1;
+
+	private final Class<T> type;
+	private final Supplier<T> constructor;
+	private final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+	private final Field idField;
+	private final int nullBytes;
+	private final int recordBytes;
+	private final int recordsPerChunk;
+	private final IntFunction<ByteBuffer> allocator;
+	private final Runnable cleanup;
+
+	private final List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+	private final List<ByteBuffer> strings = new ArrayList<ByteBuffer>();
+	private final LongIntHashMap rowsById = new LongIntHashMap();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private int[] freeRows = new int[0];
+	private int freeCount;
+	private int rowCount;
+	private long stringBytes;
+
+	/**
+	 * A store in direct buffers, freed when the store is garbage collected.
+	 */
+	public OffHeapEntityStore(final Class<T> type) {
+		this(type, ByteBuffer::allocateDirect, () -> {
+		});
+	}
+
+	/**
+	 * A store in files mapped from a directory, which are deleted on {@link #close()}. The page
+	 * cache holds the data, so the store can exceed physical memory.
+	 */
+	public static <T extends Identified<Long>> OffHeapEntityStore<T> mapped(final Class<T> type, final Path directory) {
+		final List<Path> files = new ArrayList<Path>();
+
+		final IntFunction<ByteBuffer> allocator = size -> {
+			try {
+				final Path file = Files.createTempFile(directory, type.getSimpleName(), ".chunk");
+				files.add(file);
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+					return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				}
+			} catch (final IOException e) {
+				throw new UncheckedIOException("Unable to map a chunk in " + directory, e);
+			}
+		};
+
+		return new OffHeapEntityStore<T>(type, allocator, () -> {
+			for (final Path file : files) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (final IOException e) {
+					log.warn("Unable to delete {}", file, e);
+				}
+			}
+		});
+	}
+
+	private OffHeapEntityStore(final Class<T> type, final IntFunction<ByteBuffer> allocator, final Runnable cleanup) {
+		this.type = type;
+		this.constructor = PropertyHelper.getConstructor(type);
+		this.allocator = allocator;
+		this.cleanup = cleanup;
+
+		final List<Entry<String, PropertyHelper>> stored = new ArrayList<Entry<String, PropertyHelper>>();
+		for (final Entry<String, PropertyHelper> e : PropertyHelper.getFromClass(type).entrySet()) {
+			final ValueKind kind = ValueKind.of(e.getValue().getType());
+			if (e.getKey().equals("class") || e.getValue().getMutator() == null) {
+				continue;
+			}
+			if (kind == ValueKind.OBJECT) {
+				log.warn("{}.{} is a {} and won't be stored off heap", type.getSimpleName(), e.getKey(), e.getValue().getType());
+				continue;
+			}
+			stored.add(e);
+		}
+
+		this.nullBytes = (stored.size() + 7) / 8;
+		int offset = nullBytes;
+		int index = 0;
+
+		for (final Entry<String, PropertyHelper> e : stored) {
+			final Field field = new Field(index++, offset, e.getKey(), e.getValue());
+			fields.put(field.name, field);
+			offset += field.width;
+		}
+
+		this.recordBytes = Math.max(1, offset);
+		this.recordsPerChunk = Math.max(1, CHUNK_BYTES / recordBytes);
+		this.idField = fields.get("id");
+
+		if (idField == null || idField.kind != ValueKind.LONG) {
+			throw new IllegalArgumentException(type + " has no writable Long id property");
+		}
+	}
+
+	/**
+	 * Loads the matching rows of a repository, one row at a time.
+	 */
+	public static <T extends Identified<Long>> OffHeapEntityStore<T> load(final JdbcRepository<T> repository, final Where where) {
+		final OffHeapEntityStore<T> store = new OffHeapEntityStore<T>(repository.getEntityClass());
+		final MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+		final String whereClause = where == null ? "" : where.toSql(parameterSource, repository::convertParameterValue);
+
+		repository.exportWhere(whereClause, null, parameterSource, rs -> {
+			final RowMapper<T> mapper = repository.newQueryMapper();
+			int rowNum = 0;
+			while (rs.next()) {
+				store.put(mapper.mapRow(rs, rowNum++));
+			}
+			return null;
+		});
+
+		return store;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return rowsById.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The bytes held outside the heap, records and strings.
+	 */
+	public long getOffHeapBytes() {
+		lock.readLock().lock();
+		try {
+			return (long) records.size() * recordsPerChunk * recordBytes + (long) strings.size() * CHUNK_BYTES;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean contains(final long id) {
+		lock.readLock().lock();
+		try {
+			return rowsById.containsKey(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores the entity, replacing any with the same id.
+	 */
+	public void put(final T entity) {
+		final Long id = entity.getId();
+		if (id == null) {
+			throw new IllegalArgumentException("Can't store an entity without an id: " + entity);
+		}
+
+		lock.writeLock().lock();
+		try {
+			int row = rowsById.get(id, NO_ROW);
+
+			if (row == NO_ROW) {
+				row = freeCount > 0 ? freeRows[--freeCount] : newRow();
+				rowsById.put(id, row, NO_ROW);
+			}
+
+			final ByteBuffer buffer = records.get(row / recordsPerChunk);
+			final int base = (row % recordsPerChunk) * recordBytes;
+
+			for (int i = 0; i < nullBytes; i++) {
+				buffer.put(base + i, (byte) 0);
+			}
+
+			for (final Field field : fields.values()) {
+				final Object value = field.accessor.apply(entity);
+				if (value == null) {
+					final int nullByte = base + field.index / 8;
+					buffer.put(nullByte, (byte) (buffer.get(nullByte) | 1 << (field.index % 8)));
+				} else {
+					field.write(buffer, base + field.offset, value);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void putAll(final Collection<? extends T> entities) {
+		entities.forEach(this::put);
+	}
+
+	public boolean remove(final long id) {
+		lock.writeLock().lock();
+		try {
+			final int row = rowsById.remove(id, NO_ROW);
+			if (row == NO_ROW) {
+				return false;
+			}
+
+			if (freeCount == freeRows.length) {
+				freeRows = Arrays.copyOf(freeRows, Math.max(16, freeCount * 2));
+			}
+			freeRows[freeCount++] = row;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Builds the stored entity.
+	 *
+	 * @return The entity, or null if the id isn't stored.
+	 */
+	public T get(final long id) {
+		lock.readLock().lock();
+		try {
+			final int row = rowsById.get(id, NO_ROW);
+			if (row == NO_ROW) {
+				return null;
+			}
+
+			final T entity = constructor.get();
+			final ByteBuffer buffer = records.get(row / recordsPerChunk);
+			final int base = (row % recordsPerChunk) * recordBytes;
+
+			for (final Field field : fields.values()) {
+				if (!isNull(buffer, base, field)) {
+					field.mutator.accept(entity, field.read(buffer, base + field.offset));
+				}
+			}
+
+			return entity;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * A reader of one property.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the property isn't stored.
+	 */
+	public FieldReader reader(final String property) {
+		final Field field = fields.get(property);
+		if (field == null) {
+			throw new IllegalArgumentException("No stored property " + property + " in " + type);
+		}
+		return new FieldReader(field);
+	}
+
+	/**
+	 * Drops the buffers; mapped files are deleted. The store can't be used afterwards.
+	 */
+	@Override
+	public void close() {
+		lock.writeLock().lock();
+		try {
+			records.clear();
+			strings.clear();
+			rowsById.clear();
+			cleanup.run();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads one property of stored entities, decoding nothing else.
+	 */
+	public class FieldReader {
+
+		private final Field field;
+
+		FieldReader(final Field field) {
+			this.field = field;
+		}
+
+		public ValueKind getKind() {
+			return field.kind;
+		}
+
+		/**
+		 * @return The value, or null if it is null or the id isn't stored.
+		 */
+		public Object get(final long id) {
+			lock.readLock().lock();
+			try {
+				final int row = rowsById.get(id, NO_ROW);
+				if (row == NO_ROW) {
+					return null;
+				}
+
+				final ByteBuffer buffer = records.get(row / recordsPerChunk);
+				final int base = (row % recordsPerChunk) * recordBytes;
+				return isNull(buffer, base, field) ? null : field.read(buffer, base + field.offset);
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * The stored long of a {@link ValueKind#isLong()} property, without boxing.
+		 *
+		 * @param missing
+		 *            Returned for a null value or an id that isn't stored.
+		 */
+		public long getLong(final long id, final long missing) {
+			if (!field.kind.isLong()) {
+				throw new IllegalStateException(field.name + " is a " + field.kind + " property");
+			}
+
+			lock.readLock().lock();
+			try {
+				final int row = rowsById.get(id, NO_ROW);
+				if (row == NO_ROW) {
+					return missing;
+				}
+
+				final ByteBuffer buffer = records.get(row / recordsPerChunk);
+				final int base = (row % recordsPerChunk) * recordBytes;
+				return isNull(buffer, base, field) ? missing : field.readLong(buffer, base + field.offset);
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		public double getDouble(final long id, final double missing) {
+			if (field.kind != ValueKind.DOUBLE) {
+				throw new IllegalStateException(field.name + " is a " + field.kind + " property");
+			}
+
+			lock.readLock().lock();
+			try {
+				final int row = rowsById.get(id, NO_ROW);
+				if (row == NO_ROW) {
+					return missing;
+				}
+
+				final ByteBuffer buffer = records.get(row / recordsPerChunk);
+				final int base = (row % recordsPerChunk) * recordBytes;
+				return isNull(buffer, base, field) ? missing : buffer.getDouble(base + field.offset);
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+
+	private boolean isNull(final ByteBuffer buffer, final int base, final Field field) {
+		return (buffer.get(base + field.index / 8) & 1 << (field.index % 8)) != 0;
+	}
+
+	private int newRow() {
+		if (rowCount == records.size() * recordsPerChunk) {
+			records.add(allocator.apply(recordsPerChunk * recordBytes));
+		}
+		return rowCount++;
+	}
+
+	private long writeString(final byte[] bytes) {
+		if (bytes.length > CHUNK_BYTES) {
+			throw new IllegalArgumentException("String of " + bytes.length + " bytes is too long to store off heap");
+		}
+
+		long position = stringBytes;
+
+		if (position == (long) strings.size() * CHUNK_BYTES) {
+			strings.add(allocator.apply(CHUNK_BYTES));
+		} else if (position % CHUNK_BYTES + bytes.length > CHUNK_BYTES) {
+			// strings never span chunks
+			position = (long) strings.size() * CHUNK_BYTES;
+			strings.add(allocator.apply(CHUNK_BYTES));
+		}
+
+		final ByteBuffer chunk = strings.get((int) (position / CHUNK_BYTES));
+		final int start = (int) (position % CHUNK_BYTES);
+		for (int i = 0; i < bytes.length; i++) {
+			chunk.put(start + i, bytes[i]);
+		}
+
+		stringBytes = position + bytes.length;
+		return position;
+	}
+
+	private String readString(final long position, final int length) {
+		final ByteBuffer chunk = strings.get((int) (position / CHUNK_BYTES));
+		final int start = (int) (position % CHUNK_BYTES);
+		final byte[] bytes = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			bytes[i] = chunk.get(start + i);
+		}
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Where and how one property is laid out in a record.
+	 */
+	private class Field {
+
+		final int index;
+		final int offset;
+		final int width;
+		final String name;
+		final ValueKind kind;
+		final Class<?> propertyType;
+		final Function<Object, Object> accessor;
+		final BiConsumer<Object, Object> mutator;
+		final Object[] constants;
+
+		Field(final int index, final int offset, final String name, final PropertyHelper property) {
+			this.index = index;
+			this.offset = offset;
+			this.name = name;
+			this.propertyType = property.getType();
+			this.kind = ValueKind.of(propertyType);
+			this.accessor = property.getAccessor();
+			this.mutator = property.getMutator();
+			this.constants = kind == ValueKind.ENUM ? propertyType.getEnumConstants() : null;
+
+			switch (kind) {
+			case BOOLEAN:
+				width = 1;
+				break;
+			case LOCAL_DATE:
+			case ENUM:
+				width = 4;
+				break;
+			case STRING:
+				// offset and length
+				width = 12;
+				break;
+			default:
+				width = 8;
+			}
+		}
+
+		void write(final ByteBuffer buffer, final int at, final Object value) {
+			switch (kind) {
+			case BOOLEAN:
+				buffer.put(at, (byte) kind.toLong(value));
+				break;
+			case LOCAL_DATE:
+				buffer.putInt(at, (int) kind.toLong(value));
+				break;
+			case ENUM:
+				buffer.putInt(at, ((Enum<?>) value).ordinal());
+				break;
+			case DOUBLE:
+				buffer.putDouble(at, kind.toDouble(value));
+				break;
+			case STRING:
+				final byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+				buffer.putLong(at, writeString(bytes));
+				buffer.putInt(at + 8, bytes.length);
+				break;
+			default:
+				buffer.putLong(at, kind.toLong(value));
+			}
+		}
+
+		long readLong(final ByteBuffer buffer, final int at) {
+			switch (kind) {
+			case BOOLEAN:
+				return buffer.get(at);
+			case LOCAL_DATE:
+				return buffer.getInt(at);
+			default:
+				return buffer.getLong(at);
+			}
+		}
+
+		Object read(final ByteBuffer buffer, final int at) {
+			switch (kind) {
+			case ENUM:
+				return constants[buffer.getInt(at)];
+			case DOUBLE:
+				return kind.fromDouble(buffer.getDouble(at), propertyType);
+			case STRING:
+				return readString(buffer.getLong(at), buffer.getInt(at + 8));
+			default:
+				return kind.fromLong(readLong(buffer, at), propertyType);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.github.gregb.database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.gregb.util.LatencyHistogram;
+
+/**
+ * Counts, rows and latencies of one kind of repository call. Counters are striped
+ * ({@link LongAdder}), so recording from many threads doesn't contend.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	void record(final long nanos, final long rowCount) {
+		count.increment();
+		rows.add(rowCount);
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		latencies.record(nanos);
+	}
+
+	void recordError(final long nanos) {
+		errors.increment();
+		record(nanos, 0);
+	}
+
+	/**
+	 * Calls made, including failed ones.
+	 */
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getRows() {
+		return rows.sum();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		final long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+	}
+
+	@Override
+	public long getMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+	}
+
+	@Override
+	public long getMedianMicros() {
+		return getPercentileMicros(50);
+	}
+
+	@Override
+	public long get95thPercentileMicros() {
+		return getPercentileMicros(95);
+	}
+
+	@Override
+	public long get99thPercentileMicros() {
+		return getPercentileMicros(99);
+	}
+
+	@Override
+	public long get999thPercentileMicros() {
+		return getPercentileMicros(99.9);
+	}
+
+	/**
+	 * Within 6.25% of the true value; see {@link LatencyHistogram}.
+	 */
+	public long getPercentileMicros(final double percentile) {
+		return TimeUnit.NANOSECONDS.toMicros(latencies.getValueAtPercentile(percentile));
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+		errors.reset();
+		rows.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+		latencies.reset();
+	}
+
+}
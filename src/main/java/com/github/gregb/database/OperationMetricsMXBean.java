@@ -0,0 +1,34 @@
+package com.github.gregb.database;
+
+/**
+ * The JMX view of one operation's {@link OperationMetrics}. Times are in microseconds.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public interface OperationMetricsMXBean {
+
+	long getCount();
+
+	long getErrors();
+
+	/**
+	 * Rows returned by queries, or affected by updates.
+	 */
+	long getRows();
+
+	double getMeanMicros();
+
+	long getMaxMicros();
+
+	long getMedianMicros();
+
+	long get95thPercentileMicros();
+
+	long get99thPercentileMicros();
+
+	long get999thPercentileMicros();
+
+	void reset();
+
+}
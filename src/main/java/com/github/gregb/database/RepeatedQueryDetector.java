@@ -0,0 +1,242 @@
+package com.github.gregb.database;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds N+1 access patterns: the same statement shape run over and over from one place, typically
+ * {@link JdbcRepository#findById(Long)} in a loop where one {@link JdbcRepository#findByIds(java.util.Collection)}
+ * or {@link JdbcRepository#mapByIds(java.util.Collection)} would do.
+ *
+ * Detection is per thread, between {@link #open} and {@link Scope#close()}, for example around a
+ * request or a test:
+ *
+ * <pre>
+ * try (RepeatedQueryDetector.Scope scope = RepeatedQueryDetector.open(10, false)) {
+ * 	handle(request);
+ * }
+ * </pre>
+ *
+ * Statements are grouped by their {@link StatementStatistics#fingerprint(String) fingerprint} and
+ * call site, the first stack frame outside the repository classes. When a scope closes, each
+ * group that ran more than the threshold is logged as a warning. A strict scope instead throws an
+ * IllegalStateException from the statement that goes over the threshold, which fails a test at
+ * the offending line.
+ *
+ * With no scope open anywhere, a repository call pays one volatile read. Inside a scope, each
+ * statement takes a stack trace, so this is meant for tests and diagnosis rather than to be left
+ * on in production.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class RepeatedQueryDetector {
+
+	private static final Logger log = LoggerFactory.getLogger(RepeatedQueryDetector.class);
+
+	private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<Scope>();
+	private static final AtomicInteger OPEN_SCOPES = new AtomicInteger();
+	private static final List<String> IGNORED_CALLERS = new CopyOnWriteArrayList<String>(new String[] { RepeatedQueryDetector.class.getName(), JdbcRepository.class.getName(), RowMappingRepository.class.getName(), "java.", "sun.", "jdk.", "org.springframework." });
+
+	/**
+	 * Statements run by the same shape and call site more than this often are reported.
+	 */
+	public static final int DEFAULT_THRESHOLD = 10;
+
+	private RepeatedQueryDetector() {
+	}
+
+	/**
+	 * One statement shape run repeatedly from one place.
+	 */
+	public static class Repeat {
+
+		private final Class<?> entityClass;
+		private final String fingerprint;
+		private final StackTraceElement callSite;
+		private int count;
+
+		Repeat(final Class<?> entityClass, final String fingerprint, final StackTraceElement callSite) {
+			this.entityClass = entityClass;
+			this.fingerprint = fingerprint;
+			this.callSite = callSite;
+		}
+
+		public Class<?> getEntityClass() {
+			return entityClass;
+		}
+
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		/**
+		 * The first frame outside the repository classes; null if none was found.
+		 */
+		public StackTraceElement getCallSite() {
+			return callSite;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return count + " x " + fingerprint + " for " + entityClass.getSimpleName() + " at " + callSite;
+		}
+	}
+
+	/**
+	 * The statements of one thread between {@link RepeatedQueryDetector#open} and {@link #close()}.
+	 * Scopes nest; statements count towards the innermost one only.
+	 */
+	public static class Scope implements AutoCloseable {
+
+		private final int threshold;
+		private final boolean strict;
+		private final Scope outer;
+		private final Thread thread = Thread.currentThread();
+		private final Map<String, Repeat> repeats = new LinkedHashMap<String, Repeat>();
+		private boolean closed;
+
+		Scope(final int threshold, final boolean strict, final Scope outer) {
+			this.threshold = threshold;
+			this.strict = strict;
+			this.outer = outer;
+		}
+
+		void record(final Class<?> entityClass, final String sql) {
+			final String fingerprint = StatementStatistics.fingerprint(sql);
+			final StackTraceElement callSite = callSite(new Throwable().getStackTrace());
+			final String key = fingerprint + '@' + callSite;
+
+			Repeat repeat = repeats.get(key);
+			if (repeat == null) {
+				repeat = new Repeat(entityClass, fingerprint, callSite);
+				repeats.put(key, repeat);
+			}
+
+			repeat.count++;
+
+			if (strict && repeat.count > threshold) {
+				throw new IllegalStateException("Statement run " + repeat.count + " times, more than " + threshold + ": " + repeat + "; fetch in one go with findByIds or mapByIds");
+			}
+		}
+
+		/**
+		 * The groups that ran more than the threshold so far, most frequent first.
+		 */
+		public List<Repeat> getRepeated() {
+			final List<Repeat> result = new ArrayList<Repeat>();
+
+			for (final Repeat repeat : repeats.values()) {
+				if (repeat.count > threshold) {
+					result.add(repeat);
+				}
+			}
+
+			result.sort(Comparator.comparingInt(Repeat::getCount).reversed());
+			return result;
+		}
+
+		/**
+		 * Logs the repeated statements and ends the scope. Must be called on the thread that
+		 * opened it.
+		 */
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+
+			if (Thread.currentThread() != thread) {
+				throw new IllegalStateException("Scope opened on " + thread.getName() + " closed on " + Thread.currentThread().getName());
+			}
+
+			closed = true;
+			OPEN_SCOPES.decrementAndGet();
+
+			if (outer == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(outer);
+			}
+
+			for (final Repeat repeat : getRepeated()) {
+				log.warn("Repeated statement, possible N+1: {}", repeat);
+			}
+		}
+	}
+
+	/**
+	 * Starts detecting on the current thread, with {@link #DEFAULT_THRESHOLD}, reporting on close.
+	 */
+	public static Scope open() {
+		return open(DEFAULT_THRESHOLD, false);
+	}
+
+	/**
+	 * Starts detecting on the current thread.
+	 *
+	 * @param threshold
+	 *            Groups that run more often than this are reported.
+	 * @param strict
+	 *            Throw from the statement that goes over the threshold, rather than log on close.
+	 */
+	public static Scope open(final int threshold, final boolean strict) {
+		final Scope scope = new Scope(threshold, strict, CURRENT.get());
+		CURRENT.set(scope);
+		OPEN_SCOPES.incrementAndGet();
+		return scope;
+	}
+
+	/**
+	 * Frames from the class, or from every class in the package if the name ends in a dot, are
+	 * skipped when looking for the call site, e.g. a project's own repository subclasses.
+	 */
+	public static void ignoreCallers(final String name) {
+		IGNORED_CALLERS.add(name);
+	}
+
+	/**
+	 * Counts a statement against the current thread's scope, if any.
+	 */
+	static void record(final Class<?> entityClass, final String sql) {
+		if (OPEN_SCOPES.get() > 0 && sql != null) {
+			final Scope scope = CURRENT.get();
+			if (scope != null) {
+				scope.record(entityClass, sql);
+			}
+		}
+	}
+
+	static StackTraceElement callSite(final StackTraceElement[] stack) {
+		for (final StackTraceElement frame : stack) {
+			if (!isIgnored(frame.getClassName())) {
+				return frame;
+			}
+		}
+
+		return null;
+	}
+
+	private static boolean isIgnored(final String className) {
+		for (final String name : IGNORED_CALLERS) {
+			if (name.endsWith(".") ? className.startsWith(name) : className.equals(name) || className.startsWith(name + "$")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.github.gregb.database;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * One repository operation, as seen by {@link RepositoryListener}s. Only created while listeners
+ * are registered. Times are from {@link System#nanoTime()}; not thread safe, like the operation
+ * it describes.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class RepositoryEvent {
+
+	private final Class<?> entityClass;
+	private final RepositoryOperation operation;
+	private final String sql;
+	private final RepositoryListener[] listeners;
+	private final long startedNanos = System.nanoTime();
+
+	private String fingerprint;
+	private long firstRowNanos = -1;
+	private long mappingNanos;
+	private long rows;
+	private long elapsedNanos = -1;
+	private Throwable error;
+	private Map<Object, Object> values;
+
+	RepositoryEvent(final Class<?> entityClass, final RepositoryOperation operation, final String sql, final RepositoryListener[] listeners) {
+		this.entityClass = entityClass;
+		this.operation = operation;
+		this.sql = sql;
+		this.listeners = listeners;
+	}
+
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	public RepositoryOperation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * The statement, or null for operations running several, like
+	 * {@link RepositoryOperation#SYNCHRONIZE}.
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * The {@link StatementStatistics#fingerprint(String) shape} of the statement, or null.
+	 */
+	public String getFingerprint() {
+		if (fingerprint == null && sql != null) {
+			fingerprint = StatementStatistics.fingerprint(sql);
+		}
+		return fingerprint;
+	}
+
+	public long getStartedNanos() {
+		return startedNanos;
+	}
+
+	/**
+	 * From the start to the first row being mapped, roughly the time to execute the statement; -1
+	 * if no row was mapped.
+	 */
+	public long getFirstRowNanos() {
+		return firstRowNanos;
+	}
+
+	/**
+	 * From the first row to the end of the operation, fetching included; 0 until it is over or if
+	 * no row was mapped.
+	 */
+	public long getMappingNanos() {
+		return mappingNanos;
+	}
+
+	/**
+	 * Rows returned or affected; known after the operation.
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * From the start to the end of the operation; -1 until it is over.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Why the operation failed, or null.
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * Keeps a value for a later call on the same event, e.g. a span under the listener as key.
+	 */
+	public void put(final Object key, final Object value) {
+		if (values == null) {
+			values = new IdentityHashMap<Object, Object>(4);
+		}
+		values.put(key, value);
+	}
+
+	public Object get(final Object key) {
+		return values == null ? null : values.get(key);
+	}
+
+	/**
+	 * The listeners registered when the operation began, which get all of its calls.
+	 */
+	RepositoryListener[] getListeners() {
+		return listeners;
+	}
+
+	void firstRow() {
+		firstRowNanos = System.nanoTime() - startedNanos;
+	}
+
+	void finish(final long rows, final Throwable error) {
+		this.rows = rows;
+		this.error = error;
+		this.elapsedNanos = System.nanoTime() - startedNanos;
+		this.mappingNanos = firstRowNanos < 0 ? 0 : elapsedNanos - firstRowNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "RepositoryEvent [" + operation + " " + entityClass.getSimpleName() + ", " + elapsedNanos + " ns, " + rows + " rows: " + sql + "]";
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.github.gregb.database;
+
+/**
+ * Called around every {@link JdbcRepository} operation, to attach tracing or other
+ * instrumentation without changing the repositories. Register with
+ * {@link RepositoryListeners#add(RepositoryListener)}.
+ *
+ * For one operation the calls are, in order: {@link #beforeOperation}, then for queries mapping
+ * at least one row {@link #firstRow} and {@link #mappingComplete}, then {@link #afterOperation},
+ * also when the operation failed. All are made on the thread running the operation, with the same
+ * event, so state can be kept on it with {@link RepositoryEvent#put(Object, Object)}.
+ *
+ * Exceptions thrown by a listener are logged and otherwise ignored.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public interface RepositoryListener {
+
+	default void beforeOperation(final RepositoryEvent event) {
+	}
+
+	/**
+	 * The statement has executed and the first row is about to be mapped.
+	 */
+	default void firstRow(final RepositoryEvent event) {
+	}
+
+	/**
+	 * All rows are mapped; {@link RepositoryEvent#getMappingNanos()} is final.
+	 */
+	default void mappingComplete(final RepositoryEvent event) {
+	}
+
+	/**
+	 * The operation is over; {@link RepositoryEvent#getError()} tells whether it failed.
+	 */
+	default void afterOperation(final RepositoryEvent event) {
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.github.gregb.database;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The registered {@link RepositoryListener}s, shared by all repositories.
+ *
+ * Registering is rare and copies the array; a repository reads it once per operation, and with
+ * no listeners registered creates no event and makes no further calls. The array read is kept on
+ * the event, so a listener added or removed while an operation runs gets all of its calls or none.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class RepositoryListeners {
+
+	private static final Logger log = LoggerFactory.getLogger(RepositoryListeners.class);
+
+	private static final RepositoryListener[] NONE = new RepositoryListener[0];
+
+	private static volatile RepositoryListener[] listeners = NONE;
+
+	private RepositoryListeners() {
+	}
+
+	public static synchronized void add(final RepositoryListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener is null");
+		}
+
+		final RepositoryListener[] more = Arrays.copyOf(listeners, listeners.length + 1);
+		more[listeners.length] = listener;
+		listeners = more;
+	}
+
+	public static synchronized void remove(final RepositoryListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				final RepositoryListener[] fewer = new RepositoryListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, fewer, 0, i);
+				System.arraycopy(listeners, i + 1, fewer, i, fewer.length - i);
+				listeners = fewer.length == 0 ? NONE : fewer;
+				return;
+			}
+		}
+	}
+
+	public static synchronized void clear() {
+		listeners = NONE;
+	}
+
+	public static boolean isEmpty() {
+		return listeners.length == 0;
+	}
+
+	/**
+	 * @return The event to pass to the other calls, or null if there are no listeners.
+	 */
+	static RepositoryEvent before(final Class<?> entityClass, final RepositoryOperation operation, final String sql) {
+		final RepositoryListener[] current = listeners;
+
+		if (current.length == 0) {
+			return null;
+		}
+
+		final RepositoryEvent event = new RepositoryEvent(entityClass, operation, sql, current);
+		for (final RepositoryListener listener : current) {
+			try {
+				listener.beforeOperation(event);
+			} catch (final RuntimeException e) {
+				log.warn("Listener {} failed before {}", listener, event, e);
+			}
+		}
+		return event;
+	}
+
+	static void firstRow(final RepositoryEvent event) {
+		event.firstRow();
+		for (final RepositoryListener listener : event.getListeners()) {
+			try {
+				listener.firstRow(event);
+			} catch (final RuntimeException e) {
+				log.warn("Listener {} failed on first row of {}", listener, event, e);
+			}
+		}
+	}
+
+	/**
+	 * Ends the operation; also reports the mapping complete if any row was mapped.
+	 */
+	static void after(final RepositoryEvent event, final long rows, final Throwable error) {
+		if (event == null) {
+			return;
+		}
+
+		event.finish(rows, error);
+
+		for (final RepositoryListener listener : event.getListeners()) {
+			try {
+				if (error == null && event.getFirstRowNanos() >= 0) {
+					listener.mappingComplete(event);
+				}
+				listener.afterOperation(event);
+			} catch (final RuntimeException e) {
+				log.warn("Listener {} failed after {}", listener, event, e);
+			}
+		}
+	}
+
+}
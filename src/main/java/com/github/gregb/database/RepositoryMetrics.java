@@ -0,0 +1,173 @@
+package com.github.gregb.database;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics for every {@link RepositoryOperation} on one entity, shared by all repositories of that
+ * entity, and registered with the platform MBean server as
+ * <code>com.github.gregb.database:type=RepositoryMetrics,entity=&lt;class&gt;,operation=&lt;name&gt;</code>.
+ *
+ * A repository brackets each call with {@link #begin()} and {@link #complete} or {@link #fail}.
+ * That costs two clock reads and a few striped counter updates; {@link #setEnabled(boolean)} turns
+ * even that off. Calls completed with their SQL are also added to the
+ * {@link StatementStatistics#getDefault() statement statistics}.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class RepositoryMetrics {
+
+	private static final Logger log = LoggerFactory.getLogger(RepositoryMetrics.class);
+
+	private static final String DOMAIN = "com.github.gregb.database";
+
+	private static final StatementStatistics STATEMENTS = StatementStatistics.getDefault();
+
+	private static final ConcurrentMap<Class<?>, RepositoryMetrics> BY_ENTITY = new ConcurrentHashMap<Class<?>, RepositoryMetrics>();
+
+	// returned by begin() when disabled; a real clock reading of exactly 0 is merely not recorded
+	private static final long NOT_TIMED = 0;
+
+	private static volatile boolean enabled = true;
+
+	private final Class<?> entityClass;
+	private final OperationMetrics[] operations = new OperationMetrics[RepositoryOperation.values().length];
+
+	private RepositoryMetrics(final Class<?> entityClass) {
+		this.entityClass = entityClass;
+
+		for (int i = 0; i < operations.length; i++) {
+			operations[i] = new OperationMetrics();
+		}
+	}
+
+	/**
+	 * The metrics for an entity, created and registered over JMX on first use.
+	 */
+	public static RepositoryMetrics forEntity(final Class<?> entityClass) {
+		RepositoryMetrics metrics = BY_ENTITY.get(entityClass);
+
+		if (metrics == null) {
+			metrics = new RepositoryMetrics(entityClass);
+			final RepositoryMetrics existing = BY_ENTITY.putIfAbsent(entityClass, metrics);
+
+			if (existing == null) {
+				metrics.register(ManagementFactory.getPlatformMBeanServer());
+			} else {
+				metrics = existing;
+			}
+		}
+
+		return metrics;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(final boolean enabled) {
+		RepositoryMetrics.enabled = enabled;
+	}
+
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	public OperationMetrics get(final RepositoryOperation operation) {
+		return operations[operation.ordinal()];
+	}
+
+	/**
+	 * @return The start time to pass to {@link #complete} or {@link #fail}.
+	 */
+	public long begin() {
+		return enabled ? System.nanoTime() : NOT_TIMED;
+	}
+
+	public long complete(final RepositoryOperation operation, final long started, final long rows) {
+		return complete(operation, null, started, rows, 0);
+	}
+
+	/**
+	 * @param sql
+	 *            The statement run, for {@link StatementStatistics}; null if there was more than
+	 *            one.
+	 * @param mappingNanos
+	 *            The part of the call from the first row on.
+	 * @return How long the call took, or 0 if it was not timed.
+	 */
+	public long complete(final RepositoryOperation operation, final String sql, final long started, final long rows, final long mappingNanos) {
+		if (started != NOT_TIMED) {
+			final long nanos = System.nanoTime() - started;
+			operations[operation.ordinal()].record(nanos, rows);
+
+			if (sql != null) {
+				STATEMENTS.record(sql, nanos, rows, mappingNanos);
+			}
+
+			return nanos;
+		}
+
+		return 0;
+	}
+
+	public long fail(final RepositoryOperation operation, final long started) {
+		return fail(operation, null, started);
+	}
+
+	/**
+	 * @return How long the call took before failing, or 0 if it was not timed.
+	 */
+	public long fail(final RepositoryOperation operation, final String sql, final long started) {
+		if (started != NOT_TIMED) {
+			final long nanos = System.nanoTime() - started;
+			operations[operation.ordinal()].recordError(nanos);
+
+			if (sql != null) {
+				STATEMENTS.recordError(sql, nanos);
+			}
+
+			return nanos;
+		}
+
+		return 0;
+	}
+
+	public void reset() {
+		for (final OperationMetrics metrics : operations) {
+			metrics.reset();
+		}
+	}
+
+	static ObjectName objectName(final Class<?> entityClass, final RepositoryOperation operation) throws JMException {
+		return new ObjectName(DOMAIN + ":type=RepositoryMetrics,entity=" + entityClass.getName() + ",operation=" + operation.name());
+	}
+
+	private void register(final MBeanServer server) {
+		for (final RepositoryOperation operation : RepositoryOperation.values()) {
+			try {
+				final ObjectName name = objectName(entityClass, operation);
+
+				// e.g. left behind by another class loader
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+
+				server.registerMBean(get(operation), name);
+			} catch (final JMException | SecurityException e) {
+				log.warn("Unable to register repository metrics for {} over JMX", entityClass.getName(), e);
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,24 @@
+package com.github.gregb.database;
+
+/**
+ * The kinds of call a {@link JdbcRepository} keeps {@link RepositoryMetrics} for. Overloads and
+ * convenience methods are counted once, under the call that reaches the database.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public enum RepositoryOperation {
+
+	FIND_BY_ID,
+	FIND_BY_IDS,
+	FIND_ALL,
+	COUNT,
+	SELECT,
+	EXPORT,
+	INSERT,
+	UPDATE,
+	PARTIAL_UPDATE,
+	DELETE,
+	SYNCHRONIZE;
+
+}
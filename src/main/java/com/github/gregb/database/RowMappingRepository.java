@@ -1,15 +1,18 @@
 package com.github.gregb.database;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Date;
+import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import javax.persistence.Column;
@@ -21,14 +24,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.RowMapper;
 
-import com.github.gregb.database.CopyBehavior.Behavior;
 import com.github.gregb.mapping.Converters;
 import com.github.gregb.mapping.PropertyContainer;
 import com.github.gregb.mapping.PropertyHelper;
 import com.github.gregb.mapping.ReflectionHelper;
 import com.google.common.base.CaseFormat;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Primitives;
 
 public class RowMappingRepository<T> extends ReflectionHelper<T> {
 
@@ -40,7 +45,18 @@ public class RowMappingRepository<T> extends ReflectionHelper<T> {
 	protected final Map<String, PropertyHelper> propertiesByColumn = Maps.newHashMap();
 	protected final Map<String, String> columnsByPropertyName = Maps.newHashMap();
 
-	private Map<String, Function<?, ?>> converters;
+	protected final DiffPlan<T> diffPlan;
+
+	/**
+	 * The most result shapes whose mapping plans are kept; ad hoc queries past this evict the
+	 * least recently used.
+	 */
+	public static final int MAX_SHAPES = 64;
+
+	private final Cache<String, MappingPlan> plansByShape = CacheBuilder.newBuilder().maximumSize(MAX_SHAPES).build();
+
+	// the plan of the result set the shared mapper saw last
+	private volatile PlanInUse lastPlan;
 
 	public static final Map<Class<?>, Class<?>> AUTOMATIC_PARAMETER_CONVERSIONS = Maps.newHashMap();
 
@@ -52,24 +68,10 @@ public class RowMappingRepository<T> extends ReflectionHelper<T> {
 	public RowMappingRepository(final Class<T> entityClass) {
 		super(entityClass);
 		scanColumns();
+		this.diffPlan = DiffPlan.build(propertiesByColumn);
 		buildReflectingRowMapper();
 	}
 
-	private void buildInitialConverterMap(final ResultSetMetaData metadata) throws SQLException, ClassNotFoundException {
-
-		converters = Maps.newHashMap();
-
-		// we only care about things in the resultset
-		final int columns = metadata.getColumnCount();
-
-		for (int i = 1; i < columns + 1; i++) {
-			final String columnClassName = metadata.getColumnClassName(i);
-			final String columnName = metadata.getColumnName(i);
-			final Function<Object, Object> converter = selectConverter(columnClassName, columnName);
-			converters.put(columnName, converter);
-		}
-	}
-
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	private Function<Object, Object> selectConverter(final String columnClassName, final String columnName) throws ClassNotFoundException {
 		final PropertyHelper propertyHelper = propertiesByColumn.get(columnName);
@@ -115,87 +117,263 @@ public class RowMappingRepository<T> extends ReflectionHelper<T> {
 		return o -> null;
 	}
 
-	@SuppressWarnings("unchecked")
-	private void buildReflectingRowMapper() {
+	/**
+	 * How each column of one result shape is mapped, learned on the first rows.
+	 */
+	private static final class MappingPlan {
+
+		final ColumnPlan[] columns;
+
+		MappingPlan(final ColumnPlan[] columns) {
+			this.columns = columns;
+		}
+	}
+
+	private static final class PlanInUse {
+
+		final WeakReference<ResultSet> rs;
+		final MappingPlan plan;
+
+		PlanInUse(final ResultSet rs, final MappingPlan plan) {
+			this.rs = new WeakReference<ResultSet>(rs);
+			this.plan = plan;
+		}
+	}
+
+	private static final class ColumnPlan {
+
+		final int index;
+		final String name;
+		final String className;
+		final PropertyHelper property;
+		final LongAdder[] hits = new LongAdder[ColumnStrategy.values().length];
 
+		// null until known; races only repeat the same choice
+		volatile ColumnStrategy strategy;
+		volatile Function<Object, Object> converter;
+
+		ColumnPlan(final int index, final String name, final String className, final PropertyHelper property) {
+			this.index = index;
+			this.name = name;
+			this.className = className;
+			this.property = property;
+
+			for (int i = 0; i < hits.length; i++) {
+				hits[i] = new LongAdder();
+			}
+		}
+	}
+
+	private MappingPlan planFor(final ResultSet rs) throws SQLException {
+		final ResultSetMetaData metadata = rs.getMetaData();
+		final int count = metadata.getColumnCount();
+		final StringBuilder shape = new StringBuilder();
+
+		for (int i = 1; i <= count; i++) {
+			shape.append(metadata.getColumnName(i)).append(':').append(metadata.getColumnClassName(i)).append(',');
+		}
+
+		MappingPlan plan = plansByShape.getIfPresent(shape.toString());
+
+		if (plan == null) {
+			final ColumnPlan[] columns = new ColumnPlan[count];
+
+			for (int i = 1; i <= count; i++) {
+				final String columnName = metadata.getColumnName(i);
+				final ColumnPlan column = new ColumnPlan(i, columnName, metadata.getColumnClassName(i), propertiesByColumn.get(columnName));
+				column.strategy = initialStrategy(column);
+				columns[i - 1] = column;
+			}
+
+			plan = new MappingPlan(columns);
+			final MappingPlan existing = plansByShape.asMap().putIfAbsent(shape.toString(), plan);
+			plan = existing == null ? plan : existing;
+		}
+
+		return plan;
+	}
+
+	/**
+	 * What can be told from the metadata alone; null when the driver has to be tried.
+	 */
+	private ColumnStrategy initialStrategy(final ColumnPlan column) {
+		if (column.property == null) {
+			log.warn("Discarding all future values from ResultSet column {} because {} has no mapping for it", column.name, this.entityClass);
+			return ColumnStrategy.SKIP;
+		}
+
+		try {
+			if (column.className != null && Primitives.wrap(column.property.getType()).isAssignableFrom(Class.forName(column.className))) {
+				return ColumnStrategy.DIRECT;
+			}
+		} catch (final ClassNotFoundException e) {
+			log.debug("Column {} has unknown class {}", column.name, column.className);
+		}
+
+		return null;
+	}
+
+	private void buildReflectingRowMapper() {
+		// shared, so the plan is looked up again whenever the result set changes
 		this.rowMapper = (rs, rowNum) -> {
-			try {
-				final ResultSetMetaData resultSetMetaData = rs.getMetaData();
+			PlanInUse last = lastPlan;
 
-				if (converters == null) {
-					buildInitialConverterMap(resultSetMetaData);
+			if (last == null || last.rs.get() != rs) {
+				last = new PlanInUse(rs, planFor(rs));
+				lastPlan = last;
+			}
+
+			return mapRow(rs, last.plan);
+		};
+	}
+
+	/**
+	 * A mapper for a single result set: the mapping plan is looked up on the first row and kept
+	 * for the rest. {@link #getRowMapper()} keeps the plan of the last result set it saw, so it
+	 * looks it up again whenever queries on several threads interleave. Not to be shared between
+	 * queries or threads.
+	 */
+	public RowMapper<T> newQueryMapper() {
+		return new RowMapper<T>() {
+
+			private MappingPlan plan;
+
+			@Override
+			public T mapRow(final ResultSet rs, final int rowNum) throws SQLException {
+				if (plan == null) {
+					plan = planFor(rs);
 				}
+				return RowMappingRepository.this.mapRow(rs, plan);
+			}
+		};
+	}
 
-				final T instance = entityClass.newInstance();
+	private T mapRow(final ResultSet rs, final MappingPlan plan) throws SQLException {
+		final T instance;
 
-				for (int i = 1; i < resultSetMetaData.getColumnCount() + 1; i++) {
-					final String columnName = resultSetMetaData.getColumnName(i);
-					final PropertyHelper propertyHelper = propertiesByColumn.get(columnName);
+		try {
+			instance = entityClass.newInstance();
+		} catch (final InstantiationException | IllegalAccessException e) {
+			throw new RuntimeException("Error instantiating " + entityClass, e);
+		}
 
-					// first attempt to have the driver coerce the value to what we expect
+		for (final ColumnPlan column : plan.columns) {
+			final ColumnStrategy strategy = column.strategy;
+
+			if (strategy == null) {
+				// first attempt to have the driver coerce the value to what we expect; once that
+				// works, or fails, it is not tried again for this column
+				final Object coerced;
+				try {
+					coerced = rs.getObject(column.index, column.property.getType());
+				} catch (final SQLException e) {
+					useConverter(column, e);
+					mapConverted(rs, instance, column);
+					continue;
+				}
 
-					try {
-						final Object unConvertedValue = rs.getObject(columnName, propertyHelper.getType());
+				// a null says nothing about the next value
+				if (coerced != null) {
+					column.strategy = ColumnStrategy.DRIVER;
+				}
 
-						try {
-							propertyHelper.setValue(instance, unConvertedValue);
-						} catch (final IllegalArgumentException e1) {
-							throw new RuntimeException("Error setting member value on: " + entityClass + "." + columnName + " = " + unConvertedValue + "(" + unConvertedValue.getClass() + ")", e1);
-						}
+				setValue(instance, column, coerced);
+				column.hits[ColumnStrategy.DRIVER.ordinal()].increment();
+				continue;
+			}
 
-						continue;
+			switch (strategy) {
+			case DIRECT:
+				setValue(instance, column, rs.getObject(column.index));
+				break;
+			case DRIVER:
+				final Object coerced;
+				try {
+					coerced = rs.getObject(column.index, column.property.getType());
+				} catch (final SQLException e) {
+					// a value the driver can't coerce after all
+					useConverter(column, e);
+					mapConverted(rs, instance, column);
+					continue;
+				}
+				setValue(instance, column, coerced);
+				break;
+			case CONVERTER:
+				mapConverted(rs, instance, column);
+				continue;
+			case SKIP:
+				break;
+			}
 
-					} catch (final SQLException e) {
-						log.warn("Driver coercion to desired type failed: " + e.getMessage());
-						// if that fails, just get it as an object and we can try to coerce it
-						// ourselves
-					}
+			column.hits[strategy.ordinal()].increment();
+		}
+
+		return instance;
+	}
+
+	private void useConverter(final ColumnPlan column, final SQLException e) {
+		log.debug("Driver coercion of column {} to {} failed, using a converter: {}", column.name, column.property.getType(), e.getMessage());
+		column.converter = converterFor(column);
+		column.strategy = ColumnStrategy.CONVERTER;
+	}
+
+	private Function<Object, Object> converterFor(final ColumnPlan column) {
+		try {
+			return selectConverter(column.className, column.name);
+		} catch (final ClassNotFoundException e) {
+			throw new RuntimeException("Error instantiating " + entityClass, e);
+		}
+	}
+
+	private void mapConverted(final ResultSet rs, final T instance, final ColumnPlan column) throws SQLException {
+		Object columnValue = rs.getObject(column.index);
+
+		if (columnValue != null) {
+			columnValue = column.converter.apply(columnValue);
+
+			if (instance instanceof PropertyContainer) {
+				final PropertyContainer container = (PropertyContainer) instance;
+				final String propertyName = CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, column.name);
+				container.set(propertyName, columnValue);
+			}
+
+			setValue(instance, column, columnValue);
+		}
+
+		column.hits[ColumnStrategy.CONVERTER.ordinal()].increment();
+	}
+
+	private void setValue(final T instance, final ColumnPlan column, final Object value) {
+		try {
+			column.property.setValue(instance, value);
+		} catch (final IllegalArgumentException e1) {
+			throw new RuntimeException("Error setting member value on: " + entityClass + "." + column.name + " = " + value + "(" + (value == null ? null : value.getClass()) + ")", e1);
+		} catch (final IllegalAccessException | InvocationTargetException e) {
+			throw new RuntimeException("Error instantiating " + entityClass, e);
+		}
+	}
 
-					Object columnValue = rs.getObject(columnName);
-
-
-					if (columnValue != null) {
-						Function<Object, Object> converter = (Function<Object, Object>) converters.get(columnName);
-						if (converter != null) {
-							columnValue = converter.apply(columnValue);
-						} else {
-							log.trace("No converter found for column " + columnName + "; trying again to see if previous queries missed it");
-							final String columnClassName = resultSetMetaData.getColumnClassName(i);
-							converter = selectConverter(columnClassName, columnName);
-
-							if (converter != null) {
-								columnValue = converter.apply(columnValue);
-							} else {
-								log.error("No converters found after second try -- attempting to set directly");
-							}
-						}
-
-						if (instance instanceof PropertyContainer) {
-							final PropertyContainer container = (PropertyContainer) instance;
-							final String propertyName = CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, columnName);
-							container.set(propertyName, columnValue);
-						}
-
-						// last attempt
-						try {
-							propertyHelper.setValue(instance, columnValue);
-						} catch (final IllegalArgumentException e1) {
-							throw new RuntimeException("Error setting member value on: " + entityClass + "." + columnName + " = " + columnValue + "(" + columnValue.getClass() + ")", e1);
-						}
+	/**
+	 * How many values of each column were mapped with each strategy, over the result shapes still
+	 * kept; columns in name order, strategies never used left out.
+	 */
+	public Map<String, Map<ColumnStrategy, Long>> getColumnStrategyCounts() {
+		final Map<String, Map<ColumnStrategy, Long>> counts = new TreeMap<String, Map<ColumnStrategy, Long>>();
+
+		for (final MappingPlan plan : plansByShape.asMap().values()) {
+			for (final ColumnPlan column : plan.columns) {
+				final Map<ColumnStrategy, Long> byStrategy = counts.computeIfAbsent(column.name, k -> new EnumMap<ColumnStrategy, Long>(ColumnStrategy.class));
+
+				for (final ColumnStrategy strategy : ColumnStrategy.values()) {
+					final long hits = column.hits[strategy.ordinal()].sum();
+					if (hits > 0) {
+						byStrategy.merge(strategy, hits, Long::sum);
 					}
 				}
-
-				return instance;
-			} catch (final InstantiationException e2) {
-				throw new RuntimeException("Error instantiating " + entityClass, e2);
-			} catch (final IllegalAccessException e3) {
-				throw new RuntimeException("Error instantiating " + entityClass, e3);
-			} catch (final InvocationTargetException e4) {
-				throw new RuntimeException("Error instantiating " + entityClass, e4);
-			} catch (final ClassNotFoundException e5) {
-				throw new RuntimeException("Error instantiating " + entityClass, e5);
 			}
-		};
+		}
+
+		return counts;
 	}
 
 	public Map<String, ColumnChange> scanForChanges(final T existing, final T updated) {
@@ -204,82 +382,32 @@ public class RowMappingRepository<T> extends ReflectionHelper<T> {
 
 	public Map<String, ColumnChange> scanForChanges(final T existing, final T updated, final boolean deleteOverride) {
 		final Map<String, ColumnChange> changes = new TreeMap<String, ColumnChange>();
-
-		this.propertiesByColumn.forEach((columnName, ph) -> {
-			try {
-				final Column column = ph.getAnnotation(Column.class);
-				if (column != null && !column.updatable()) {
-					return;
-				}
-
-				final Object dbValue = existing == null ? null : ph.getValue(existing);
-				final Object updatedValue = updated == null ? null : ph.getValue(updated);
-				final String propertyName = ph.getName();
-
-				final CopyBehavior copyBehavior = ph.getAnnotation(CopyBehavior.class);
-				final CopyBehavior.Behavior behavior = copyBehavior == null ? Behavior.MOST_RECENT_NON_NULL : copyBehavior.value();
-
-				switch (behavior) {
-					case IGNORE:
-						// TODO: This had a distinction in validstart/end world, not sure here
-					case TAKE_ORIGINAL:
-						// column is never updated
-						break;
-					case TAKE_UPDATED:
-						// column is updated if value is different
-						if (!Objects.deepEquals(dbValue, updatedValue)) {
-							if (updatedValue == null) {
-								changes.put(propertyName, ColumnChange.delete(columnName, dbValue));
-							} else {
-								if (dbValue == null) {
-									changes.put(propertyName, ColumnChange.add(columnName, updatedValue));
-								} else {
-									changes.put(propertyName, ColumnChange.update(columnName, dbValue, updatedValue));
-								}
-							}
-
-							break;
-						}
-						break;
-					case MOST_RECENT_NON_NULL:
-						// if updated value is not null, use that
-						// otherwise use existing value
-						if (updatedValue != null) {
-							if (!Objects.deepEquals(dbValue, updatedValue)) {
-								if (dbValue == null) {
-									changes.put(propertyName, ColumnChange.add(columnName, updatedValue));
-								} else {
-									changes.put(propertyName, ColumnChange.update(columnName, dbValue, updatedValue));
-								}
-
-								break;
-							}
-						} else {
-							// updated == null
-							// normally with MOST_RECENT_NON_NULL this would be ignored, but check
-							// override
-							// if override and we're not just going from null -> null, issue a
-							// delete
-							if (dbValue != null && deleteOverride) {
-								changes.put(propertyName, ColumnChange.delete(columnName, dbValue));
-							}
-						}
-						break;
-					case ALWAYS_NULL:
-						// like it says
-						if (dbValue != null) {
-							changes.put(propertyName, ColumnChange.delete(columnName, dbValue));
-							break;
-						}
-				}
-			} catch (final Exception e) {
-				throw new QueryConstructionException("Error generating assignment statements for entity update", e);
+		final DiffPlan.Diff diff = diffPlan.diff(existing, updated, deleteOverride);
+
+		for (int i = diff.changed.nextSetBit(0); i >= 0; i = diff.changed.nextSetBit(i + 1)) {
+			final String columnName = diffPlan.getColumnName(i);
+			final Object dbValue = diff.oldValues[i];
+
+			if (diff.nulled.get(i)) {
+				changes.put(diffPlan.getPropertyName(i), ColumnChange.delete(columnName, dbValue));
+			} else if (dbValue == null) {
+				changes.put(diffPlan.getPropertyName(i), ColumnChange.add(columnName, diff.newValues[i]));
+			} else {
+				changes.put(diffPlan.getPropertyName(i), ColumnChange.update(columnName, dbValue, diff.newValues[i]));
 			}
-		});
+		}
 
 		return changes;
 	}
 
+	/**
+	 * The precomputed rules used by {@link #scanForChanges(Object, Object, boolean)}. Bulk callers
+	 * can use it directly, reusing one {@link DiffPlan.Diff} across comparisons.
+	 */
+	public DiffPlan<T> getDiffPlan() {
+		return diffPlan;
+	}
+
 	private void scanColumns() {
 
 		for (final String propertyName : container.getPropertyNames()) {
@@ -0,0 +1,147 @@
+package com.github.gregb.database;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import com.github.gregb.mapping.SlotPropertyContainer;
+import com.github.gregb.mapping.SlotSchema;
+import com.google.common.base.CaseFormat;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Maps rows of any query into {@link SlotPropertyContainer}s, with properties named after the
+ * columns in lower camel case (<code>first_name</code> becomes <code>firstName</code>). A name
+ * repeated by a join gets its column number appended (<code>id</code>, <code>id4</code>), or the
+ * next free number should another column already have that name.
+ *
+ * Result sets of the same shape share one schema, of which the {@link #MAX_SHAPES} most recently
+ * used are kept, so a mapper can be reused for many queries and threads. It keeps the schema of
+ * the last result set it mapped, and looks it up again when that changes; {@link #newQueryMapper()}
+ * gives a mapper for a single result set, which looks it up once.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class SlotRowMapper implements RowMapper<SlotPropertyContainer> {
+
+	public static final int MAX_SHAPES = 64;
+
+	private final Cache<String, SlotSchema> schemasByShape = CacheBuilder.newBuilder().maximumSize(MAX_SHAPES).build();
+
+	// the schema of the result set mapped last
+	private volatile SchemaInUse last;
+
+	private static final class SchemaInUse {
+
+		final WeakReference<ResultSet> rs;
+		final SlotSchema schema;
+
+		SchemaInUse(final ResultSet rs, final SlotSchema schema) {
+			this.rs = new WeakReference<ResultSet>(rs);
+			this.schema = schema;
+		}
+	}
+
+	@Override
+	public SlotPropertyContainer mapRow(final ResultSet rs, final int rowNum) throws SQLException {
+		SchemaInUse inUse = last;
+
+		if (inUse == null || inUse.rs.get() != rs) {
+			inUse = new SchemaInUse(rs, schemaFor(rs.getMetaData()));
+			last = inUse;
+		}
+
+		return mapRow(rs, inUse.schema);
+	}
+
+	/**
+	 * A mapper for a single result set, which looks up the schema on the first row and keeps it.
+	 * Not to be shared between queries or threads.
+	 */
+	public RowMapper<SlotPropertyContainer> newQueryMapper() {
+		return new RowMapper<SlotPropertyContainer>() {
+
+			private SlotSchema schema;
+
+			@Override
+			public SlotPropertyContainer mapRow(final ResultSet rs, final int rowNum) throws SQLException {
+				if (schema == null) {
+					schema = schemaFor(rs.getMetaData());
+				}
+				return SlotRowMapper.mapRow(rs, schema);
+			}
+		};
+	}
+
+	private static SlotPropertyContainer mapRow(final ResultSet rs, final SlotSchema schema) throws SQLException {
+		final SlotPropertyContainer container = schema.newContainer();
+
+		for (int i = 0; i < schema.size(); i++) {
+			container.set(i, JdbcUtils.getResultSetValue(rs, i + 1));
+		}
+
+		return container;
+	}
+
+	private SlotSchema schemaFor(final ResultSetMetaData metaData) throws SQLException {
+		final int columnCount = metaData.getColumnCount();
+		final String[] names = new String[columnCount];
+		final StringBuilder key = new StringBuilder();
+
+		for (int i = 0; i < columnCount; i++) {
+			names[i] = CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, JdbcUtils.lookupColumnName(metaData, i + 1).toLowerCase());
+		}
+
+		// joins can repeat a column name; later ones get a number no other column is named with
+		final Set<String> taken = new HashSet<String>(Arrays.asList(names));
+		final Set<String> seen = new HashSet<String>();
+
+		for (int i = 0; i < columnCount; i++) {
+			if (!seen.add(names[i])) {
+				int suffix = i + 1;
+				while (taken.contains(names[i] + suffix)) {
+					suffix++;
+				}
+				names[i] = names[i] + suffix;
+				taken.add(names[i]);
+			}
+
+			key.append(names[i]).append(':').append(metaData.getColumnClassName(i + 1)).append(',');
+		}
+
+		SlotSchema schema = schemasByShape.getIfPresent(key.toString());
+
+		if (schema == null) {
+			final Class<?>[] types = new Class<?>[columnCount];
+
+			for (int i = 0; i < columnCount; i++) {
+				types[i] = columnClass(metaData.getColumnClassName(i + 1));
+			}
+
+			schema = new SlotSchema(names, types);
+			final SlotSchema existing = schemasByShape.asMap().putIfAbsent(key.toString(), schema);
+			schema = existing == null ? schema : existing;
+		}
+
+		return schema;
+	}
+
+	private static Class<?> columnClass(final String className) {
+		try {
+			return className == null ? Object.class : Class.forName(className);
+		} catch (final ClassNotFoundException e) {
+			// e.g. a driver specific type not visible here
+			return Object.class;
+		}
+	}
+
+}
@@ -0,0 +1,354 @@
+package com.github.gregb.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+
+/**
+ * Keeps the most recent statements of a repository that took longer than a threshold, with their
+ * parameters, row count and timing, and optionally their plan, so a slow query can be looked at
+ * after the fact instead of reproduced. A statement that fails or times out after the threshold is
+ * captured too, with its exception. Each capture is also logged as a warning.
+ *
+ * Parameters whose names match {@link #setRedactedParameters(Pattern)} are masked, and long
+ * values are cut short.
+ *
+ * With {@link #setExplain(boolean)}, a slow SELECT is run again under <code>EXPLAIN</code> with
+ * the same parameters, on the caller's thread, through the repository's JdbcTemplate: inside a
+ * transaction that is the same connection, otherwise one from the pool. This happens after the
+ * statement's metrics are recorded and its listeners called, so their timings leave it out, but
+ * the repository call only returns once the plan is read. A statement shape is explained at most
+ * once per {@link #setExplainInterval(long, TimeUnit) interval}.
+ *
+ * Attach to a repository with {@link JdbcRepository#setSlowQueryLog(SlowQueryLog)}. Timing comes
+ * from {@link RepositoryMetrics}, so nothing is captured while they are disabled.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class SlowQueryLog {
+
+	private static final Logger log = LoggerFactory.getLogger(SlowQueryLog.class);
+
+	public static final String REDACTED = "***";
+
+	private final long thresholdNanos;
+	private final AtomicReferenceArray<SlowQuery> entries;
+	private final AtomicLong captured = new AtomicLong();
+	private final ConcurrentMap<String, Long> lastExplained = new ConcurrentHashMap<String, Long>();
+
+	// settable while repositories capture on other threads
+	private volatile Pattern redactedParameters = Pattern.compile("(?i).*(password|secret|token).*");
+	private volatile int maxValueLength = 200;
+	private volatile boolean explain;
+	private volatile long explainIntervalNanos = TimeUnit.MINUTES.toNanos(1);
+
+	/**
+	 * One captured statement.
+	 */
+	public static class SlowQuery {
+
+		private final DateTime at;
+		private final Class<?> entityClass;
+		private final RepositoryOperation operation;
+		private final String sql;
+		private final Map<String, String> parameters;
+		private final long rows;
+		private final long micros;
+		private final String plan;
+		private final Throwable error;
+
+		SlowQuery(final DateTime at, final Class<?> entityClass, final RepositoryOperation operation, final String sql, final Map<String, String> parameters, final long rows, final long micros, final String plan,
+				final Throwable error) {
+			this.at = at;
+			this.entityClass = entityClass;
+			this.operation = operation;
+			this.sql = sql;
+			this.parameters = parameters;
+			this.rows = rows;
+			this.micros = micros;
+			this.plan = plan;
+			this.error = error;
+		}
+
+		/**
+		 * When the statement finished.
+		 */
+		public DateTime getAt() {
+			return at;
+		}
+
+		public Class<?> getEntityClass() {
+			return entityClass;
+		}
+
+		public RepositoryOperation getOperation() {
+			return operation;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * Parameter values as text, redacted and shortened.
+		 */
+		public Map<String, String> getParameters() {
+			return parameters;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getMicros() {
+			return micros;
+		}
+
+		/**
+		 * The plan, one line per row of the EXPLAIN output, or null if not explained.
+		 */
+		public String getPlan() {
+			return plan;
+		}
+
+		/**
+		 * Why the statement failed, or null if it completed.
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return "SlowQuery [" + operation + " " + entityClass.getSimpleName() + ", " + micros + " us, " + rows + " rows: " + sql + "; " + parameters + (error == null ? "" : ", failed: " + error) + "]";
+		}
+	}
+
+	/**
+	 * @param threshold
+	 *            Statements taking at least this long are captured.
+	 * @param capacity
+	 *            How many of the most recent captures are kept.
+	 */
+	public SlowQueryLog(final long threshold, final TimeUnit unit, final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+
+		this.thresholdNanos = unit.toNanos(threshold);
+		this.entries = new AtomicReferenceArray<SlowQuery>(capacity);
+	}
+
+	public long getThresholdNanos() {
+		return thresholdNanos;
+	}
+
+	/**
+	 * Parameters with matching names are replaced by {@link #REDACTED}. By default, names
+	 * containing password, secret or token. Null to redact nothing.
+	 */
+	public void setRedactedParameters(final Pattern redactedParameters) {
+		this.redactedParameters = redactedParameters;
+	}
+
+	/**
+	 * Longer parameter values are cut short; 200 characters by default.
+	 */
+	public void setMaxValueLength(final int maxValueLength) {
+		this.maxValueLength = maxValueLength;
+	}
+
+	public void setExplain(final boolean explain) {
+		this.explain = explain;
+	}
+
+	public void setExplainInterval(final long interval, final TimeUnit unit) {
+		this.explainIntervalNanos = unit.toNanos(interval);
+	}
+
+	/**
+	 * The number of statements captured so far, including those since overwritten.
+	 */
+	public long getCapturedCount() {
+		return captured.get();
+	}
+
+	/**
+	 * The captures still kept, newest first.
+	 */
+	public List<SlowQuery> getEntries() {
+		final List<SlowQuery> result = new ArrayList<SlowQuery>(entries.length());
+		final long last = captured.get();
+
+		for (long i = last - 1; i >= 0 && i >= last - entries.length(); i--) {
+			final SlowQuery entry = entries.get((int) (i % entries.length()));
+			if (entry != null) {
+				result.add(entry);
+			}
+		}
+
+		return result;
+	}
+
+	public void clear() {
+		for (int i = 0; i < entries.length(); i++) {
+			entries.set(i, null);
+		}
+	}
+
+	/**
+	 * Captures the statement if it was slow.
+	 *
+	 * @param jdbcTemplate
+	 *            To run EXPLAIN with; may be null.
+	 * @param parameters
+	 *            Named (or, for positional statements, numbered from 1) parameter values; may be
+	 *            null.
+	 */
+	void capture(final JdbcTemplate jdbcTemplate, final Class<?> entityClass, final RepositoryOperation operation, final String sql, final Map<String, ?> parameters, final long nanos, final long rows) {
+		capture(jdbcTemplate, entityClass, operation, sql, parameters, nanos, rows, null);
+	}
+
+	/**
+	 * As {@link #capture(JdbcTemplate, Class, RepositoryOperation, String, Map, long, long)}, for
+	 * a statement that may have failed.
+	 *
+	 * @param error
+	 *            Why the statement failed, or null if it completed.
+	 */
+	void capture(final JdbcTemplate jdbcTemplate, final Class<?> entityClass, final RepositoryOperation operation, final String sql, final Map<String, ?> parameters, final long nanos, final long rows,
+			final Throwable error) {
+		if (nanos < thresholdNanos) {
+			return;
+		}
+
+		final Map<String, ?> values = parameters == null ? Collections.<String, Object> emptyMap() : parameters;
+		final String plan = explain && jdbcTemplate != null && isQuery(sql) && explainDue(sql) ? explain(jdbcTemplate, sql, values) : null;
+		final SlowQuery entry = new SlowQuery(DateTime.now(), entityClass, operation, sql, redact(values), rows, TimeUnit.NANOSECONDS.toMicros(nanos), plan, error);
+
+		entries.set((int) (captured.getAndIncrement() % entries.length()), entry);
+		if (error == null) {
+			log.warn("Slow {} on {}: {} ms, {} rows: {}; {}", operation, entityClass.getSimpleName(), TimeUnit.NANOSECONDS.toMillis(nanos), rows, sql, entry.parameters);
+		} else {
+			log.warn("Slow {} on {} failed after {} ms: {}; {}: {}", operation, entityClass.getSimpleName(), TimeUnit.NANOSECONDS.toMillis(nanos), sql, entry.parameters, error.toString());
+		}
+	}
+
+	private Map<String, String> redact(final Map<String, ?> parameters) {
+		if (parameters.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		final Pattern redacted = redactedParameters;
+		final int maxLength = maxValueLength;
+		final Map<String, String> result = new LinkedHashMap<String, String>();
+
+		for (final Map.Entry<String, ?> e : parameters.entrySet()) {
+			if (redacted != null && redacted.matcher(e.getKey()).matches()) {
+				result.put(e.getKey(), REDACTED);
+			} else {
+				Object value = e.getValue();
+				if (value instanceof SqlParameterValue) {
+					value = ((SqlParameterValue) value).getValue();
+				}
+
+				final String text = String.valueOf(value);
+				result.put(e.getKey(), text.length() > maxLength ? text.substring(0, maxLength) + "..." : text);
+			}
+		}
+
+		return Collections.unmodifiableMap(result);
+	}
+
+	private static boolean isQuery(final String sql) {
+		final String start = sql.trim();
+		return start.regionMatches(true, 0, "SELECT", 0, 6) || start.regionMatches(true, 0, "WITH", 0, 4);
+	}
+
+	private boolean explainDue(final String sql) {
+		final String fingerprint = StatementStatistics.fingerprint(sql);
+		final long now = System.nanoTime();
+		final Long last = lastExplained.get(fingerprint);
+
+		if (last != null && now - last < explainIntervalNanos) {
+			return false;
+		}
+
+		// another thread explaining the same shape right now wins
+		return last == null ? lastExplained.putIfAbsent(fingerprint, now) == null : lastExplained.replace(fingerprint, last, now);
+	}
+
+	private static String explain(final JdbcTemplate jdbcTemplate, final String sql, final Map<String, ?> parameters) {
+		try {
+			final PreparedStatementCreator creator = explainCreator(sql, parameters);
+
+			return jdbcTemplate.execute((ConnectionCallback<String>) con -> {
+				try (PreparedStatement ps = creator.createPreparedStatement(con); ResultSet rs = ps.executeQuery()) {
+					final StringBuilder plan = new StringBuilder();
+					final int columns = rs.getMetaData().getColumnCount();
+
+					while (rs.next()) {
+						for (int i = 1; i <= columns; i++) {
+							plan.append(i > 1 ? "\t" : "").append(rs.getString(i));
+						}
+						plan.append('\n');
+					}
+
+					return plan.toString();
+				}
+			});
+		} catch (final DataAccessException | IllegalArgumentException e) {
+			log.debug("Unable to explain {}", sql, e);
+			return "EXPLAIN failed: " + e.getMessage();
+		}
+	}
+
+	private static PreparedStatementCreator explainCreator(final String sql, final Map<String, ?> parameters) {
+		final String explainSql = "EXPLAIN " + sql;
+
+		if (sql.indexOf('?') >= 0) {
+			// positional, numbered from 1
+			final Object[] values = new Object[parameters.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = parameters.get(Integer.toString(i + 1));
+			}
+			return con -> {
+				final PreparedStatement ps = con.prepareStatement(explainSql);
+				new ArgumentPreparedStatementSetter(values).setValues(ps);
+				return ps;
+			};
+		}
+
+		final MapSqlParameterSource parameterSource = new MapSqlParameterSource(parameters);
+		final ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(explainSql);
+		final String sqlToUse = NamedParameterUtils.substituteNamedParameters(parsedSql, parameterSource);
+		final Object[] values = NamedParameterUtils.buildValueArray(parsedSql, parameterSource, null);
+		return new PreparedStatementCreatorFactory(sqlToUse, NamedParameterUtils.buildSqlParameterList(parsedSql, parameterSource)).newPreparedStatementCreator(values);
+	}
+
+}
@@ -0,0 +1,296 @@
+package com.github.gregb.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Totals per statement shape, like PostgreSQL's pg_stat_statements but in process: every
+ * statement a {@link JdbcRepository} runs is reduced to a fingerprint, with literals, named
+ * parameters and the length of IN lists replaced, and its calls, time and rows are added up under
+ * that fingerprint. Time spent mapping rows to entities is kept apart from the time the driver
+ * and database take, so an expensive query can be told from an expensive mapping.
+ *
+ * The number of fingerprints is bounded; once full, new shapes are counted under
+ * {@link #OTHER}.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class StatementStatistics {
+
+	public static final String OTHER = "<other>";
+
+	private static final StatementStatistics DEFAULT = new StatementStatistics(2000);
+
+	private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN ?\\( ?\\?(?: ?, ?\\?)* ?\\)");
+
+	// raw SQL repeats a lot, since values are bound rather than inlined
+	private static final int MAX_CACHED_SQL = 10000;
+
+	private final int maxFingerprints;
+	private final ConcurrentMap<String, Stats> byFingerprint = new ConcurrentHashMap<String, Stats>();
+	private final ConcurrentMap<String, String> fingerprintsBySql = new ConcurrentHashMap<String, String>();
+
+	private volatile boolean enabled = true;
+
+	/**
+	 * The totals for one fingerprint. Times are in microseconds.
+	 */
+	public static class Stats {
+
+		private final String fingerprint;
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder rows = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAdder mappingNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		Stats(final String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		public long getErrors() {
+			return errors.sum();
+		}
+
+		public long getRows() {
+			return rows.sum();
+		}
+
+		public long getTotalMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(totalNanos.sum());
+		}
+
+		public double getMeanMicros() {
+			final long n = calls.sum();
+			return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+		}
+
+		public long getMaxMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+		}
+
+		/**
+		 * Time from the first row to the end, mapping and fetching the rows, part of
+		 * {@link #getTotalMicros()}.
+		 */
+		public long getMappingMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(mappingNanos.sum());
+		}
+
+		/**
+		 * Time until the first row, roughly executing the statement: the total less the mapping.
+		 */
+		public long getExecutionMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() - mappingNanos.sum());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%8d calls %10d us total %10.1f us mean %8d us max %8d us mapping %8d rows  %s", getCalls(), getTotalMicros(), getMeanMicros(), getMaxMicros(), getMappingMicros(), getRows(), fingerprint);
+		}
+	}
+
+	public StatementStatistics(final int maxFingerprints) {
+		this.maxFingerprints = maxFingerprints;
+	}
+
+	/**
+	 * The registry repositories record to.
+	 */
+	public static StatementStatistics getDefault() {
+		return DEFAULT;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param nanos
+	 *            The whole call, including mapping.
+	 * @param mappingNanos
+	 *            Time from the first row on; 0 for updates.
+	 */
+	public void record(final String sql, final long nanos, final long rowCount, final long mappingNanos) {
+		if (enabled) {
+			final Stats stats = statsFor(sql);
+			stats.calls.increment();
+			stats.rows.add(rowCount);
+			stats.totalNanos.add(nanos);
+			stats.mappingNanos.add(mappingNanos);
+			stats.maxNanos.accumulate(nanos);
+		}
+	}
+
+	public void recordError(final String sql, final long nanos) {
+		if (enabled) {
+			final Stats stats = statsFor(sql);
+			stats.errors.increment();
+			stats.calls.increment();
+			stats.totalNanos.add(nanos);
+			stats.maxNanos.accumulate(nanos);
+		}
+	}
+
+	private Stats statsFor(final String sql) {
+		String fingerprint = fingerprintsBySql.get(sql);
+
+		if (fingerprint == null) {
+			fingerprint = fingerprint(sql);
+			if (fingerprintsBySql.size() < MAX_CACHED_SQL) {
+				fingerprintsBySql.put(sql, fingerprint);
+			}
+		}
+
+		Stats stats = byFingerprint.get(fingerprint);
+
+		if (stats == null) {
+			if (byFingerprint.size() >= maxFingerprints) {
+				fingerprint = OTHER;
+				stats = byFingerprint.get(OTHER);
+				if (stats != null) {
+					return stats;
+				}
+			}
+
+			stats = new Stats(fingerprint);
+			final Stats existing = byFingerprint.putIfAbsent(fingerprint, stats);
+			stats = existing == null ? stats : existing;
+		}
+
+		return stats;
+	}
+
+	public Stats get(final String sql) {
+		return byFingerprint.get(fingerprint(sql));
+	}
+
+	public Collection<Stats> getAll() {
+		return Collections.unmodifiableCollection(byFingerprint.values());
+	}
+
+	/**
+	 * The fingerprints that took the most time overall, most first.
+	 */
+	public List<Stats> topByTotalTime(final int n) {
+		return top(n, Comparator.comparingLong(s -> s.totalNanos.sum()));
+	}
+
+	/**
+	 * The top fingerprints by any measure, highest first.
+	 */
+	public List<Stats> top(final int n, final Comparator<Stats> by) {
+		final List<Stats> all = new ArrayList<Stats>(byFingerprint.values());
+		all.sort(by.reversed());
+		return all.size() > n ? new ArrayList<Stats>(all.subList(0, n)) : all;
+	}
+
+	public void reset() {
+		byFingerprint.clear();
+	}
+
+	/**
+	 * Reduces a statement to its shape: string and numeric literals and named parameters become
+	 * <code>?</code>, <code>IN (?, ?, ...)</code> becomes <code>IN (...)</code>, comments are
+	 * dropped and runs of white space become one space. Quoted identifiers and casts
+	 * (<code>::int</code>) are kept.
+	 */
+	public static String fingerprint(final String sql) {
+		final StringBuilder sb = new StringBuilder(sql.length());
+		final int length = sql.length();
+		int i = 0;
+
+		while (i < length) {
+			final char c = sql.charAt(i);
+
+			if (Character.isWhitespace(c)) {
+				while (i < length && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') {
+					sb.append(' ');
+				}
+			} else if (c == '\'') {
+				// '' is an escaped quote inside the literal
+				i++;
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				i++;
+				sb.append('?');
+			} else if (c == '"') {
+				final int end = sql.indexOf('"', i + 1);
+				final int stop = end < 0 ? length : end + 1;
+				sb.append(sql, i, stop);
+				i = stop;
+			} else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+				final int end = sql.indexOf('\n', i);
+				i = end < 0 ? length : end;
+			} else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+				final int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? length : end + 2;
+			} else if (c == ':' && i + 1 < length && sql.charAt(i + 1) == ':') {
+				sb.append("::");
+				i += 2;
+				while (i < length && isIdentifierPart(sql.charAt(i))) {
+					sb.append(sql.charAt(i++));
+				}
+			} else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(sql.charAt(i + 1))) {
+				i++;
+				while (i < length && isIdentifierPart(sql.charAt(i))) {
+					i++;
+				}
+				sb.append('?');
+			} else if (Character.isDigit(c) && (sb.length() == 0 || !isIdentifierPart(sb.charAt(sb.length() - 1)))) {
+				while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				sb.append('?');
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+
+		if (sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ') {
+			sb.setLength(sb.length() - 1);
+		}
+
+		return IN_LIST.matcher(sb).replaceAll("IN (...)");
+	}
+
+	private static boolean isIdentifierPart(final char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.github.gregb.database;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import com.github.gregb.mapping.Identified;
+
+/**
+ * Collects the statements produced by a synchronization and runs them as JDBC batches.
+ *
+ * Updates are grouped by the set of columns they change, so each group is a single statement
+ * executed with many parameter sets. The deletes queued so far are always sent before a batch of
+ * inserts or updates, so the unique values of deleted rows are free for the rows that follow.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+class SyncBatch<T extends Identified<Long>> {
+
+	private final JdbcRepository<T> repository;
+	private final DiffPlan<T> plan;
+	private final DiffPlan.Diff diff;
+	private final int idIndex;
+	private final int batchSize;
+	private final boolean deleteOverride;
+
+	private final List<SqlParameterSource> inserts = new ArrayList<SqlParameterSource>();
+	private final List<SqlParameterSource> deletes = new ArrayList<SqlParameterSource>();
+	private final Map<BitSet, UpdateGroup> updates = new HashMap<BitSet, UpdateGroup>();
+
+	final SyncResult result = new SyncResult();
+
+	SyncBatch(final JdbcRepository<T> repository, final int batchSize, final boolean deleteOverride) {
+		this.repository = repository;
+		this.plan = repository.diffPlan;
+		this.diff = plan.newDiff();
+		this.batchSize = batchSize;
+		this.deleteOverride = deleteOverride;
+
+		int id = -1;
+		for (int i = 0; i < plan.size(); i++) {
+			if (plan.getColumnName(i).equals(repository.idColumn)) {
+				id = i;
+			}
+		}
+		this.idIndex = id;
+	}
+
+	void insert(final T desired) {
+		inserts.add(repository.buildParameterMapFromObject(desired));
+		result.inserted++;
+
+		if (inserts.size() >= batchSize) {
+			flushDeletes();
+			flushInserts();
+		}
+	}
+
+	void delete(final T current) {
+		deletes.add(new MapSqlParameterSource("id", current.getId()));
+		result.deleted++;
+
+		if (deletes.size() >= batchSize) {
+			flushDeletes();
+		}
+	}
+
+	void update(final T current, final T desired) {
+		plan.diff(current, desired, deleteOverride, diff);
+
+		// matching may be on a natural key; never move a row to another id
+		if (idIndex >= 0) {
+			diff.changed.clear(idIndex);
+			diff.nulled.clear(idIndex);
+		}
+
+		if (diff.isEmpty()) {
+			result.unchanged++;
+			return;
+		}
+
+		// changed columns in the low bits, nulled columns above them
+		final BitSet shape = (BitSet) diff.changed.clone();
+		for (int i = diff.nulled.nextSetBit(0); i >= 0; i = diff.nulled.nextSetBit(i + 1)) {
+			shape.set(plan.size() + i);
+		}
+
+		UpdateGroup group = updates.get(shape);
+		if (group == null) {
+			final StringBuilder sb = new StringBuilder("UPDATE ");
+			sb.append(repository.tableName);
+			sb.append(" SET ");
+			repository.appendAssignments(diff, sb);
+			sb.append(" WHERE ");
+			sb.append(repository.idColumn);
+			sb.append(" = :id");
+
+			group = new UpdateGroup(sb.toString());
+			updates.put(shape, group);
+		}
+
+		final MapSqlParameterSource parameters = repository.new ConvertingSqlParameterSource("id", current.getId());
+		for (int i = diff.changed.nextSetBit(0); i >= 0; i = diff.changed.nextSetBit(i + 1)) {
+			if (!diff.nulled.get(i)) {
+				parameters.addValue(plan.getColumnName(i), diff.newValues[i]);
+			}
+		}
+
+		group.parameters.add(parameters);
+		result.updated++;
+
+		if (group.parameters.size() >= batchSize) {
+			flushDeletes();
+			execute(group.sql, group.parameters);
+		}
+	}
+
+	/**
+	 * Runs everything still pending.
+	 */
+	void flush() {
+		flushDeletes();
+
+		for (final UpdateGroup group : updates.values()) {
+			execute(group.sql, group.parameters);
+		}
+
+		flushInserts();
+	}
+
+	private void flushInserts() {
+		execute(repository.insertStatement, inserts);
+	}
+
+	private void flushDeletes() {
+		execute(repository.deleteStatement, deletes);
+	}
+
+	private void execute(final String sql, final List<SqlParameterSource> parameters) {
+		if (parameters.isEmpty()) {
+			return;
+		}
+
+		JdbcRepository.log.trace("SQL OUT: {}; batch of {}", sql, parameters.size());
+		repository.namedTemplate.batchUpdate(sql, parameters.toArray(new SqlParameterSource[parameters.size()]));
+		parameters.clear();
+	}
+
+	private static class UpdateGroup {
+
+		private final String sql;
+		private final List<SqlParameterSource> parameters = new ArrayList<SqlParameterSource>();
+
+		UpdateGroup(final String sql) {
+			this.sql = sql;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package com.github.gregb.database;
+
+/**
+ * Counts of what a {@link JdbcRepository#synchronize} call did, in entities.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class SyncResult {
+
+	public int inserted;
+	public int updated;
+	public int deleted;
+	public int unchanged;
+
+	public int total() {
+		return inserted + updated + deleted + unchanged;
+	}
+
+	@Override
+	public String toString() {
+		return "SyncResult [inserted=" + inserted + ", updated=" + updated + ", deleted=" + deleted + ", unchanged=" + unchanged + "]";
+	}
+
+}
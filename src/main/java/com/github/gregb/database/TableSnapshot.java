@@ -0,0 +1,609 @@
+package com.github.gregb.database;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import com.github.gregb.mapping.Converters;
+import com.github.gregb.mapping.Identified;
+import com.github.gregb.mapping.PropertyHelper;
+import com.github.gregb.mapping.ValueKind;
+import com.github.gregb.util.LongIntHashMap;
+
+/**
+ * A table, or the matching rows of one, dumped to a local file and read back through a memory
+ * mapping, so a service can warm its reference data at startup without querying it again.
+ *
+ * The file is columnar: a header with the schema fingerprint and the {@link Stamp} of the data,
+ * then for each column a null bitmap and either 8 bytes per row (numbers, booleans, dates as
+ * {@link ValueKind#toLong(Object)}) or UTF-8 text with row offsets (strings, enum names, anything
+ * else through {@link Converters}). Entities are built from the mapping the first time they are
+ * asked for, and kept.
+ *
+ * {@link #load(JdbcRepository, Where, String, Path)} reuses the file when its stamp matches the
+ * database, and otherwise fetches the rows and replaces it.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <T>
+ *            The entity type.
+ */
+public class TableSnapshot<T extends Identified<Long>> {
+
+	private static final Logger log = LoggerFactory.getLogger(TableSnapshot.class);
+
+	private static final int MAGIC = 0x44545331; // "DTS1"
+	private static final int VERSION = 1;
+	private static final long NONE = Long.MIN_VALUE;
+
+	private static final byte LONG = 0;
+	private static final byte DOUBLE = 1;
+	private static final byte TEXT = 2;
+
+	private final Class<T> type;
+	private final Supplier<T> constructor;
+	private final Stamp stamp;
+	private final int size;
+	private final ByteBuffer buffer;
+	private final List<Column> columns;
+	private final Column idColumn;
+	private final AtomicReferenceArray<T> materialized;
+
+	private volatile LongIntHashMap rowsById;
+
+	/**
+	 * What a snapshot was taken of: the row count, the highest id and optionally the highest value
+	 * of a column that changes on every update, such as a modification timestamp. A snapshot whose
+	 * stamp still matches the database is assumed to hold the same rows; without a watermark,
+	 * updates that leave the count and highest id alone go unnoticed.
+	 */
+	public static final class Stamp {
+
+		private final long rowCount;
+		private final long maxId;
+		private final long watermark;
+
+		public Stamp(final long rowCount, final Long maxId, final Long watermark) {
+			this.rowCount = rowCount;
+			this.maxId = maxId == null ? NONE : maxId;
+			this.watermark = watermark == null ? NONE : watermark;
+		}
+
+		/**
+		 * Queries the stamp of the rows a snapshot of the repository would hold.
+		 *
+		 * @param watermarkColumn
+		 *            A timestamp or numeric column, or null for none.
+		 */
+		public static Stamp current(final JdbcRepository<?> repository, final Where where, final String watermarkColumn) {
+			final MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+			final String whereClause = where == null ? "1 = 1" : where.toSql(parameterSource, repository::convertParameterValue);
+
+			final StringBuilder sql = new StringBuilder("SELECT COUNT(*), MAX(").append(idColumnOf(repository)).append(")");
+			if (watermarkColumn != null) {
+				sql.append(", MAX(").append(watermarkColumn).append(")");
+			}
+			sql.append(" FROM ").append(repository.getTableName()).append(" WHERE ").append(whereClause);
+
+			log.trace("SQL OUT: {}", sql);
+			return repository.namedTemplate.queryForObject(sql.toString(), parameterSource, (rs, rowNum) -> {
+				final Number maxId = (Number) JdbcUtils.getResultSetValue(rs, 2);
+				return new Stamp(rs.getLong(1), maxId == null ? null : maxId.longValue(), watermarkColumn == null ? null : watermark(rs));
+			});
+		}
+
+		private static Long watermark(final ResultSet rs) throws SQLException {
+			final Object value = JdbcUtils.getResultSetValue(rs, 3);
+
+			if (value == null) {
+				return null;
+			}
+			if (value instanceof java.util.Date) {
+				return ((java.util.Date) value).getTime();
+			}
+			if (value instanceof Number) {
+				return ((Number) value).longValue();
+			}
+			throw new IllegalArgumentException("Watermark column must be a timestamp or a number, not " + value.getClass().getName());
+		}
+
+		public long getRowCount() {
+			return rowCount;
+		}
+
+		public Long getMaxId() {
+			return maxId == NONE ? null : maxId;
+		}
+
+		public Long getWatermark() {
+			return watermark == NONE ? null : watermark;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Stamp)) {
+				return false;
+			}
+			final Stamp other = (Stamp) o;
+			return rowCount == other.rowCount && maxId == other.maxId && watermark == other.watermark;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(rowCount, maxId, watermark);
+		}
+
+		@Override
+		public String toString() {
+			return "Stamp [rowCount=" + rowCount + ", maxId=" + getMaxId() + ", watermark=" + getWatermark() + "]";
+		}
+	}
+
+	private TableSnapshot(final Class<T> type, final Map<String, PropertyHelper> propertiesByColumn, final ByteBuffer buffer) {
+		this.type = type;
+		this.constructor = PropertyHelper.getConstructor(type);
+		this.buffer = buffer;
+
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IllegalArgumentException("Not a version " + VERSION + " table snapshot");
+			}
+
+			final long fingerprint = buffer.getLong();
+			if (fingerprint != fingerprint(type, propertiesByColumn)) {
+				throw new IllegalArgumentException("Snapshot was written for a different version of " + type.getSimpleName());
+			}
+
+			this.size = buffer.getInt();
+			this.stamp = new Stamp(buffer.getLong(), nullable(buffer.getLong()), nullable(buffer.getLong()));
+			final String idColumnName = readName(buffer);
+
+			final int columnCount = buffer.getInt();
+			this.columns = new ArrayList<Column>(columnCount);
+			for (int i = 0; i < columnCount; i++) {
+				final String name = readName(buffer);
+				columns.add(new Column(name, buffer.get(), propertiesByColumn.get(name)));
+			}
+
+			Column id = null;
+			for (final Column column : columns) {
+				column.locate();
+				if (column.name.equals(idColumnName)) {
+					id = column;
+				}
+			}
+			this.idColumn = id;
+		} catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated table snapshot", e);
+		}
+
+		this.materialized = new AtomicReferenceArray<T>(size);
+	}
+
+	private static Long nullable(final long value) {
+		return value == NONE ? null : value;
+	}
+
+	/**
+	 * Maps a snapshot file.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the file isn't a snapshot of this version of the entity.
+	 * @throws UncheckedIOException
+	 *             If the file can't be read.
+	 */
+	public static <T extends Identified<Long>> TableSnapshot<T> open(final RowMappingRepository<T> repository, final Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Snapshot " + file + " is too large to map: " + channel.size() + " bytes");
+			}
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new TableSnapshot<T>(repository.getEntityClass(), repository.propertiesByColumn, buffer);
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to map snapshot " + file, e);
+		}
+	}
+
+	/**
+	 * Opens the snapshot in the file if it is still current, or else takes a new one and writes it
+	 * there. The stamp is queried before the rows, so a change made while they are being read
+	 * makes the next load refetch rather than trust stale data.
+	 *
+	 * @param where
+	 *            The rows to snapshot, or null for the whole table.
+	 * @param watermarkColumn
+	 *            See {@link Stamp}; may be null.
+	 */
+	public static <T extends Identified<Long>> TableSnapshot<T> load(final JdbcRepository<T> repository, final Where where, final String watermarkColumn, final Path file) {
+		final Stamp current = Stamp.current(repository, where, watermarkColumn);
+
+		if (Files.exists(file)) {
+			try {
+				final TableSnapshot<T> snapshot = open(repository, file);
+
+				if (snapshot.getStamp().equals(current)) {
+					log.info("Reusing snapshot {} of {} rows from {}", file, snapshot.size(), repository.getTableName());
+					return snapshot;
+				}
+
+				log.info("Snapshot {} is stale: {}, database has {}", file, snapshot.getStamp(), current);
+			} catch (final IllegalArgumentException | UncheckedIOException e) {
+				log.warn("Ignoring unusable snapshot {}", file, e);
+			}
+		}
+
+		final Builder<T> builder = new Builder<T>(repository.getEntityClass(), repository.propertiesByColumn, idColumnOf(repository));
+		final MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+		final String whereClause = where == null ? "" : where.toSql(parameterSource, repository::convertParameterValue);
+
+		repository.exportWhere(whereClause, null, parameterSource, rs -> {
+			final RowMapper<T> mapper = repository.newQueryMapper();
+			int rowNum = 0;
+			while (rs.next()) {
+				builder.add(mapper.mapRow(rs, rowNum++));
+			}
+			return null;
+		});
+
+		builder.write(file, current);
+		log.info("Wrote snapshot {} of {} rows from {}", file, builder.size, repository.getTableName());
+
+		return open(repository, file);
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public Stamp getStamp() {
+		return stamp;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The entity in a row, built on first access.
+	 */
+	public T get(final int row) {
+		T entity = materialized.get(row);
+
+		if (entity == null) {
+			entity = constructor.get();
+			for (final Column column : columns) {
+				if (column.mutator != null && !column.isNull(row)) {
+					column.mutator.accept(entity, column.get(row));
+				}
+			}
+
+			if (!materialized.compareAndSet(row, null, entity)) {
+				entity = materialized.get(row);
+			}
+		}
+
+		return entity;
+	}
+
+	public Optional<T> findById(final long id) {
+		final int row = rowsById().get(id, -1);
+		return row < 0 ? Optional.empty() : Optional.of(get(row));
+	}
+
+	public List<T> findAll() {
+		final List<T> result = new ArrayList<T>(size);
+		for (int row = 0; row < size; row++) {
+			result.add(get(row));
+		}
+		return result;
+	}
+
+	public Map<Long, T> mapById() {
+		final Map<Long, T> result = new LinkedHashMap<Long, T>();
+		for (int row = 0; row < size; row++) {
+			final T entity = get(row);
+			result.put(entity.getId(), entity);
+		}
+		return result;
+	}
+
+	/**
+	 * Id to row, read from the id column alone.
+	 */
+	private LongIntHashMap rowsById() {
+		LongIntHashMap index = rowsById;
+
+		if (index == null) {
+			if (idColumn == null || idColumn.format != LONG) {
+				throw new IllegalStateException("Snapshot of " + type.getSimpleName() + " has no id column");
+			}
+
+			index = new LongIntHashMap(size);
+			for (int row = 0; row < size; row++) {
+				if (!idColumn.isNull(row)) {
+					index.put(idColumn.getLong(row), row, -1);
+				}
+			}
+			rowsById = index;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Schemas are compared the way {@link EntityCodec} compares them, which also checks that every
+	 * property can be written.
+	 */
+	private static <E> long fingerprint(final Class<E> type, final Map<String, PropertyHelper> propertiesByColumn) {
+		return new EntityCodec<E>(type, propertiesByColumn).getFingerprint();
+	}
+
+	private static String idColumnOf(final JdbcRepository<?> repository) {
+		return repository.idColumn != null ? repository.idColumn : repository.columnsByPropertyName.get(repository.idField);
+	}
+
+	private static byte formatOf(final ValueKind kind) {
+		return kind.isLong() ? LONG : kind == ValueKind.DOUBLE ? DOUBLE : TEXT;
+	}
+
+	private static String readName(final ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.getShort()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A column's place in the mapped file.
+	 */
+	private class Column {
+
+		final String name;
+		final byte format;
+		final Class<?> propertyType;
+		final ValueKind kind;
+		final BiConsumer<Object, Object> mutator;
+		final Function<Object, Object> fromText;
+
+		int nulls;
+		int values;
+		int text;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Column(final String name, final byte format, final PropertyHelper property) {
+			if (property == null) {
+				throw new IllegalArgumentException("Snapshot column " + name + " is not mapped");
+			}
+
+			this.name = name;
+			this.format = format;
+			this.propertyType = property.getType();
+			this.kind = ValueKind.of(propertyType);
+			this.mutator = property.getMutator();
+
+			if (kind == ValueKind.ENUM) {
+				this.fromText = s -> Enum.valueOf((Class) propertyType, (String) s);
+			} else {
+				this.fromText = kind == ValueKind.STRING ? Function.identity() : Converters.getConverter(String.class, propertyType);
+			}
+		}
+
+		void locate() {
+			nulls = buffer.position();
+			values = nulls + (size + 7) / 8;
+
+			if (format == TEXT) {
+				text = values + (size + 1) * 4;
+				buffer.position(text + buffer.getInt(values + size * 4));
+			} else {
+				buffer.position(values + size * 8);
+			}
+		}
+
+		boolean isNull(final int row) {
+			return (buffer.get(nulls + row / 8) & 1 << (row % 8)) != 0;
+		}
+
+		long getLong(final int row) {
+			return buffer.getLong(values + row * 8);
+		}
+
+		Object get(final int row) {
+			switch (format) {
+			case LONG:
+				return kind.fromLong(getLong(row), propertyType);
+			case DOUBLE:
+				return kind.fromDouble(buffer.getDouble(values + row * 8), propertyType);
+			default:
+				final int from = buffer.getInt(values + row * 4);
+				final byte[] bytes = new byte[buffer.getInt(values + row * 4 + 4) - from];
+				final ByteBuffer source = buffer.duplicate();
+				source.position(text + from);
+				source.get(bytes);
+				return fromText.apply(new String(bytes, StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	/**
+	 * Collects entities column by column and writes them as a snapshot.
+	 */
+	static class Builder<T> {
+
+		private final Class<T> type;
+		private final Map<String, PropertyHelper> propertiesByColumn;
+		private final String idColumn;
+		private final List<Collector> collectors = new ArrayList<Collector>();
+		private int size;
+
+		Builder(final Class<T> type, final Map<String, PropertyHelper> propertiesByColumn, final String idColumn) {
+			this.type = type;
+			this.propertiesByColumn = propertiesByColumn;
+			this.idColumn = idColumn;
+
+			for (final Map.Entry<String, PropertyHelper> e : new TreeMap<String, PropertyHelper>(propertiesByColumn).entrySet()) {
+				collectors.add(new Collector(e.getKey(), e.getValue()));
+			}
+		}
+
+		void add(final T entity) {
+			for (final Collector collector : collectors) {
+				collector.add(size, collector.accessor.apply(entity));
+			}
+			size++;
+		}
+
+		/**
+		 * Writes next to the file, then moves it into place, so a reader never maps a partial
+		 * snapshot.
+		 */
+		void write(final Path file, final Stamp stamp) {
+			final Path parent = file.toAbsolutePath().getParent();
+			Path temp = null;
+
+			try {
+				temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeLong(fingerprint(type, propertiesByColumn));
+					out.writeInt(size);
+					out.writeLong(stamp.rowCount);
+					out.writeLong(stamp.maxId);
+					out.writeLong(stamp.watermark);
+					writeName(out, idColumn == null ? "" : idColumn);
+
+					out.writeInt(collectors.size());
+					for (final Collector collector : collectors) {
+						writeName(out, collector.name);
+						out.writeByte(collector.format);
+					}
+
+					for (final Collector collector : collectors) {
+						collector.writeTo(out, size);
+					}
+				}
+
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final IOException e) {
+				throw new UncheckedIOException("Unable to write snapshot " + file, e);
+			} finally {
+				if (temp != null) {
+					try {
+						Files.deleteIfExists(temp);
+					} catch (final IOException e) {
+						log.warn("Unable to delete {}", temp, e);
+					}
+				}
+			}
+		}
+
+		private static void writeName(final DataOutputStream out, final String name) throws IOException {
+			final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * One column's values while a snapshot is being built.
+	 */
+	private static class Collector {
+
+		final String name;
+		final ValueKind kind;
+		final byte format;
+		final Function<Object, Object> accessor;
+		final Function<Object, Object> toText;
+		final BitSet nulls = new BitSet();
+
+		long[] values = new long[64];
+		int[] offsets = new int[64];
+		final ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+		Collector(final String name, final PropertyHelper property) {
+			this.name = name;
+			this.kind = ValueKind.of(property.getType());
+			this.format = formatOf(kind);
+			this.accessor = property.getAccessor();
+
+			if (kind == ValueKind.ENUM) {
+				this.toText = e -> ((Enum<?>) e).name();
+			} else {
+				this.toText = kind == ValueKind.STRING ? Function.identity() : Converters.getConverter(property.getType(), String.class);
+			}
+		}
+
+		void add(final int row, final Object value) {
+			if (value == null) {
+				nulls.set(row);
+			}
+
+			if (format == TEXT) {
+				if (row + 1 >= offsets.length) {
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				}
+				if (value != null) {
+					final byte[] bytes = ((String) toText.apply(value)).getBytes(StandardCharsets.UTF_8);
+					text.write(bytes, 0, bytes.length);
+				}
+				offsets[row + 1] = text.size();
+			} else {
+				if (row >= values.length) {
+					values = Arrays.copyOf(values, values.length * 2);
+				}
+				if (value != null) {
+					values[row] = format == LONG ? kind.toLong(value) : Double.doubleToRawLongBits(kind.toDouble(value));
+				}
+			}
+		}
+
+		void writeTo(final DataOutputStream out, final int size) throws IOException {
+			final byte[] bitmap = Arrays.copyOf(nulls.toByteArray(), (size + 7) / 8);
+			out.write(bitmap);
+
+			if (format == TEXT) {
+				for (int row = 0; row <= size; row++) {
+					out.writeInt(offsets[row]);
+				}
+				text.writeTo(out);
+			} else {
+				for (int row = 0; row < size; row++) {
+					out.writeLong(values[row]);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.github.gregb.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * Times a query's rows as a whole, for one query on one thread, and reports the first row to
+ * listeners. Reads the clock once, at the first row, so the mapping time also covers fetching the
+ * remaining rows from the driver. Does nothing but delegate while {@link RepositoryMetrics} are
+ * disabled and no listeners are registered.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+class TimedRowMapper<T> implements RowMapper<T> {
+
+	private final RowMapper<T> delegate;
+	private final RepositoryEvent event;
+	private final boolean timing;
+	private long firstRowAt = -1;
+
+	/**
+	 * @param event
+	 *            From {@link RepositoryListeners#before}; may be null.
+	 */
+	TimedRowMapper(final RowMapper<T> delegate, final RepositoryEvent event) {
+		this.delegate = delegate;
+		this.event = event;
+		this.timing = event != null || RepositoryMetrics.isEnabled();
+	}
+
+	@Override
+	public T mapRow(final ResultSet rs, final int rowNum) throws SQLException {
+		if (timing && firstRowAt < 0) {
+			firstRowAt = System.nanoTime();
+			if (event != null) {
+				RepositoryListeners.firstRow(event);
+			}
+		}
+
+		return delegate.mapRow(rs, rowNum);
+	}
+
+	/**
+	 * From the first row to now; 0 if no row was mapped.
+	 */
+	long getNanos() {
+		return firstRowAt < 0 ? 0 : System.nanoTime() - firstRowAt;
+	}
+
+}
@@ -1,12 +1,35 @@
 package com.github.gregb.database;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Function;
 
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 
+/**
+ * Builds WHERE clauses out of literal SQL fragments and bound values.
+ *
+ * Values added through {@link #equalTo(String, Object)}, {@link #in(String, Collection)} and
+ * {@link #any(String, Collection)} are never inlined into the SQL; they are rendered as named
+ * parameters and added to a {@link MapSqlParameterSource} by {@link #toSql(MapSqlParameterSource)}.
+ * IN-lists are padded up to the next power of two (repeating the last value), so that lists of
+ * different lengths share a small number of statement shapes and the database can reuse its plans.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
 public class Where {
 
-	private final List<String> clauses = new ArrayList<String>();
+	/**
+	 * IN-lists longer than this are bound as a single array parameter instead of being expanded.
+	 */
+	public static final int MAX_IN_LIST_BUCKET = 1024;
+
+	static final String PARAMETER_PREFIX = "where_";
+
+	private final List<Object> clauses = new ArrayList<Object>();
 	private final String joiner;
 
 	public Where(String joiner) {
@@ -21,6 +44,44 @@ public class Where {
 		return this;
 	}
 
+	/**
+	 * Adds nested conditions, which are rendered in parentheses.
+	 */
+	public Where with(Where... nested) {
+		for (final Where w : nested) {
+			this.clauses.add(w);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Adds <code>columnName = :param</code>, or <code>columnName IS NULL</code> for a null value.
+	 */
+	public Where equalTo(String columnName, Object value) {
+		this.clauses.add(new Bound(columnName, value == null ? null : new Object[] { value }, false));
+		return this;
+	}
+
+	/**
+	 * Adds <code>columnName IN (:p0, :p1, ...)</code>, padded to a power of two bucket size. Lists
+	 * longer than {@link #MAX_IN_LIST_BUCKET} are bound as one array, as in
+	 * {@link #any(String, Collection)}. An empty collection matches nothing.
+	 */
+	public Where in(String columnName, Collection<?> values) {
+		this.clauses.add(new Bound(columnName, values.toArray(), false));
+		return this;
+	}
+
+	/**
+	 * Adds <code>columnName = ANY(:param)</code>, with all values bound as a single array
+	 * parameter. The statement shape does not depend on the number of values at all.
+	 */
+	public Where any(String columnName, Collection<?> values) {
+		this.clauses.add(new Bound(columnName, values.toArray(), true));
+		return this;
+	}
+
 	public static Where and() {
 		return new Where(" AND ");
 	}
@@ -29,6 +90,11 @@ public class Where {
 		return new Where(" OR ");
 	}
 
+	/**
+	 * @deprecated inlines values as literals, which defeats statement caching and is open to
+	 *             injection. Use {@link #in(String, Collection)}.
+	 */
+	@Deprecated
 	public static <T> Where inCollection(String columnName, Iterable<T> items, Class<T> klass) {
 		final Where w = Where.or();
 
@@ -50,8 +116,143 @@ public class Where {
 		return w;
 	}
 
+	/**
+	 * Renders the clause, adding any bound values to the parameter source.
+	 *
+	 * @param parameterSource
+	 *            Receives the generated parameters. Names already present are not reused.
+	 * @return The SQL for the clause.
+	 */
+	public String toSql(MapSqlParameterSource parameterSource) {
+		return toSql(parameterSource, Function.identity());
+	}
+
+	/**
+	 * Renders the clause, passing each bound value through the converter before adding it to the
+	 * parameter source.
+	 */
+	public String toSql(MapSqlParameterSource parameterSource, Function<Object, Object> valueConverter) {
+		final StringBuilder sb = new StringBuilder();
+		render(sb, new Binder(parameterSource, valueConverter));
+		return sb.toString();
+	}
+
+	private void render(StringBuilder sb, Binder binder) {
+		final Iterator<Object> it = clauses.iterator();
+
+		while (it.hasNext()) {
+			final Object clause = it.next();
+
+			if (clause instanceof Where) {
+				sb.append("(");
+				((Where) clause).render(sb, binder);
+				sb.append(")");
+			} else if (clause instanceof Bound) {
+				((Bound) clause).render(sb, binder);
+			} else {
+				sb.append(clause);
+			}
+
+			if (it.hasNext()) {
+				sb.append(joiner);
+			}
+		}
+	}
+
+	/**
+	 * The smallest power of two which can hold the given number of values.
+	 */
+	static int bucketSize(int size) {
+		return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+	}
+
 	@Override
 	public String toString() {
-		return String.join(joiner, clauses);
+		return toSql(new MapSqlParameterSource());
+	}
+
+	private static class Bound {
+
+		private final String columnName;
+		private final Object[] values;
+		private final boolean asArray;
+
+		Bound(String columnName, Object[] values, boolean asArray) {
+			this.columnName = columnName;
+			this.values = values;
+			this.asArray = asArray;
+		}
+
+		void render(StringBuilder sb, Binder binder) {
+			if (values != null && values.length == 0) {
+				// nothing can match an empty list; keep the clause valid SQL
+				sb.append("1 = 0");
+				return;
+			}
+
+			sb.append(columnName);
+
+			if (values == null) {
+				sb.append(" IS NULL");
+				return;
+			}
+
+			if (asArray || values.length > MAX_IN_LIST_BUCKET) {
+				sb.append(" = ANY(:");
+				sb.append(binder.bind(values));
+				sb.append(")");
+				return;
+			}
+
+			if (values.length == 1) {
+				sb.append(" = :");
+				sb.append(binder.bind(values[0]));
+				return;
+			}
+
+			sb.append(" IN (");
+			String name = null;
+
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				name = binder.bind(values[i]);
+				sb.append(":");
+				sb.append(name);
+			}
+
+			// pad with the last parameter, duplicates in an IN-list don't change the result
+			final int bucket = bucketSize(values.length);
+			for (int i = values.length; i < bucket; i++) {
+				sb.append(", :");
+				sb.append(name);
+			}
+
+			sb.append(")");
+		}
+	}
+
+	private static class Binder {
+
+		private final MapSqlParameterSource parameterSource;
+		private final Function<Object, Object> valueConverter;
+		private int next;
+
+		Binder(MapSqlParameterSource parameterSource, Function<Object, Object> valueConverter) {
+			this.parameterSource = parameterSource;
+			this.valueConverter = valueConverter;
+		}
+
+		String bind(Object value) {
+			String name = PARAMETER_PREFIX + next++;
+
+			while (parameterSource.hasValue(name)) {
+				name = PARAMETER_PREFIX + next++;
+			}
+
+			parameterSource.addValue(name, valueConverter.apply(value));
+			return name;
+		}
 	}
 }
@@ -0,0 +1,14 @@
+package com.github.gregb.mapping;
+
+import java.util.function.Function;
+
+/**
+ * A compiled property getter, from the target object to the value; see
+ * {@link PropertyHelper#getAccessor()}. Named so it doesn't clash with Guava's Function.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+@FunctionalInterface
+public interface Accessor extends Function<Object, Object> {
+}
@@ -36,6 +36,10 @@ public class Converters {
 
 	private static final List<DateTimeFormatter> formatterParsers = new LinkedList<DateTimeFormatter>();
 
+	// the patterns whose text carries an offset
+	private static final DateTimeFormatter ISO_DATE_TIME = ISODateTimeFormat.dateTime();
+	private static final DateTimeFormatter ISO_DATE_TIME_NO_MILLIS = ISODateTimeFormat.dateTimeNoMillis();
+
 	/*
 	 * Possible patterns for parsing. Order is important!
 	 *
@@ -50,8 +54,8 @@ public class Converters {
 			formatterParsers.add(DateTimeFormat.forPattern(pattern));
 		}
 
-		formatterParsers.add(ISODateTimeFormat.dateTime());
-		formatterParsers.add(ISODateTimeFormat.dateTimeNoMillis());
+		formatterParsers.add(ISO_DATE_TIME);
+		formatterParsers.add(ISO_DATE_TIME_NO_MILLIS);
 
 		repository.put(Long.class, Integer.class, new LongToInteger());
 		repository.put(Integer.class, Long.class, new IntegerToLong());
@@ -125,21 +129,21 @@ public class Converters {
 
 	public static class LongIdToEnum<T extends Enum<T> & Identified<Long>> implements Function<Long, Enum<T>> {
 
-		private final Class<T> enumType;
+		private final IdentifiedEnumIndex<T> index;
 
 		public LongIdToEnum(final Class<T> enumType) {
 			assert enumType != null;
-			this.enumType = enumType;
+			this.index = IdentifiedEnumIndex.of(enumType);
 		}
 
 		@Override
 		public T apply(final Long id) {
 
 			assert id != null;
-			final T t = LongIdentifiedEnumMapper.lookup(enumType, id);
+			final T t = index.lookup(id.longValue());
 
 			if (t == null) {
-				throw new IllegalArgumentException(enumType + " has no member with id " + id);
+				throw new IllegalArgumentException(index.getType() + " has no member with id " + id);
 			}
 
 			return t;
@@ -148,21 +152,21 @@ public class Converters {
 
 	public static class IntegerIdToEnum<T extends Enum<T> & Identified<Integer>> implements Function<Integer, Enum<T>> {
 
-		private final Class<T> enumType;
+		private final IdentifiedEnumIndex<T> index;
 
 		public IntegerIdToEnum(final Class<T> enumType) {
 			assert enumType != null;
-			this.enumType = enumType;
+			this.index = IdentifiedEnumIndex.of(enumType);
 		}
 
 		@Override
 		public T apply(final Integer id) {
 
 			assert id != null;
-			final T t = IntegerIdentifiedEnumMapper.lookup(enumType, id);
+			final T t = index.lookup(id.longValue());
 
 			if (t == null) {
-				throw new IllegalArgumentException(enumType + " has no member with id " + id);
+				throw new IllegalArgumentException(index.getType() + " has no member with id " + id);
 			}
 
 			return t;
@@ -349,6 +353,11 @@ public class Converters {
 			for (final DateTimeFormatter formatter : formatterParsers) {
 				try {
 
+					// an explicit offset names the instant
+					if (formatter == ISO_DATE_TIME || formatter == ISO_DATE_TIME_NO_MILLIS) {
+						return formatter.parseDateTime(value).withZone(DateTimeZone.UTC);
+					}
+
 					// TODO: This assumes all times entered are local times.
 					// Determine if this is correct.
 					final DateTime parsed = formatter.parseDateTime(value).withZoneRetainFields(DateTimeZone.UTC);
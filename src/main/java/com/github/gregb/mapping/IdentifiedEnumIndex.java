@@ -0,0 +1,129 @@
+package com.github.gregb.mapping;
+
+import java.lang.reflect.Array;
+
+import com.github.gregb.util.LongIntHashMap;
+
+/**
+ * An immutable lookup from numeric ids to the constants of an {@link Identified} enum, built once
+ * per enum class from its constants.
+ *
+ * When the ids are compact (as they usually are), lookups index straight into an array; otherwise
+ * they go through a primitive open addressing map. Either way a lookup neither boxes nor
+ * allocates.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <E>
+ *            The enum type.
+ */
+public final class IdentifiedEnumIndex<E extends Enum<E>> {
+
+	/**
+	 * How much larger than the number of constants an id range may be and still get a dense
+	 * array.
+	 */
+	private static final int MAX_DENSE_SPREAD = 4;
+	private static final int MIN_DENSE_SIZE = 64;
+
+	private static final ClassValue<IdentifiedEnumIndex<?>> INDEXES = new ClassValue<IdentifiedEnumIndex<?>>() {
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		protected IdentifiedEnumIndex<?> computeValue(final Class<?> type) {
+			return new IdentifiedEnumIndex(type);
+		}
+	};
+
+	private final Class<E> type;
+	private final E[] constants;
+	private final long base;
+	private final E[] dense;
+	private final LongIntHashMap sparse;
+
+	/**
+	 * The index for an enum whose constants are {@link Identified} by integral numbers.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the class is not such an enum, or two constants share an id.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E extends Enum<E>> IdentifiedEnumIndex<E> of(final Class<E> type) {
+		return (IdentifiedEnumIndex<E>) INDEXES.get(type);
+	}
+
+	@SuppressWarnings("unchecked")
+	private IdentifiedEnumIndex(final Class<E> type) {
+		if (!type.isEnum() || !Identified.class.isAssignableFrom(type)) {
+			throw new IllegalArgumentException(type + " is not an Identified enum");
+		}
+
+		this.type = type;
+		this.constants = type.getEnumConstants();
+
+		final long[] ids = new long[constants.length];
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+
+		for (int i = 0; i < constants.length; i++) {
+			final Object id = ((Identified<?>) constants[i]).getId();
+
+			if (!(id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte)) {
+				throw new IllegalArgumentException(type + "." + constants[i] + " does not have an integral id: " + id);
+			}
+
+			ids[i] = ((Number) id).longValue();
+			min = Math.min(min, ids[i]);
+			max = Math.max(max, ids[i]);
+		}
+
+		final long range = constants.length == 0 ? 0 : max - min + 1;
+
+		if (range > 0 && range <= Math.max(MIN_DENSE_SIZE, (long) constants.length * MAX_DENSE_SPREAD)) {
+			this.base = min;
+			this.dense = (E[]) Array.newInstance(type, (int) range);
+			this.sparse = null;
+
+			for (int i = 0; i < constants.length; i++) {
+				final int slot = (int) (ids[i] - min);
+				if (dense[slot] != null) {
+					throw new IllegalArgumentException(type + " has more than one constant with id " + ids[i]);
+				}
+				dense[slot] = constants[i];
+			}
+		} else {
+			this.base = 0;
+			this.dense = null;
+			this.sparse = new LongIntHashMap(constants.length);
+
+			for (int i = 0; i < constants.length; i++) {
+				if (sparse.put(ids[i], constants[i].ordinal(), -1) != -1) {
+					throw new IllegalArgumentException(type + " has more than one constant with id " + ids[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The constant with the given id, or null if there is none.
+	 */
+	public E lookup(final long id) {
+		if (dense != null) {
+			final long slot = id - base;
+			return slot >= 0 && slot < dense.length ? dense[(int) slot] : null;
+		}
+
+		final int ordinal = sparse.get(id, -1);
+		return ordinal < 0 ? null : constants[ordinal];
+	}
+
+	public Class<E> getType() {
+		return type;
+	}
+
+	/**
+	 * Whether lookups index into an array rather than a hash map.
+	 */
+	public boolean isDense() {
+		return dense != null;
+	}
+}
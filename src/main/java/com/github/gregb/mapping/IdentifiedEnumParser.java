@@ -0,0 +1,206 @@
+package com.github.gregb.mapping;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Parses text into {@link Identified} constants by id. Parsers are stateless and thread safe, and
+ * there is one per class, shared by everything that asks for it through
+ * {@link #forType(Class, Class)}.
+ *
+ * Leading and trailing whitespace is ignored. Integral ids are read straight from the text and
+ * looked up through {@link IdentifiedEnumIndex} without boxing; String ids are only copied when
+ * there is whitespace to strip. Other id types go through a String converter from
+ * {@link Converters}.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ * @param <U>
+ *            The id type.
+ * @param <T>
+ *            The identified type, usually an enum.
+ */
+public final class IdentifiedEnumParser<U extends Comparable<?>, T extends Identified<U>> {
+
+	private static final ConcurrentMap<Class<?>, IdentifiedEnumParser<?, ?>> PARSERS = new ConcurrentHashMap<Class<?>, IdentifiedEnumParser<?, ?>>();
+
+	private final Class<U> identityClass;
+	private final Class<T> type;
+	private final Map<Object, T> byCode = new HashMap<Object, T>();
+	private final IdentifiedEnumIndex<?> index;
+	private final Function<Object, Object> converter;
+
+	/**
+	 * The shared parser for a type.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If ids of the given class can't be parsed from text, or the type is already known
+	 *             with a different id class.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <U extends Comparable<?>, T extends Identified<U>> IdentifiedEnumParser<U, T> forType(final Class<U> identityClass, final Class<T> type) {
+		IdentifiedEnumParser<?, ?> parser = PARSERS.get(type);
+
+		if (parser == null) {
+			// built outside the map, so a failure is thrown to the caller and nothing is cached
+			parser = new IdentifiedEnumParser<U, T>(identityClass, type);
+			final IdentifiedEnumParser<?, ?> existing = PARSERS.putIfAbsent(type, parser);
+			parser = existing == null ? parser : existing;
+		}
+
+		if (!parser.identityClass.equals(identityClass)) {
+			throw new IllegalArgumentException(type + " is identified by " + parser.identityClass + ", not " + identityClass);
+		}
+
+		return (IdentifiedEnumParser<U, T>) parser;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private IdentifiedEnumParser(final Class<U> identityClass, final Class<T> type) {
+		this.identityClass = identityClass;
+		this.type = type;
+
+		final boolean integral = identityClass.equals(Long.class) || identityClass.equals(Integer.class);
+
+		if (integral || identityClass.equals(String.class)) {
+			this.converter = null;
+		} else {
+			this.converter = Converters.getConverter(String.class, identityClass);
+			if (this.converter == null) {
+				throw new IllegalArgumentException("Can't map enums when no converter exists for String --> " + identityClass);
+			}
+		}
+
+		final T[] values;
+		try {
+			if (type.isEnum()) {
+				values = type.getEnumConstants();
+			} else {
+				final Method method = type.getMethod("values");
+				values = (T[]) method.invoke(null);
+			}
+		} catch (final ReflectiveOperationException | SecurityException | IllegalArgumentException e) {
+			throw new IllegalArgumentException("Error mapping enums by code for " + type, e);
+		}
+
+		for (final T t : values) {
+			byCode.put(t.getId(), t);
+		}
+
+		this.index = integral && type.isEnum() ? IdentifiedEnumIndex.of((Class) type) : null;
+	}
+
+	/**
+	 * The class of the ids of an {@link Identified} type, from the return type of its
+	 * <code>getId()</code>.
+	 */
+	public static Class<?> identityClassOf(final Class<?> type) {
+		try {
+			// the most specific return type wins over the bridge method's
+			return type.getMethod("getId").getReturnType();
+		} catch (final NoSuchMethodException e) {
+			throw new IllegalArgumentException(type + " has no getId()", e);
+		}
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public Class<U> getIdentityClass() {
+		return identityClass;
+	}
+
+	/**
+	 * Finds the constant whose id is written in the text.
+	 *
+	 * @param text
+	 *            The id, possibly surrounded by whitespace.
+	 * @return The matching constant, or null if the text is null, blank, or matches nothing.
+	 * @throws IllegalArgumentException
+	 *             If the text can't be read as an id at all (e.g. a malformed number).
+	 */
+	@SuppressWarnings("unchecked")
+	public T parse(final CharSequence text) {
+		if (text == null) {
+			return null;
+		}
+
+		int start = 0;
+		int end = text.length();
+
+		while (start < end && text.charAt(start) <= ' ') {
+			start++;
+		}
+
+		while (end > start && text.charAt(end - 1) <= ' ') {
+			end--;
+		}
+
+		if (start == end) {
+			return null;
+		}
+
+		if (identityClass.equals(Long.class) || identityClass.equals(Integer.class)) {
+			final long id = parseLong(text, start, end);
+
+			if (identityClass.equals(Integer.class) && (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE)) {
+				throw new NumberFormatException("Out of range for an int id: " + text);
+			}
+
+			if (index != null) {
+				return (T) index.lookup(id);
+			}
+
+			return byCode.get(identityClass.equals(Long.class) ? (Object) Long.valueOf(id) : (Object) Integer.valueOf((int) id));
+		}
+
+		final String trimmed = start == 0 && end == text.length() ? text.toString() : text.subSequence(start, end).toString();
+
+		if (converter == null) {
+			return byCode.get(trimmed);
+		}
+
+		return byCode.get(converter.apply(trimmed));
+	}
+
+	/**
+	 * Reads a signed decimal long from part of the text.
+	 */
+	static long parseLong(final CharSequence text, final int start, final int end) {
+		int i = start;
+		final boolean negative = text.charAt(i) == '-';
+
+		if (negative || text.charAt(i) == '+') {
+			i++;
+		}
+
+		if (i == end) {
+			throw new NumberFormatException("No digits in: " + text);
+		}
+
+		// accumulate negatively, so Long.MIN_VALUE fits
+		final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long result = 0;
+
+		for (; i < end; i++) {
+			final int digit = text.charAt(i) - '0';
+
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Not a number: " + text);
+			}
+
+			if (result < (limit + digit) / 10) {
+				throw new NumberFormatException("Out of range: " + text);
+			}
+
+			result = result * 10 - digit;
+		}
+
+		return negative ? result : -result;
+	}
+}
@@ -1,19 +1,27 @@
 package com.github.gregb.mapping;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-
+/**
+ * Finds enum constants by their {@link Identified} Integer id, through the enum's
+ * {@link IdentifiedEnumIndex}.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
 public class IntegerIdentifiedEnumMapper {
 
-	public static Table<Class<? extends Enum<?>>, Integer, Enum<?>> table = HashBasedTable.create();
-
-	@SuppressWarnings("unchecked")
+	/**
+	 * @deprecated lookups are built from the enum's own constants, so registering them is no
+	 *             longer necessary. Does nothing.
+	 */
+	@Deprecated
 	public static <E extends Enum<E> & Identified<Integer>> void add(final E e) {
-		table.put((Class<? extends Enum<?>>) e.getClass(), e.getId(), e);
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <E extends Enum<E> & Identified<Integer>> E lookup(final Class<E> klass, final Integer id) {
-		return (E) table.get(klass, id);
+		return id == null ? null : IdentifiedEnumIndex.of(klass).lookup(id.longValue());
+	}
+
+	public static <E extends Enum<E> & Identified<Integer>> E lookup(final Class<E> klass, final int id) {
+		return IdentifiedEnumIndex.of(klass).lookup(id);
 	}
-}
\ No newline at end of file
+}
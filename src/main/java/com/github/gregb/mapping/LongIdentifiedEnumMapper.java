@@ -1,19 +1,27 @@
 package com.github.gregb.mapping;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-
+/**
+ * Finds enum constants by their {@link Identified} Long id, through the enum's
+ * {@link IdentifiedEnumIndex}.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
 public class LongIdentifiedEnumMapper {
 
-	public static Table<Class<? extends Enum<?>>, Long, Enum<?>> table = HashBasedTable.create();
-
-	@SuppressWarnings("unchecked")
+	/**
+	 * @deprecated lookups are built from the enum's own constants, so registering them is no
+	 *             longer necessary. Does nothing.
+	 */
+	@Deprecated
 	public static <E extends Enum<E> & Identified<Long>> void add(final E e) {
-		table.put((Class<? extends Enum<?>>) e.getClass(), e.getId(), e);
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <E extends Enum<E> & Identified<Long>> E lookup(final Class<E> klass, final Long id) {
-		return (E) table.get(klass, id);
+		return id == null ? null : IdentifiedEnumIndex.of(klass).lookup(id.longValue());
+	}
+
+	public static <E extends Enum<E> & Identified<Long>> E lookup(final Class<E> klass, final long id) {
+		return IdentifiedEnumIndex.of(klass).lookup(id);
 	}
-}
\ No newline at end of file
+}
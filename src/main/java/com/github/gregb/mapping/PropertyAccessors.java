@@ -0,0 +1,154 @@
+package com.github.gregb.mapping;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.primitives.Primitives;
+
+/**
+ * Builds compiled accessors for properties. Public getters, setters and constructors are bound
+ * through {@link LambdaMetafactory}, so calls cost the same as a hand written lambda; fields and
+ * anything else fall back to adapted {@link MethodHandle}s, which still skip the access checks and
+ * argument arrays of reflective calls.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+class PropertyAccessors {
+
+	private static final Logger log = LoggerFactory.getLogger(PropertyAccessors.class);
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+	private static final MethodType SUPPLIER_TYPE = MethodType.methodType(Object.class);
+
+	private PropertyAccessors() {
+	}
+
+	static Accessor getter(final Method getter) throws Throwable {
+		final MethodHandle handle = LOOKUP.unreflect(getter);
+
+		if (canSpin(getter.getDeclaringClass(), getter.getModifiers())) {
+			try {
+				final MethodType instantiated = MethodType.methodType(Primitives.wrap(getter.getReturnType()), getter.getDeclaringClass());
+				final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Accessor.class), GETTER_TYPE, handle, instantiated);
+				return (Accessor) site.getTarget().invoke();
+			} catch (final Throwable e) {
+				log.debug("Falling back to method handle for {}: {}", getter, e.toString());
+			}
+		}
+
+		return fromHandle(handle);
+	}
+
+	static Accessor getter(final Field field) throws Throwable {
+		field.setAccessible(true);
+		return fromHandle(LOOKUP.unreflectGetter(field));
+	}
+
+	@SuppressWarnings("unchecked")
+	static BiConsumer<Object, Object> setter(final Method setter) throws Throwable {
+		final MethodHandle handle = LOOKUP.unreflect(setter);
+
+		if (canSpin(setter.getDeclaringClass(), setter.getModifiers()) && setter.getReturnType() == void.class) {
+			try {
+				final Class<?> parameter = Primitives.wrap(setter.getParameterTypes()[0]);
+				final MethodType instantiated = MethodType.methodType(void.class, setter.getDeclaringClass(), parameter);
+				final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept", MethodType.methodType(BiConsumer.class), SETTER_TYPE, handle, instantiated);
+				return (BiConsumer<Object, Object>) site.getTarget().invoke();
+			} catch (final Throwable e) {
+				log.debug("Falling back to method handle for {}: {}", setter, e.toString());
+			}
+		}
+
+		return toHandle(handle);
+	}
+
+	static BiConsumer<Object, Object> setter(final Field field) throws Throwable {
+		field.setAccessible(true);
+		return toHandle(LOOKUP.unreflectSetter(field));
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> Supplier<T> constructor(final Class<T> type) throws Throwable {
+		final Constructor<T> constructor = type.getDeclaredConstructor();
+		constructor.setAccessible(true);
+		final MethodHandle handle = LOOKUP.unreflectConstructor(constructor);
+
+		if (canSpin(type, constructor.getModifiers())) {
+			try {
+				final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class), SUPPLIER_TYPE, handle, MethodType.methodType(type));
+				return (Supplier<T>) site.getTarget().invoke();
+			} catch (final Throwable e) {
+				log.debug("Falling back to method handle for {}: {}", constructor, e.toString());
+			}
+		}
+
+		final MethodHandle adapted = handle.asType(SUPPLIER_TYPE);
+		return () -> {
+			try {
+				return (T) adapted.invokeExact();
+			} catch (final RuntimeException | Error e) {
+				throw e;
+			} catch (final Throwable e) {
+				throw new RuntimeException("Error instantiating " + type, e);
+			}
+		};
+	}
+
+	/**
+	 * Spun lambda classes live next to this class, so they can only call public members of public
+	 * classes that this class loader can see.
+	 */
+	private static boolean canSpin(final Class<?> declaringClass, final int modifiers) {
+		if (!Modifier.isPublic(modifiers) || !Modifier.isPublic(declaringClass.getModifiers())) {
+			return false;
+		}
+
+		try {
+			return Class.forName(declaringClass.getName(), false, PropertyAccessors.class.getClassLoader()) == declaringClass;
+		} catch (final ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static Accessor fromHandle(final MethodHandle handle) {
+		final MethodHandle adapted = handle.asType(GETTER_TYPE);
+		return target -> {
+			try {
+				return adapted.invokeExact(target);
+			} catch (final RuntimeException | Error e) {
+				throw e;
+			} catch (final Throwable e) {
+				throw new RuntimeException("Error invoking " + handle, e);
+			}
+		};
+	}
+
+	private static BiConsumer<Object, Object> toHandle(final MethodHandle handle) {
+		final MethodHandle adapted = handle.asType(SETTER_TYPE);
+		return (target, value) -> {
+			try {
+				adapted.invokeExact(target, value);
+			} catch (final RuntimeException | Error e) {
+				throw e;
+			} catch (final Throwable e) {
+				throw new RuntimeException("Error invoking " + handle, e);
+			}
+		};
+	}
+}
@@ -9,6 +9,8 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +31,9 @@ public class PropertyHelper {
 	private Field field;
 	private Method getter;
 	private Method setter;
+	private volatile Accessor accessor;
+	private volatile BiConsumer<Object, Object> mutator;
+	private volatile boolean mutatorResolved;
 	private final static Map<Class<?>, Map<String, PropertyHelper>> GLOBAL_PROPERTY_MAP = new HashMap<Class<?>, Map<String, PropertyHelper>>();
 
 	private PropertyHelper(final Field field) {
@@ -146,6 +151,76 @@ public class PropertyHelper {
 		}
 	}
 
+	/**
+	 * A compiled equivalent of {@link #getValue(Object)}, built on first use. Much cheaper than
+	 * reflection for repeated calls.
+	 *
+	 * @return The property's accessor.
+	 */
+	public Accessor getAccessor() {
+		Accessor a = accessor;
+
+		if (a == null) {
+			try {
+				if (getter != null) {
+					a = PropertyAccessors.getter(getter);
+				} else if (field != null) {
+					a = PropertyAccessors.getter(field);
+				} else {
+					throw new RuntimeException("Can't get value -- no field or getters available: " + this);
+				}
+			} catch (final RuntimeException e) {
+				throw e;
+			} catch (final Throwable e) {
+				throw new RuntimeException("Unable to build accessor for " + this, e);
+			}
+
+			accessor = a;
+		}
+
+		return a;
+	}
+
+	/**
+	 * A compiled equivalent of {@link #setValue(Object, Object)}, built on first use.
+	 *
+	 * @return A consumer of the target object and new value, or null for a read-only property.
+	 */
+	public BiConsumer<Object, Object> getMutator() {
+		if (!mutatorResolved) {
+			try {
+				if (setter != null) {
+					mutator = PropertyAccessors.setter(setter);
+				} else if (field != null && !Modifier.isFinal(field.getModifiers())) {
+					mutator = PropertyAccessors.setter(field);
+				}
+			} catch (final Throwable e) {
+				throw new RuntimeException("Unable to build mutator for " + this, e);
+			}
+
+			mutatorResolved = true;
+		}
+
+		return mutator;
+	}
+
+	/**
+	 * A compiled no-argument constructor for a class.
+	 *
+	 * @param klass
+	 *            The class to instantiate.
+	 * @return A supplier of new instances.
+	 * @throws RuntimeException
+	 *             If the class has no default constructor.
+	 */
+	public static <T> Supplier<T> getConstructor(final Class<T> klass) {
+		try {
+			return PropertyAccessors.constructor(klass);
+		} catch (final Throwable e) {
+			throw new RuntimeException("Unable to build constructor for " + klass + " (No default constructor?)", e);
+		}
+	}
+
 	/**
 	 * Get properties of the type of the parameter. Results are cached, so call
 	 * as often as you want.
@@ -0,0 +1,90 @@
+package com.github.gregb.mapping;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A property container holding its values in an array, with the names and types kept once in a
+ * shared {@link SlotSchema}. Values can be reached by slot index as well as by name; looking up
+ * the index once and reusing it avoids hashing the name for every row.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class SlotPropertyContainer implements PropertyContainer {
+
+	private final SlotSchema schema;
+	private final Object[] values;
+
+	public SlotPropertyContainer(final SlotSchema schema) {
+		this.schema = schema;
+		this.values = new Object[schema.size()];
+	}
+
+	public SlotSchema getSchema() {
+		return schema;
+	}
+
+	public Object get(final int slot) {
+		return values[slot];
+	}
+
+	public void set(final int slot, final Object newValue) {
+		values[slot] = newValue;
+	}
+
+	/**
+	 * @return The value, or null if the schema has no such property.
+	 */
+	@Override
+	public Object get(final String propertyName) {
+		final int slot = schema.indexOf(propertyName);
+		return slot < 0 ? null : values[slot];
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If the schema has no such property; the set of properties is fixed.
+	 */
+	@Override
+	public void set(final String propertyName, final Object newValue) {
+		final int slot = schema.indexOf(propertyName);
+
+		if (slot < 0) {
+			throw new IllegalArgumentException("No property " + propertyName + " in " + schema);
+		}
+
+		values[slot] = newValue;
+	}
+
+	@Override
+	public Collection<String> getPropertyNames() {
+		return schema.getNames();
+	}
+
+	@Override
+	public Class<?> getPropertyType(final String propertyName) {
+		final int slot = schema.indexOf(propertyName);
+		return slot < 0 ? null : schema.getType(slot);
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return schema.getNames().iterator();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("{");
+
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(schema.getName(i)).append('=').append(values[i]);
+		}
+
+		return sb.append('}').toString();
+	}
+
+}
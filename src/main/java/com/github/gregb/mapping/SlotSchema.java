@@ -0,0 +1,77 @@
+package com.github.gregb.mapping;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The property names and types of a {@link SlotPropertyContainer}, each at a fixed slot index.
+ * One schema is shared by every container of the same shape, e.g. every row of a query.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public final class SlotSchema {
+
+	private final String[] names;
+	private final Class<?>[] types;
+	private final List<String> nameList;
+	private final Map<String, Integer> slots;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If the arrays differ in length, or a name repeats.
+	 */
+	public SlotSchema(final String[] names, final Class<?>[] types) {
+		if (names.length != types.length) {
+			throw new IllegalArgumentException("Got " + names.length + " names but " + types.length + " types");
+		}
+
+		this.names = names.clone();
+		this.types = types.clone();
+		this.nameList = Collections.unmodifiableList(Arrays.asList(this.names));
+		this.slots = new HashMap<String, Integer>(names.length * 2);
+
+		for (int i = 0; i < names.length; i++) {
+			if (slots.put(names[i], i) != null) {
+				throw new IllegalArgumentException("Property " + names[i] + " appears more than once");
+			}
+		}
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @return The slot of the property, or -1 if there is none.
+	 */
+	public int indexOf(final String name) {
+		final Integer slot = slots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	public String getName(final int slot) {
+		return names[slot];
+	}
+
+	public Class<?> getType(final int slot) {
+		return types[slot];
+	}
+
+	public List<String> getNames() {
+		return nameList;
+	}
+
+	public SlotPropertyContainer newContainer() {
+		return new SlotPropertyContainer(this);
+	}
+
+	@Override
+	public String toString() {
+		return nameList.toString();
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.github.gregb.mapping;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import com.google.common.primitives.Primitives;
+
+/**
+ * How a property's values can be stored compactly, outside of their objects. Integral numbers,
+ * booleans and dates all fit in a long; strings and enums are better kept as codes into a
+ * dictionary.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public enum ValueKind {
+
+	/**
+	 * Long, Integer, Short or Byte, as the number.
+	 */
+	LONG,
+
+	/**
+	 * Double or Float.
+	 */
+	DOUBLE,
+
+	/**
+	 * Boolean, as 1 or 0.
+	 */
+	BOOLEAN,
+
+	/**
+	 * Joda LocalDate, as days since 1970-01-01.
+	 */
+	LOCAL_DATE,
+
+	/**
+	 * Joda DateTime, as milliseconds since the epoch. The time zone is not kept; values come back
+	 * in the default zone.
+	 */
+	DATE_TIME,
+
+	STRING,
+
+	ENUM,
+
+	/**
+	 * Anything else, kept as is.
+	 */
+	OBJECT;
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	public static ValueKind of(final Class<?> type) {
+		final Class<?> wrapped = Primitives.wrap(type);
+
+		if (wrapped == Long.class || wrapped == Integer.class || wrapped == Short.class || wrapped == Byte.class) {
+			return LONG;
+		}
+		if (wrapped == Double.class || wrapped == Float.class) {
+			return DOUBLE;
+		}
+		if (wrapped == Boolean.class) {
+			return BOOLEAN;
+		}
+		if (wrapped == LocalDate.class) {
+			return LOCAL_DATE;
+		}
+		if (wrapped == DateTime.class) {
+			return DATE_TIME;
+		}
+		if (wrapped == String.class) {
+			return STRING;
+		}
+		if (wrapped.isEnum()) {
+			return ENUM;
+		}
+		return OBJECT;
+	}
+
+	/**
+	 * Whether values of this kind are stored with {@link #toLong(Object)}.
+	 */
+	public boolean isLong() {
+		return this == LONG || this == BOOLEAN || this == LOCAL_DATE || this == DATE_TIME;
+	}
+
+	/**
+	 * Encodes a non null value of a {@link #isLong()} kind.
+	 */
+	public long toLong(final Object value) {
+		switch (this) {
+		case LONG:
+			return ((Number) value).longValue();
+		case BOOLEAN:
+			return ((Boolean) value) ? 1 : 0;
+		case LOCAL_DATE:
+			return Math.floorDiv(((LocalDate) value).toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis(), MILLIS_PER_DAY);
+		case DATE_TIME:
+			return ((DateTime) value).getMillis();
+		default:
+			throw new IllegalStateException(this + " values are not stored as longs");
+		}
+	}
+
+	/**
+	 * Decodes a value written by {@link #toLong(Object)}.
+	 *
+	 * @param type
+	 *            The property type, which picks the number class for {@link #LONG}.
+	 */
+	public Object fromLong(final long raw, final Class<?> type) {
+		switch (this) {
+		case LONG:
+			final Class<?> wrapped = Primitives.wrap(type);
+			if (wrapped == Integer.class) {
+				return (int) raw;
+			}
+			if (wrapped == Short.class) {
+				return (short) raw;
+			}
+			if (wrapped == Byte.class) {
+				return (byte) raw;
+			}
+			return raw;
+		case BOOLEAN:
+			return raw != 0;
+		case LOCAL_DATE:
+			return new LocalDate(raw * MILLIS_PER_DAY, DateTimeZone.UTC);
+		case DATE_TIME:
+			return new DateTime(raw);
+		default:
+			throw new IllegalStateException(this + " values are not stored as longs");
+		}
+	}
+
+	public double toDouble(final Object value) {
+		return ((Number) value).doubleValue();
+	}
+
+	public Object fromDouble(final double raw, final Class<?> type) {
+		return Primitives.wrap(type) == Float.class ? (Object) (float) raw : (Object) raw;
+	}
+
+}
@@ -1,30 +1,91 @@
 package com.github.gregb.util;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 
+/**
+ * Loads two column CSV data into a {@link BiMap}, first column to second.
+ */
 public class CSVBiMapper {
 
+	private static final CsvReader READER = new CsvReader();
+
+	/**
+	 * @throws FileNotFoundException
+	 *             If there is no such file, as before reading went through {@link Path}.
+	 */
 	public static BiMap<String, String> map(String file) throws FileNotFoundException, IOException {
-		return map(new FileInputStream(file));
+		try {
+			return map(Paths.get(file));
+		} catch (final NoSuchFileException e) {
+			final FileNotFoundException notFound = new FileNotFoundException(file);
+			notFound.initCause(e);
+			throw notFound;
+		}
 	}
 
+	public static BiMap<String, String> map(Path file) throws IOException {
+		final BiMap<String, String> map = HashBiMap.create();
+		READER.read(file, putInto(map));
+		return map;
+	}
+
+	/**
+	 * Reads the stream to the end and closes it.
+	 */
 	public static BiMap<String, String> map(InputStream is) throws IOException {
 		final BiMap<String, String> map = HashBiMap.create();
 
-		final BufferedReader br = new BufferedReader(new InputStreamReader(is));
+		try (InputStream in = is) {
+			READER.read(in, putInto(map));
+		}
+
+		return map;
+	}
+
+	/**
+	 * Parses a large file on several threads, then fills the map in file order. The file must not
+	 * have line breaks inside quoted fields.
+	 *
+	 * @param parallelism
+	 *            The number of ranges to read at once; less than 1 reads the file as one range.
+	 */
+	public static BiMap<String, String> mapParallel(Path file, int parallelism) throws IOException {
+		final int parts = Math.max(1, parallelism);
+		final List<List<String[]>> ranges = new ArrayList<List<String[]>>(parts);
+		for (int i = 0; i < parts; i++) {
+			ranges.add(new ArrayList<String[]>());
+		}
 
-		br.lines().map(s -> s.split(",")).forEach(arr -> map.put(arr[0], arr[1]));
+		READER.readParallel(file, parts, i -> ranges.get(i)::add);
+
+		final BiMap<String, String> map = HashBiMap.create();
+		final Consumer<String[]> put = putInto(map);
+
+		for (final List<String[]> rows : ranges) {
+			rows.forEach(put);
+		}
 
-		is.close();
 		return map;
 	}
 
+	private static Consumer<String[]> putInto(final BiMap<String, String> map) {
+		return row -> {
+			if (row.length < 2) {
+				throw new IllegalArgumentException("Expected two columns, got: " + String.join(",", row));
+			}
+			map.put(row[0], row[1]);
+		};
+	}
+
 }
@@ -1,12 +1,44 @@
 package com.github.gregb.util;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 
 import org.springframework.core.convert.converter.Converter;
 
+import com.google.common.primitives.Longs;
+
+/**
+ * A list of longs written as text, e.g. from a request parameter.
+ *
+ * Two forms are understood:
+ * <ul>
+ * <li>Comma separated decimals, with optional whitespace and inclusive ranges:
+ * <code>1, 5, 10-20, -3</code>. Empty items are rejected, except trailing ones.</li>
+ * <li>A compact form for very large lists: {@link #COMPACT_PREFIX} followed by the unpadded
+ * base64url of the zigzag varint deltas between consecutive values. Sorted ids compress to about
+ * one or two bytes each.</li>
+ * </ul>
+ * Parsing scans the text directly into a long[], without splitting or boxing.
+ */
 public class CommaSeparatedLongs {
 
+	public static final char COMPACT_PREFIX = '~';
+
+	/**
+	 * The largest number of values a single range may expand to.
+	 */
+	public static final int MAX_RANGE = 10_000;
+
+	/**
+	 * The largest number of values a list may hold, ranges included: plenty for a request
+	 * parameter, while keeping what a short one can make us allocate under a megabyte.
+	 */
+	public static final int MAX_VALUES = 100_000;
+
 	public static class FromStringConverter implements Converter<String, CommaSeparatedLongs> {
 		@Override
 		public CommaSeparatedLongs convert(final String source) {
@@ -14,21 +46,290 @@ public class CommaSeparatedLongs {
 		}
 	};
 
+	/**
+	 * The values, as a mutable list of its own; changes are not seen by {@link #getValues()}.
+	 * Values are boxed as they are read, and all of them only once the list is changed.
+	 */
 	public List<Long> longs;
 
+	private final long[] values;
+
 	public CommaSeparatedLongs(final String s) {
-		this.longs = parse(s);
+		this(s.length() > 0 && s.charAt(0) == COMPACT_PREFIX ? decodeCompact(s) : parseArray(s));
+	}
+
+	public CommaSeparatedLongs(final long[] values) {
+		this.values = values;
+		this.longs = new CopyOnWriteLongs(values);
 	}
 
+	/**
+	 * Reads through to the array until the first change, then works on a copy.
+	 */
+	private static class CopyOnWriteLongs extends AbstractList<Long> {
+
+		private List<Long> list;
+
+		CopyOnWriteLongs(final long[] values) {
+			this.list = Longs.asList(values);
+		}
+
+		private List<Long> copy() {
+			if (!(list instanceof ArrayList)) {
+				list = new ArrayList<Long>(list);
+			}
+			return list;
+		}
+
+		@Override
+		public Long get(final int index) {
+			return list.get(index);
+		}
+
+		@Override
+		public int size() {
+			return list.size();
+		}
+
+		@Override
+		public Long set(final int index, final Long element) {
+			return copy().set(index, element);
+		}
+
+		@Override
+		public void add(final int index, final Long element) {
+			modCount++;
+			copy().add(index, element);
+		}
+
+		@Override
+		public Long remove(final int index) {
+			modCount++;
+			return copy().remove(index);
+		}
+	}
+
+	public long[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @return A mutable list of the values.
+	 */
 	public static List<Long> parse(final String s) {
-		final String[] strings = s.split(",");
+		return new ArrayList<Long>(Longs.asList(parseArray(s)));
+	}
+
+	/**
+	 * Parses comma separated longs and ranges.
+	 *
+	 * @throws NumberFormatException
+	 *             If an item is empty, or not a number or range.
+	 * @throws IllegalArgumentException
+	 *             If a range is descending or longer than {@link #MAX_RANGE}, or there are more
+	 *             than {@link #MAX_VALUES} values.
+	 */
+	public static long[] parseArray(final CharSequence s) {
+		final int length = s.length();
+		long[] result = new long[Math.min(MAX_VALUES, Math.max(4, length / 4))];
+		int size = 0;
+		int pos = 0;
+
+		while (pos < length) {
+			pos = skipWhitespace(s, pos, length);
+
+			if (pos == length || s.charAt(pos) == ',') {
+				// only trailing empty items are allowed, as with String.split
+				if (!onlyCommas(s, pos, length)) {
+					throw new NumberFormatException("Empty item at position " + pos + " in: " + s);
+				}
+				break;
+			}
+
+			final int startOfNumber = pos;
+			pos = endOfNumber(s, pos, length);
+			final long first = parseLong(s, startOfNumber, pos);
+			long last = first;
+
+			pos = skipWhitespace(s, pos, length);
+
+			if (pos < length && s.charAt(pos) == '-') {
+				pos = skipWhitespace(s, pos + 1, length);
+				final int startOfLast = pos;
+				pos = endOfNumber(s, pos, length);
+				last = parseLong(s, startOfLast, pos);
+				pos = skipWhitespace(s, pos, length);
+
+				if (last < first || last - first >= MAX_RANGE) {
+					throw new IllegalArgumentException("Invalid range " + first + "-" + last + " in: " + s);
+				}
+			}
+
+			if (pos < length && s.charAt(pos) != ',') {
+				throw new NumberFormatException("Unexpected '" + s.charAt(pos) + "' in: " + s);
+			}
+			pos++;
+
+			// at most MAX_RANGE, so this fits
+			final int count = (int) (last - first + 1);
+			if (count > MAX_VALUES - size) {
+				throw new IllegalArgumentException("More than " + MAX_VALUES + " values in: " + s);
+			}
+			if (size + count > result.length) {
+				result = Arrays.copyOf(result, Math.max(Math.min(MAX_VALUES, result.length * 2), size + count));
+			}
+
+			for (long v = first; v <= last && v >= first; v++) {
+				result[size++] = v;
+			}
+		}
+
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
 
-		final List<Long> list = new ArrayList<Long>(strings.length);
-		for (final String item : strings) {
-			list.add(Long.parseLong(item));
+	private static boolean onlyCommas(final CharSequence s, int pos, final int length) {
+		while (pos < length && (s.charAt(pos) == ',' || Character.isWhitespace(s.charAt(pos)))) {
+			pos++;
 		}
+		return pos == length;
+	}
+
+	private static int skipWhitespace(final CharSequence s, int pos, final int length) {
+		while (pos < length && Character.isWhitespace(s.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int endOfNumber(final CharSequence s, int pos, final int length) {
+		if (pos < length && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+			pos++;
+		}
+		while (pos < length && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static long parseLong(final CharSequence s, final int start, final int end) {
+		int i = start;
+		final boolean negative = i < end && s.charAt(i) == '-';
+
+		if (i < end && (negative || s.charAt(i) == '+')) {
+			i++;
+		}
+
+		if (i == end) {
+			throw new NumberFormatException("Expected a number at position " + start + " in: " + s);
+		}
+
+		// accumulate negatively, so Long.MIN_VALUE fits
+		final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long result = 0;
+
+		for (; i < end; i++) {
+			final int digit = s.charAt(i) - '0';
+
+			if (result < (limit + digit) / 10) {
+				throw new NumberFormatException("Out of range at position " + start + " in: " + s);
+			}
+
+			result = result * 10 - digit;
+		}
+
+		return negative ? result : -result;
+	}
+
+	/**
+	 * Writes values as comma separated decimals, collapsing runs of three or more consecutive
+	 * values into ranges. The result parses back with {@link #parseArray(CharSequence)}.
+	 */
+	public static String format(final long[] values) {
+		final StringBuilder sb = new StringBuilder(values.length * 4);
+		int i = 0;
+
+		while (i < values.length) {
+			int run = i;
+			while (run + 1 < values.length && values[run] != Long.MAX_VALUE && values[run + 1] == values[run] + 1) {
+				run++;
+			}
+
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+
+			sb.append(values[i]);
+
+			if (run - i >= 2) {
+				sb.append('-');
+				sb.append(values[run]);
+				i = run + 1;
+			} else {
+				i++;
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Writes values in the compact form, starting with {@link #COMPACT_PREFIX}. Order is kept.
+	 */
+	public static String encodeCompact(final long[] values) {
+		int size = Varints.sizeUnsigned(values.length);
+		long previous = 0;
+		for (final long v : values) {
+			size += Varints.sizeSigned(v - previous);
+			previous = v;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+		Varints.writeUnsigned(buffer, values.length);
+		previous = 0;
+		for (final long v : values) {
+			Varints.writeSigned(buffer, v - previous);
+			previous = v;
+		}
+
+		return COMPACT_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+	}
+
+	/**
+	 * Reads values written by {@link #encodeCompact(long[])}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the text is not in the compact form, or has more than {@link #MAX_VALUES}
+	 *             values.
+	 */
+	public static long[] decodeCompact(final String s) {
+		if (s.isEmpty() || s.charAt(0) != COMPACT_PREFIX) {
+			throw new IllegalArgumentException("Not a compact long list: " + s);
+		}
+
+		final ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(s.substring(1)));
+		final long count = Varints.readUnsigned(buffer);
+
+		// every value takes at least one byte
+		if (count > buffer.remaining()) {
+			throw new IllegalArgumentException("Truncated compact long list: " + s);
+		}
+		if (count > MAX_VALUES) {
+			throw new IllegalArgumentException("More than " + MAX_VALUES + " values in compact long list");
+		}
+
+		final long[] values = new long[(int) count];
+		long previous = 0;
+		for (int i = 0; i < values.length; i++) {
+			previous += Varints.readSigned(buffer);
+			values[i] = previous;
+		}
+
+		return values;
+	}
 
-		return list;
+	@Override
+	public String toString() {
+		return format(values);
 	}
 
 }
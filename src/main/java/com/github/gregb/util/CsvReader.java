@@ -0,0 +1,389 @@
+package com.github.gregb.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * A CSV reader which scans bytes for delimiters rather than splitting lines with regular
+ * expressions. Files are memory mapped; streams are read through a reused buffer.
+ *
+ * Fields may be quoted with <code>"</code>, in which case they may contain delimiters, line breaks
+ * and doubled quotes (<code>""</code>). Lines may end in <code>\n</code> or <code>\r\n</code>.
+ * Blank lines and a leading UTF-8 byte order mark are skipped.
+ *
+ * Instances hold no state between calls and can be shared.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class CsvReader {
+
+	private static final byte QUOTE = '"';
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	// mapped windows are kept well under the 2GB limit of a ByteBuffer
+	private static final long WINDOW = 1L << 30;
+	private static final int STREAM_BUFFER = 1 << 16;
+
+	private final byte delimiter;
+	private final Charset charset;
+
+	public CsvReader() {
+		this(',', StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param delimiter
+	 *            The field separator; must be a single byte character.
+	 * @param charset
+	 *            The encoding of the data; must encode the delimiter, quotes and line breaks as
+	 *            single ASCII bytes, as UTF-8 and the ISO-8859 family do.
+	 */
+	public CsvReader(final char delimiter, final Charset charset) {
+		if (delimiter > 0x7f || delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+			throw new IllegalArgumentException("Unsupported delimiter: " + delimiter);
+		}
+
+		this.delimiter = (byte) delimiter;
+		this.charset = charset;
+	}
+
+	/**
+	 * Reads every row of a file, memory mapping it.
+	 *
+	 * @param consumer
+	 *            Receives the fields of each row. The array is not reused and may be kept.
+	 * @return The number of rows read.
+	 */
+	public long read(final Path file, final Consumer<String[]> consumer) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return read(channel, 0, channel.size(), true, consumer);
+		}
+	}
+
+	/**
+	 * Reads every row of a stream. The stream is not closed.
+	 *
+	 * @return The number of rows read.
+	 */
+	public long read(final InputStream is, final Consumer<String[]> consumer) throws IOException {
+		final Parser parser = new Parser(consumer);
+
+		byte[] buffer = new byte[STREAM_BUFFER];
+		int filled = 0;
+		boolean first = true;
+
+		while (true) {
+			if (filled == buffer.length) {
+				// a single row larger than the buffer
+				final byte[] bigger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, bigger, 0, filled);
+				buffer = bigger;
+			}
+
+			final int read = is.read(buffer, filled, buffer.length - filled);
+			final boolean eof = read < 0;
+			if (!eof) {
+				filled += read;
+			}
+
+			int start = 0;
+			if (first && (filled >= 3 || eof)) {
+				start = bomLength(ByteBuffer.wrap(buffer, 0, filled), 0, filled);
+				first = false;
+			} else if (first) {
+				continue;
+			}
+
+			final int consumed = parser.parse(ByteBuffer.wrap(buffer), start, filled, eof);
+
+			if (eof) {
+				return parser.rows;
+			}
+
+			System.arraycopy(buffer, consumed, buffer, 0, filled - consumed);
+			filled -= consumed;
+		}
+	}
+
+	/**
+	 * Reads a file in parallel, splitting it into ranges at line breaks and parsing each range on
+	 * its own thread. Rows within a range arrive in file order; ranges run concurrently.
+	 *
+	 * Only for files with no line breaks inside quoted fields, since a range boundary can't tell
+	 * whether a line break is quoted.
+	 *
+	 * @param parallelism
+	 *            The number of ranges to split the file into.
+	 * @param consumerForRange
+	 *            Called once per range, in order, to get the consumer for that range's rows.
+	 * @return The number of rows read.
+	 */
+	public long readParallel(final Path file, final int parallelism, final IntFunction<Consumer<String[]>> consumerForRange) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final long[] bounds = splitAtLines(channel, size, Math.max(1, parallelism));
+			final AtomicLong rows = new AtomicLong();
+
+			final List<Consumer<String[]>> consumers = new ArrayList<Consumer<String[]>>(bounds.length - 1);
+			for (int i = 0; i < bounds.length - 1; i++) {
+				consumers.add(consumerForRange.apply(i));
+			}
+
+			IntStream.range(0, bounds.length - 1).parallel().forEach(i -> {
+				try {
+					rows.addAndGet(read(channel, bounds[i], bounds[i + 1], i == 0, consumers.get(i)));
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+
+			return rows.get();
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static long[] splitAtLines(final FileChannel channel, final long size, final int parts) throws IOException {
+		final long[] bounds = new long[parts + 1];
+		final ByteBuffer probe = ByteBuffer.allocate(4096);
+		bounds[parts] = size;
+
+		for (int i = 1; i < parts; i++) {
+			long pos = Math.max(bounds[i - 1], size * i / parts);
+
+			// move forward to just after the next line break
+			search: while (pos < size) {
+				probe.clear();
+				final int read = channel.read(probe, pos);
+				if (read <= 0) {
+					pos = size;
+					break;
+				}
+
+				for (int j = 0; j < read; j++) {
+					if (probe.get(j) == LF) {
+						pos += j + 1;
+						break search;
+					}
+				}
+
+				pos += read;
+			}
+
+			bounds[i] = Math.min(pos, size);
+		}
+
+		return bounds;
+	}
+
+	private long read(final FileChannel channel, final long from, final long to, final boolean atStart, final Consumer<String[]> consumer) throws IOException {
+		final Parser parser = new Parser(consumer);
+		long pos = from;
+		boolean first = atStart;
+
+		while (pos < to) {
+			final long length = Math.min(WINDOW, to - pos);
+			final boolean last = pos + length == to;
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+
+			final int start = first ? bomLength(buffer, 0, (int) length) : 0;
+			first = false;
+
+			final int consumed = parser.parse(buffer, start, (int) length, last);
+
+			if (!last && consumed == 0) {
+				throw new IOException("Row at offset " + pos + " is larger than " + WINDOW + " bytes");
+			}
+
+			pos += last ? length : consumed;
+		}
+
+		return parser.rows;
+	}
+
+	private static int bomLength(final ByteBuffer buffer, final int start, final int end) {
+		if (end - start >= 3 && buffer.get(start) == (byte) 0xEF && buffer.get(start + 1) == (byte) 0xBB && buffer.get(start + 2) == (byte) 0xBF) {
+			return start + 3;
+		}
+		return start;
+	}
+
+	/**
+	 * Parses rows out of byte ranges, keeping a scratch buffer and field list between calls.
+	 */
+	private class Parser {
+
+		private final Consumer<String[]> consumer;
+		private final List<String> fields = new ArrayList<String>();
+		private byte[] scratch = new byte[256];
+		long rows;
+
+		Parser(final Consumer<String[]> consumer) {
+			this.consumer = consumer;
+		}
+
+		/**
+		 * Parses the complete rows between start and end.
+		 *
+		 * @param eof
+		 *            Whether the data ends at <code>end</code>; if not, a trailing partial row is
+		 *            left for the next call.
+		 * @return The offset just after the last complete row.
+		 */
+		int parse(final ByteBuffer buffer, final int start, final int end, final boolean eof) {
+			int rowStart = start;
+			int pos = start;
+
+			fields.clear();
+
+			while (pos < end) {
+				final byte b = buffer.get(pos);
+
+				if (b == QUOTE) {
+					// find the closing quote, skipping doubled quotes
+					int close = pos + 1;
+					int length = 0;
+
+					while (true) {
+						if (close >= end) {
+							if (!eof) {
+								fields.clear();
+								return rowStart;
+							}
+							throw new IllegalArgumentException("Unterminated quoted field starting at byte " + pos);
+						}
+
+						final byte c = buffer.get(close);
+						if (c == QUOTE) {
+							if (close + 1 < end && buffer.get(close + 1) == QUOTE) {
+								put(length++, QUOTE);
+								close += 2;
+								continue;
+							}
+							if (close + 1 >= end && !eof) {
+								// can't tell yet whether the quote is doubled
+								fields.clear();
+								return rowStart;
+							}
+							break;
+						}
+
+						put(length++, c);
+						close++;
+					}
+
+					fields.add(new String(scratch, 0, length, charset));
+					pos = close + 1;
+
+					// anything between the closing quote and the delimiter is ignored
+					while (pos < end && buffer.get(pos) != delimiter && buffer.get(pos) != LF) {
+						pos++;
+					}
+				} else {
+					int fieldEnd = pos;
+					while (fieldEnd < end) {
+						final byte c = buffer.get(fieldEnd);
+						if (c == delimiter || c == LF) {
+							break;
+						}
+						fieldEnd++;
+					}
+
+					if (fieldEnd == end && !eof) {
+						fields.clear();
+						return rowStart;
+					}
+
+					int trimmedEnd = fieldEnd;
+					if (trimmedEnd > pos && buffer.get(trimmedEnd - 1) == CR && (trimmedEnd == end || buffer.get(trimmedEnd) == LF)) {
+						trimmedEnd--;
+					}
+
+					fields.add(decode(buffer, pos, trimmedEnd));
+					pos = fieldEnd;
+				}
+
+				if (pos >= end) {
+					break;
+				}
+
+				if (buffer.get(pos) == delimiter) {
+					pos++;
+					if (pos == end && eof) {
+						// trailing delimiter at the very end: one more empty field
+						fields.add("");
+					}
+					continue;
+				}
+
+				// line break
+				pos++;
+				emit();
+				rowStart = pos;
+			}
+
+			if (eof) {
+				emit();
+				return end;
+			}
+
+			fields.clear();
+			return rowStart;
+		}
+
+		private void emit() {
+			// skip blank lines
+			if (fields.size() == 1 && fields.get(0).isEmpty() || fields.isEmpty()) {
+				fields.clear();
+				return;
+			}
+
+			consumer.accept(fields.toArray(new String[fields.size()]));
+			fields.clear();
+			rows++;
+		}
+
+		private String decode(final ByteBuffer buffer, final int from, final int to) {
+			final int length = to - from;
+
+			if (buffer.hasArray()) {
+				return new String(buffer.array(), buffer.arrayOffset() + from, length, charset);
+			}
+
+			if (scratch.length < length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+
+			for (int i = 0; i < length; i++) {
+				scratch[i] = buffer.get(from + i);
+			}
+
+			return new String(scratch, 0, length, charset);
+		}
+
+		private void put(final int index, final byte b) {
+			if (index == scratch.length) {
+				final byte[] bigger = new byte[scratch.length * 2];
+				System.arraycopy(scratch, 0, bigger, 0, scratch.length);
+				scratch = bigger;
+			}
+			scratch[index] = b;
+		}
+	}
+}
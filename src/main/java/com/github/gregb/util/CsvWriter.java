@@ -0,0 +1,102 @@
+package com.github.gregb.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes CSV a field at a time, in the dialect {@link CsvReader} reads: fields containing the
+ * delimiter, quotes or line breaks are quoted, with quotes doubled. Rows end in <code>\n</code>.
+ *
+ * Nothing is buffered here; wrap the target in a {@link java.io.BufferedWriter} when it isn't
+ * buffered already.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class CsvWriter implements Flushable, Closeable {
+
+	private final Writer out;
+	private final char delimiter;
+	private boolean atRowStart = true;
+
+	public CsvWriter(final Writer out) {
+		this(out, ',');
+	}
+
+	public CsvWriter(final Writer out, final char delimiter) {
+		if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+			throw new IllegalArgumentException("Unsupported delimiter: " + delimiter);
+		}
+
+		this.out = out;
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Writes the next field of the current row. Null is written as an empty field.
+	 */
+	public CsvWriter field(final CharSequence value) throws IOException {
+		if (!atRowStart) {
+			out.write(delimiter);
+		}
+		atRowStart = false;
+
+		if (value == null) {
+			return this;
+		}
+
+		final int length = value.length();
+		boolean quote = false;
+
+		for (int i = 0; i < length && !quote; i++) {
+			final char c = value.charAt(i);
+			quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+		}
+
+		if (!quote) {
+			out.append(value);
+			return this;
+		}
+
+		out.write('"');
+		int from = 0;
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) == '"') {
+				// write up to and including the quote, then the quote again
+				out.append(value, from, i + 1);
+				out.write('"');
+				from = i + 1;
+			}
+		}
+		out.append(value, from, length);
+		out.write('"');
+
+		return this;
+	}
+
+	public CsvWriter row(final CharSequence... values) throws IOException {
+		for (final CharSequence value : values) {
+			field(value);
+		}
+		return endRow();
+	}
+
+	public CsvWriter endRow() throws IOException {
+		out.write('\n');
+		atRowStart = true;
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
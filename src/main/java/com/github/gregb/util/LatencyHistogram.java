@@ -0,0 +1,110 @@
+package com.github.gregb.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock free histogram of non negative durations, for percentiles of latencies
+ * recorded from many threads.
+ *
+ * Values are grouped in log-linear buckets: exact below 16, then 16 buckets per power of two, so a
+ * reported percentile is within 1/16 (6.25%) of the recorded value, over the whole range of a
+ * long. Recording is one atomic increment; reading walks all buckets, and may see a value recorded
+ * concurrently in one bucket but not yet in another.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	static int bucketOf(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * The smallest value in the bucket.
+	 */
+	static long lowestIn(final int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		final int shift = bucket / SUB_BUCKETS - 1;
+		return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	}
+
+	/**
+	 * The largest value in the bucket.
+	 */
+	static long highestIn(final int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowestIn(bucket + 1) - 1;
+	}
+
+	/**
+	 * Negative values are recorded as 0.
+	 */
+	public void record(final long value) {
+		counts.incrementAndGet(bucketOf(value));
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * The value at or below which the given percentage of recorded values fall, reported as the
+	 * upper end of its bucket; 0 when nothing has been recorded.
+	 *
+	 * @param percentile
+	 *            0 to 100.
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		final long[] snapshot = new long[BUCKETS];
+		long total = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return highestIn(i);
+			}
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Clears the counts. Values recorded while resetting may or may not survive.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+	}
+
+}
@@ -0,0 +1,244 @@
+package com.github.gregb.util;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from primitive longs to primitive ints, with no boxing and no entry
+ * objects. Keys are probed linearly; removals shift later entries back instead of leaving
+ * tombstones.
+ *
+ * Not thread safe. Publish a fully built instance safely (e.g. through a final field) and it can be
+ * read concurrently.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public class LongIntHashMap {
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	// 0 marks an empty slot, so the key 0 is kept on the side
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private boolean hasZeroKey;
+	private int zeroValue;
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	public LongIntHashMap(final int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(final int expectedSize) {
+		final long needed = (long) Math.ceil(Math.max(expectedSize, 4) / LOAD_FACTOR);
+		if (needed > 1 << 30) {
+			throw new IllegalArgumentException("Too many entries: " + expectedSize);
+		}
+		return Integer.highestOneBit((int) needed - 1) << 1;
+	}
+
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(final long key) {
+		// fibonacci hashing spreads sequential ids across the table
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * @return The value for the key, or <code>missing</code> when it is not present.
+	 */
+	public int get(final long key, final int missing) {
+		if (key == 0) {
+			return hasZeroKey ? zeroValue : missing;
+		}
+
+		final long[] k = keys;
+		int slot = hash(key) & mask;
+
+		while (true) {
+			final long found = k[slot];
+			if (found == key) {
+				return values[slot];
+			}
+			if (found == 0) {
+				return missing;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public boolean containsKey(final long key) {
+		if (key == 0) {
+			return hasZeroKey;
+		}
+
+		int slot = hash(key) & mask;
+
+		while (true) {
+			final long found = keys[slot];
+			if (found == key) {
+				return true;
+			}
+			if (found == 0) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return The previous value for the key, or <code>missing</code> when it was not present.
+	 */
+	public int put(final long key, final int value, final int missing) {
+		if (key == 0) {
+			final int previous = hasZeroKey ? zeroValue : missing;
+			if (!hasZeroKey) {
+				size++;
+			}
+			hasZeroKey = true;
+			zeroValue = value;
+			return previous;
+		}
+
+		int slot = hash(key) & mask;
+
+		while (true) {
+			final long found = keys[slot];
+
+			if (found == key) {
+				final int previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+
+			if (found == 0) {
+				keys[slot] = key;
+				values[slot] = value;
+
+				if (++size > (mask + 1) * LOAD_FACTOR) {
+					rehash(keys.length << 1);
+				}
+
+				return missing;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return The removed value, or <code>missing</code> when the key was not present.
+	 */
+	public int remove(final long key, final int missing) {
+		if (key == 0) {
+			if (!hasZeroKey) {
+				return missing;
+			}
+			hasZeroKey = false;
+			size--;
+			return zeroValue;
+		}
+
+		int slot = hash(key) & mask;
+
+		while (true) {
+			final long found = keys[slot];
+
+			if (found == 0) {
+				return missing;
+			}
+
+			if (found == key) {
+				final int previous = values[slot];
+				shiftBack(slot);
+				size--;
+				return previous;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void shiftBack(int gap) {
+		int slot = gap;
+
+		while (true) {
+			slot = (slot + 1) & mask;
+			final long key = keys[slot];
+
+			if (key == 0) {
+				keys[gap] = 0;
+				values[gap] = 0;
+				return;
+			}
+
+			// move the entry into the gap unless its home slot lies cyclically in (gap, slot]
+			final int home = hash(key) & mask;
+			final boolean stays = gap <= slot ? (gap < home && home <= slot) : (gap < home || home <= slot);
+
+			if (!stays) {
+				keys[gap] = key;
+				values[gap] = values[slot];
+				gap = slot;
+			}
+		}
+	}
+
+	private void rehash(final int capacity) {
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+
+		allocate(capacity);
+		size = hasZeroKey ? 1 : 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				put(oldKeys[i], oldValues[i], 0);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, 0);
+		hasZeroKey = false;
+		size = 0;
+	}
+
+	/**
+	 * Calls the consumer for every entry, in no particular order.
+	 */
+	public void forEach(final EntryConsumer consumer) {
+		if (hasZeroKey) {
+			consumer.accept(0, zeroValue);
+		}
+
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				consumer.accept(keys[i], values[i]);
+			}
+		}
+	}
+
+	@FunctionalInterface
+	public static interface EntryConsumer {
+		void accept(long key, int value);
+	}
+}
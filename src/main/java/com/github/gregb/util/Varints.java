@@ -0,0 +1,77 @@
+package com.github.gregb.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of longs, 7 bits per byte with the high bit marking continuation.
+ * Signed values are zigzag encoded first, so small negative numbers stay short.
+ *
+ * @author Greg Bódi <gregb@fastmail.fm>
+ *
+ */
+public final class Varints {
+
+	private Varints() {
+	}
+
+	public static long zigzag(final long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	public static long unzigzag(final long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * The number of bytes {@link #writeUnsigned(ByteBuffer, long)} uses for the value.
+	 */
+	public static int sizeUnsigned(final long value) {
+		// 1 byte per started group of 7 bits
+		final int bits = 64 - Long.numberOfLeadingZeros(value | 1);
+		return (bits + 6) / 7;
+	}
+
+	public static int sizeSigned(final long value) {
+		return sizeUnsigned(zigzag(value));
+	}
+
+	public static void writeUnsigned(final ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	public static void writeSigned(final ByteBuffer buffer, final long value) {
+		writeUnsigned(buffer, zigzag(value));
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If the data ends mid value, or the value is longer than 10 bytes.
+	 */
+	public static long readUnsigned(final ByteBuffer buffer) {
+		long result = 0;
+
+		try {
+			for (int shift = 0; shift < 64; shift += 7) {
+				final byte b = buffer.get();
+				result |= (long) (b & 0x7F) << shift;
+
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+		} catch (final BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated varint", e);
+		}
+
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	public static long readSigned(final ByteBuffer buffer) {
+		return unzigzag(readUnsigned(buffer));
+	}
+}
@@ -0,0 +1,114 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.gregb.mapping.Converters;
+import com.github.gregb.util.CsvReader;
+import com.github.gregb.util.CsvWriter;
+
+public class CsvExtractorTest {
+
+	private DateTimeZone defaultZone;
+
+	@Before
+	public void setUp() {
+		// away from UTC, so a lost offset shows
+		defaultZone = DateTimeZone.getDefault();
+		DateTimeZone.setDefault(DateTimeZone.forOffsetHoursMinutes(5, 30));
+	}
+
+	@After
+	public void tearDown() {
+		DateTimeZone.setDefault(defaultZone);
+	}
+
+	private static CachedRowSet resultSet(final Object[]... rows) throws Exception {
+		final RowSetMetaDataImpl metadata = new RowSetMetaDataImpl();
+		metadata.setColumnCount(4);
+		metadata.setColumnName(1, "text");
+		metadata.setColumnType(1, Types.VARCHAR);
+		metadata.setColumnName(2, "at");
+		metadata.setColumnType(2, Types.TIMESTAMP);
+		metadata.setColumnName(3, "day");
+		metadata.setColumnType(3, Types.DATE);
+		metadata.setColumnName(4, "n");
+		metadata.setColumnType(4, Types.INTEGER);
+
+		final CachedRowSet rs = RowSetProvider.newFactory().createCachedRowSet();
+		rs.setMetaData(metadata);
+
+		// each row is inserted before the current one, so add them last first
+		for (int r = rows.length - 1; r >= 0; r--) {
+			rs.moveToInsertRow();
+			for (int i = 0; i < rows[r].length; i++) {
+				rs.updateObject(i + 1, rows[r][i]);
+			}
+			rs.insertRow();
+			rs.moveToCurrentRow();
+		}
+
+		rs.beforeFirst();
+		return rs;
+	}
+
+	@Test
+	public void writesRows() throws Exception {
+		final DateTime at = new DateTime(2015, 1, 2, 3, 4, 5, 678, DateTimeZone.UTC);
+		final Date day = new Date(new LocalDate(2015, 1, 2).toDateTimeAtStartOfDay().getMillis());
+
+		final StringWriter sw = new StringWriter();
+		final long rows = new CsvExtractor(new CsvWriter(sw), true).extractData(resultSet(
+				new Object[] { "a, \"b\"", new Timestamp(at.getMillis()), day, 7 },
+				new Object[] { null, null, null, null },
+				new Object[] { "two\nlines", new Timestamp(at.plusHours(23).getMillis()), day, 8 }));
+
+		assertEquals(3, rows);
+		assertEquals("text,at,day,n\n"
+				+ "\"a, \"\"b\"\"\",2015-01-02T03:04:05.678Z,2015-01-02,7\n"
+				+ ",,,\n"
+				+ "\"two\nlines\",2015-01-03T02:04:05.678Z,2015-01-02,8\n", sw.toString());
+	}
+
+	@Test
+	public void readsBack() throws Exception {
+		final DateTime at = new DateTime(2015, 6, 30, 23, 59, 59, 1, DateTimeZone.UTC);
+		final Date day = new Date(new LocalDate(2015, 6, 30).toDateTimeAtStartOfDay().getMillis());
+
+		final StringWriter sw = new StringWriter();
+		new CsvExtractor(new CsvWriter(sw), false).extractData(resultSet(new Object[] { "x", new Timestamp(at.getMillis()), day, 1 }));
+
+		final List<String[]> read = new ArrayList<String[]>();
+		new CsvReader().read(new ByteArrayInputStream(sw.toString().getBytes(StandardCharsets.UTF_8)), read::add);
+		assertEquals(1, read.size());
+
+		// as CsvImporter converts fields
+		final Function<Object, Object> toDateTime = Converters.getConverter(String.class, DateTime.class);
+		final Function<Object, Object> toLocalDate = Converters.getConverter(String.class, LocalDate.class);
+		assertEquals(at.getMillis(), ((DateTime) toDateTime.apply(read.get(0)[1])).getMillis());
+		assertEquals(new LocalDate(2015, 6, 30), toLocalDate.apply(read.get(0)[2]));
+		assertEquals(Arrays.asList("x", "1"), Arrays.asList(read.get(0)[0], read.get(0)[3]));
+	}
+
+}
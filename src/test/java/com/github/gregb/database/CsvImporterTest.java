@@ -0,0 +1,145 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import com.github.gregb.database.fixtures.Item;
+import com.github.gregb.database.fixtures.ItemRepository;
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+import com.github.gregb.mapping.fixtures.LongEnum;
+
+public class CsvImporterTest {
+
+	@Test
+	public void fieldConversions() {
+		assertEquals(42L, CsvImporter.fromString(Long.class).apply(" 42 "));
+		assertNull(CsvImporter.fromString(Long.class).apply(""));
+		assertEquals("", CsvImporter.fromString(String.class).apply(""));
+		assertEquals(new LocalDate(2015, 4, 30), CsvImporter.fromString(LocalDate.class).apply("2015-04-30"));
+		assertEquals(TestEnum.values()[0], CsvImporter.fromString(TestEnum.class).apply(TestEnum.values()[0].name()));
+		assertEquals(LongEnum.values()[0], CsvImporter.fromString(LongEnum.class).apply(" " + LongEnum.values()[0].getId()));
+	}
+
+	@Test
+	public void rejectedFields() {
+		assertRejected(CsvImporter.fromString(long.class), "");
+		assertRejected(CsvImporter.fromString(Long.class), "x");
+		assertRejected(CsvImporter.fromString(LongEnum.class), "-999");
+	}
+
+	private static void assertRejected(final Function<Object, Object> converter, final String field) {
+		try {
+			converter.apply(field);
+			fail("Converted <" + field + ">");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static InputStream utf8(final String s) {
+		return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Endless rows after a header, counting the rows handed out.
+	 */
+	private static InputStream endless(final AtomicLong rows) {
+		return new InputStream() {
+
+			private byte[] line = "name,count\n".getBytes(StandardCharsets.UTF_8);
+			private int pos;
+
+			@Override
+			public int read() throws IOException {
+				if (pos == line.length) {
+					line = ("n" + rows.get() + "," + rows.incrementAndGet() + "\n").getBytes(StandardCharsets.UTF_8);
+					pos = 0;
+				}
+				return line[pos++];
+			}
+		};
+	}
+
+	@Test
+	public void rejectsAreCountedAndSkipped() throws IOException {
+		final ItemRepository repository = new ItemRepository();
+		final CsvImporter<Item> importer = new CsvImporter<Item>(repository);
+		importer.setBatchSize(2);
+		importer.setMaxRejectsKept(2);
+
+		final CsvImporter.Report report = importer.importStream(utf8("name,count,kind\na,1,A\nb,x,B\nc,,A\nd,4,Z\ne,5,\n"));
+
+		assertEquals(5, report.rowsRead);
+		assertEquals(2, report.inserted);
+		assertEquals(3, report.rejected);
+		assertEquals(2, report.rejects.size());
+		assertEquals(2, report.rejects.get(0).row);
+		assertTrue(report.rejects.get(0).reason, report.rejects.get(0).reason.startsWith("count: "));
+		assertEquals(3, report.rejects.get(1).row);
+		assertEquals(2, repository.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM item", Integer.class).intValue());
+	}
+
+	@Test
+	public void rowsMustMatchTheHeader() throws IOException {
+		final ItemRepository repository = new ItemRepository();
+		final OperationMetrics inserts = repository.getMetrics().get(RepositoryOperation.INSERT);
+		final long batches = inserts.getCount();
+		final long rows = inserts.getRows();
+
+		final CsvImporter<Item> importer = new CsvImporter<Item>(repository);
+		importer.setBatchSize(2);
+
+		final CsvImporter.Report report = importer.importStream(utf8("name,count,kind\na,1,A\nb,2\nc,3,A,x\nd,4,B\ne,5,A\n"));
+
+		assertEquals(5, report.rowsRead);
+		assertEquals(3, report.inserted);
+		assertEquals(2, report.rejected);
+		assertEquals("expected 3 fields, got 2", report.rejects.get(0).reason);
+		assertEquals("expected 3 fields, got 4", report.rejects.get(1).reason);
+		assertEquals(3, repository.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM item", Integer.class).intValue());
+
+		// two batches, each recorded by the repository
+		assertEquals(2, inserts.getCount() - batches);
+		assertEquals(3, inserts.getRows() - rows);
+	}
+
+	@Test(timeout = 60000)
+	public void failedBatchStopsTheImport() throws IOException {
+		final ItemRepository repository = new ItemRepository();
+		repository.namedTemplate = new NamedParameterJdbcTemplate(repository.jdbcTemplate) {
+			@Override
+			public int[] batchUpdate(final String sql, final SqlParameterSource[] batchArgs) {
+				throw new DataIntegrityViolationException("rejected by test");
+			}
+		};
+
+		final CsvImporter<Item> importer = new CsvImporter<Item>(repository);
+		importer.setBatchSize(10);
+		// the queue never fills, so only the writer's failure ends the import
+		importer.setQueuedBatches(1_000_000);
+
+		final AtomicLong rows = new AtomicLong();
+		try {
+			importer.importStream(endless(rows));
+			fail();
+		} catch (final RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("failed after 0 rows"));
+			assertEquals(DataIntegrityViolationException.class, e.getCause().getClass());
+		}
+
+		assertTrue("read " + rows.get(), rows.get() < 1_000_000);
+	}
+
+}
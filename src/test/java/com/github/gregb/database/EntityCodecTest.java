@@ -0,0 +1,90 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import com.github.gregb.database.fixtures.Event;
+import com.github.gregb.database.fixtures.Item;
+import com.github.gregb.mapping.PropertyHelper;
+import com.github.gregb.mapping.fixtures.LongEnum;
+
+public class EntityCodecTest {
+
+	private static <T> EntityCodec<T> codec(final Class<T> type) {
+		final Map<String, PropertyHelper> properties = new HashMap<String, PropertyHelper>(PropertyHelper.getFromClass(type));
+		properties.remove("class");
+		return new EntityCodec<T>(type, properties);
+	}
+
+	@Test
+	public void roundTrip() {
+		final EntityCodec<Event> codec = codec(Event.class);
+
+		final Event event = new Event();
+		event.id = -5L;
+		event.text = "naïve 😀 text";
+		event.at = new DateTime(1430000000000L);
+		event.level = LongEnum.C;
+		event.flag = true;
+
+		final byte[] bytes = codec.encode(event);
+		assertEquals(codec.encodedSize(event), bytes.length);
+
+		final Event decoded = codec.decode(bytes);
+		assertEquals(event.id, decoded.id);
+		assertEquals(event.text, decoded.text);
+		assertEquals(event.at.getMillis(), decoded.at.getMillis());
+		assertEquals(LongEnum.C, decoded.level);
+		assertNull(decoded.kind);
+		assertTrue(decoded.flag);
+
+		// several in one buffer
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length * 2);
+		codec.encode(event, buffer);
+		codec.encode(decoded, buffer);
+		buffer.flip();
+		assertEquals(event.text, codec.decode(buffer).text);
+		assertEquals(event.text, codec.decode(buffer).text);
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void dates() {
+		final EntityCodec<Item> codec = codec(Item.class);
+		final Item item = new Item();
+		item.id = 1L;
+		item.since = new LocalDate(1969, 12, 31);
+
+		assertEquals(item.since, codec.decode(codec.encode(item)).since);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void schemaMismatch() {
+		final Item item = new Item();
+		item.id = 1L;
+		codec(Event.class).decode(codec(Item.class).encode(item));
+	}
+
+	@Test
+	public void sharedPerColumnMapping() {
+		final RowMappingRepository<Item> all = new RowMappingRepository<Item>(Item.class);
+		final RowMappingRepository<Item> same = new RowMappingRepository<Item>(Item.class);
+		final RowMappingRepository<Item> fewer = new RowMappingRepository<Item>(Item.class) {
+			{
+				propertiesByColumn.remove("price");
+			}
+		};
+
+		assertSame(EntityCodec.forRepository(all), EntityCodec.forRepository(same));
+		assertNotSame(EntityCodec.forRepository(all), EntityCodec.forRepository(fewer));
+		assertNotEquals(EntityCodec.forRepository(all).getFingerprint(), EntityCodec.forRepository(fewer).getFingerprint());
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.github.gregb.database.CopyBehavior.Behavior;
+import com.github.gregb.database.fixtures.TestObject;
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+
+public class EntityHelperTest {
+
+	/**
+	 * Private fields behind accessors, so the copier can't use compiled lambdas.
+	 */
+	public static class Bean {
+
+		private String name;
+		private Integer count;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(final String name) {
+			this.name = name;
+		}
+
+		@CopyBehavior(Behavior.TAKE_UPDATED)
+		public Integer getCount() {
+			return count;
+		}
+
+		public void setCount(final Integer count) {
+			this.count = count;
+		}
+	}
+
+	private static TestObject filled(final String value) {
+		final TestObject o = new TestObject();
+		o.s = value;
+		o.l = 1L;
+		o.b = true;
+		o.i = 2;
+		o.o = value;
+		o.e = TestEnum.A;
+		o.alwaysNull = value;
+		o.ignore = value;
+		o.mostRecentNonNull = value;
+		o.takeOriginal = value;
+		o.takeUpdated = value;
+		return o;
+	}
+
+	@Test
+	public void mergeFollowsCopyBehavior() {
+		final TestObject existing = filled("old");
+		final TestObject updated = filled("new");
+		updated.l = null;
+		updated.i = 0;
+
+		final TestObject merged = EntityHelper.updateMerge(existing, updated);
+
+		assertNotSame(existing, merged);
+		assertNotSame(updated, merged);
+		assertNull(merged.alwaysNull);
+		assertNull(merged.ignore);
+		assertEquals("new", merged.mostRecentNonNull);
+		assertEquals("old", merged.takeOriginal);
+		assertEquals("new", merged.takeUpdated);
+
+		// the default is MOST_RECENT_NON_NULL; a primitive is never null
+		assertEquals("new", merged.s);
+		assertEquals(Long.valueOf(1), merged.l);
+		assertEquals(0, merged.i);
+
+		// arguments are not modified
+		assertEquals("old", existing.s);
+		assertNull(updated.l);
+	}
+
+	@Test
+	public void mergeNullsUpdatedValues() {
+		final TestObject existing = filled("old");
+		final TestObject updated = new TestObject();
+
+		final TestObject merged = EntityHelper.updateMerge(existing, updated);
+
+		assertNull(merged.alwaysNull);
+		assertNull(merged.ignore);
+		assertEquals("old", merged.mostRecentNonNull);
+		assertEquals("old", merged.takeOriginal);
+		assertNull(merged.takeUpdated);
+		assertEquals(TestEnum.A, merged.e);
+	}
+
+	@Test
+	public void mergeTrimsUpdatedStrings() {
+		final TestObject existing = filled("old");
+		final TestObject updated = filled("  new ");
+		updated.mostRecentNonNull = " \t ";
+		updated.takeUpdated = "";
+		updated.takeOriginal = " x ";
+
+		final TestObject merged = EntityHelper.updateMerge(existing, updated);
+
+		assertEquals("new", merged.s);
+		// blank is null, so the existing value stays
+		assertEquals("old", merged.mostRecentNonNull);
+		assertNull(merged.takeUpdated);
+		assertEquals("old", merged.takeOriginal);
+
+		// strings are trimmed by value, whatever the property type
+		assertEquals("new", merged.o);
+
+		// only the updated side is trimmed
+		existing.s = " old ";
+		updated.s = null;
+		assertEquals(" old ", EntityHelper.updateMerge(existing, updated).s);
+	}
+
+	@Test
+	public void mergeThroughAccessors() {
+		final Bean existing = new Bean();
+		existing.setName("old");
+		existing.setCount(1);
+
+		final Bean updated = new Bean();
+		updated.setName(" ");
+
+		final Bean merged = EntityHelper.updateMerge(existing, updated);
+		assertEquals("old", merged.getName());
+		assertNull(merged.getCount());
+	}
+
+	@Test
+	public void equivalence() {
+		assertTrue(EntityHelper.areEquivalent(filled("a"), filled("a")));
+		assertFalse(EntityHelper.areEquivalent(filled("a"), filled("b")));
+
+		// no trimming here
+		assertFalse(EntityHelper.areEquivalent(filled("a"), filled(" a")));
+
+		final Bean a = new Bean();
+		final Bean b = new Bean();
+		assertTrue(EntityHelper.areEquivalent(a, b));
+		b.setCount(3);
+		assertFalse(EntityHelper.areEquivalent(a, b));
+		assertFalse(EntityHelper.areEquivalent(a, new Object()));
+	}
+
+}
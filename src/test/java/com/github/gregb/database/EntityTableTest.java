@@ -0,0 +1,76 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.gregb.database.fixtures.TestObject;
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+import com.github.gregb.mapping.ValueKind;
+
+public class EntityTableTest {
+
+	private static TestObject row(final String s, final Long l, final int i, final TestEnum e) {
+		final TestObject o = new TestObject();
+		o.s = s;
+		o.l = l;
+		o.i = i;
+		o.e = e;
+		return o;
+	}
+
+	private static EntityTable<TestObject> table() {
+		final List<TestObject> rows = new ArrayList<TestObject>();
+		rows.add(row("x", 10L, 1, TestEnum.A));
+		rows.add(row("y", null, 2, TestEnum.B));
+		rows.add(row("x", 30L, 3, TestEnum.A));
+		rows.add(row(null, 40L, 4, null));
+		return EntityTable.of(TestObject.class, rows);
+	}
+
+	@Test
+	public void filtersAndAggregates() {
+		final EntityTable<TestObject> table = table();
+
+		assertEquals(ValueKind.LONG, table.getKind("l"));
+		assertEquals(ValueKind.STRING, table.getKind("s"));
+
+		final BitSet xs = table.filterEquals("s", "x");
+		assertEquals("{0, 2}", xs.toString());
+		assertEquals(40.0, table.sum("l", xs), 0);
+		assertEquals(80.0, table.sum("l", null), 0);
+		assertEquals(3, table.countNotNull("l", null));
+		assertEquals(10L, table.min("l", null));
+		assertEquals(4, table.max("i", null));
+		assertEquals("{2, 3}", table.between("l", 20L, null).toString());
+
+		final BitSet big = table.filterLong("i", v -> v >= 2);
+		big.and(table.filterEquals("e", TestEnum.A));
+		assertEquals("{2}", big.toString());
+	}
+
+	@Test
+	public void groupAndMaterialize() {
+		final EntityTable<TestObject> table = table();
+
+		final Map<Object, BitSet> byEnum = table.groupBy("e", null);
+		assertEquals("{0, 2}", byEnum.get(TestEnum.A).toString());
+		assertEquals("{3}", byEnum.get(null).toString());
+
+		final Map<Object, BitSet> byLong = table.groupBy("l", table.filterLong("i", v -> v > 1));
+		assertEquals("{1}", byLong.get(null).toString());
+		assertEquals("{2}", byLong.get(30L).toString());
+
+		final TestObject second = table.materialize(1);
+		assertEquals("y", second.s);
+		assertNull(second.l);
+		assertEquals(2, second.i);
+		assertEquals(TestEnum.B, second.e);
+	}
+
+}
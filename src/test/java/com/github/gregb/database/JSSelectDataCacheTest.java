@@ -0,0 +1,83 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.gregb.database.JSSelectData.Label;
+import com.github.gregb.database.JSSelectDataCache.Cached;
+
+public class JSSelectDataCacheTest {
+
+	@Test
+	public void json() {
+		final JSSelectData data = new JSSelectData();
+		data.add("2", "Two \"<b>\"", null, "tip");
+		data.add("1", "One", "first", null);
+
+		assertEquals("{\"labels\":{\"2\":{\"primary\":\"Two \\\"\\u003cb>\\\"\",\"secondary\":null,\"tooltip\":\"tip\"},"
+				+ "\"1\":{\"primary\":\"One\",\"secondary\":\"first\",\"tooltip\":null}},\"order\":[\"2\",\"1\"]}", data.toJson());
+	}
+
+	@Test
+	public void cachedUntilInvalidated() {
+		final AtomicInteger loads = new AtomicInteger();
+		final Object key = new Object();
+
+		final Cached first = JSSelectDataCache.get(key, Label.ANY, () -> {
+			loads.incrementAndGet();
+			final JSSelectData data = new JSSelectData();
+			data.add("", Label.ANY.primary, null, Label.ANY.tooltip);
+			data.add("a", "Same", null, null);
+			data.add("b", "Same", null, null);
+			return data;
+		});
+
+		assertSame(first, JSSelectDataCache.get(key, Label.ANY, () -> null));
+		assertEquals(first.getData().toJson(), new String(first.getJson(), StandardCharsets.UTF_8));
+
+		// a caller changing its labels changes neither the other options nor later callers
+		final JSSelectData data = first.getData();
+		data.labels.get("a").primary = "Changed";
+		assertEquals("Same", data.labels.get("b").primary);
+		assertEquals("Same", first.getData().labels.get("a").primary);
+
+		try {
+			first.getData().order.add("c");
+			fail("Cached data was modifiable");
+		} catch (final UnsupportedOperationException e) {
+			// expected
+		}
+
+		JSSelectDataCache.invalidate(key);
+		JSSelectDataCache.get(key, Label.ANY, JSSelectData::new);
+		assertEquals(1, loads.get());
+		assertNotSame(first, JSSelectDataCache.get(key, Label.ANY, JSSelectData::new));
+	}
+
+	@Test
+	public void invalidatedWhileLoading() {
+		final AtomicInteger loads = new AtomicInteger();
+		final Object key = new Object();
+
+		// the table changes while the options are read
+		final Cached stale = JSSelectDataCache.get(key, null, () -> {
+			loads.incrementAndGet();
+			JSSelectDataCache.invalidate(key);
+			return new JSSelectData();
+		});
+
+		final Cached fresh = JSSelectDataCache.get(key, null, () -> {
+			loads.incrementAndGet();
+			return new JSSelectData();
+		});
+
+		assertEquals(2, loads.get());
+		assertNotSame(stale, fresh);
+		assertSame(fresh, JSSelectDataCache.get(key, null, () -> null));
+	}
+
+}
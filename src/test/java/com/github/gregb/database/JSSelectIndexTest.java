@@ -0,0 +1,66 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.github.gregb.mapping.Described;
+import com.github.gregb.mapping.Identified;
+
+public class JSSelectIndexTest {
+
+	@SuppressWarnings("serial")
+	private static class Customer implements Identified<Long>, Described {
+
+		private final Long id;
+		private final String description;
+
+		Customer(final long id, final String description) {
+			this.id = id;
+			this.description = description;
+		}
+
+		@Override
+		public Long getId() {
+			return id;
+		}
+
+		@Override
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	@Test
+	public void prefixAndSubstring() {
+		final JSSelectIndex<Customer> index = new JSSelectIndex<Customer>(Arrays.asList(
+				new Customer(1, "Acme Widgets"),
+				new Customer(2, "Café Zürich"),
+				new Customer(3, "Widget World"),
+				new Customer(4, "Acme Rockets")));
+
+		assertEquals(Arrays.asList("1", "4"), index.startingWith("ACME", 0, 10, null).order);
+		assertEquals(Arrays.asList("1"), index.startingWith("wid acm", 0, 10, null).order);
+		assertEquals(Arrays.asList("2"), index.startingWith("cafe zur", 0, 10, null).order);
+		assertEquals(Arrays.asList("4"), index.startingWith("acme", 1, 1, null).order);
+		assertEquals(Arrays.asList("", "1", "3"), index.containing("idget", 0, 10, JSSelectData.Label.ANY).order);
+	}
+
+	@Test
+	public void updates() {
+		final JSSelectIndex<Customer> index = new JSSelectIndex<Customer>();
+		index.put(new Customer(1, "Old Name"));
+		index.put(new Customer(1, "New Name"));
+
+		assertTrue(index.startingWith("old", 0, 10, null).order.isEmpty());
+		assertEquals("New Name", index.startingWith("name", 0, 10, null).labels.get("1").primary);
+
+		index.refresh(Arrays.asList(new Customer(2, "Other")));
+		assertEquals(1, index.size());
+		assertTrue(index.startingWith("new", 0, 10, null).order.isEmpty());
+		assertEquals(Arrays.asList("2"), index.startingWith("oth", 0, 10, null).order);
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import com.github.gregb.database.fixtures.Item;
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+import com.github.gregb.mapping.fixtures.LongEnum;
+
+public class JdbcRepositoryTest {
+
+	private final JdbcRepository<Item> repository = new JdbcRepository<Item>(Item.class) {
+	};
+
+	/**
+	 * Sets the parameter on a statement whose connection only records createArrayOf.
+	 *
+	 * @return The element type and the elements passed to createArrayOf.
+	 */
+	private static Object[] bindArray(final Object parameter) throws Exception {
+		final Object[] created = new Object[2];
+
+		final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+			if (method.getName().equals("createArrayOf")) {
+				created[0] = args[0];
+				created[1] = args[1];
+			}
+			return null;
+		});
+
+		final PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+			return method.getName().equals("getConnection") ? connection : null;
+		});
+
+		final SqlParameterValue value = (SqlParameterValue) parameter;
+		assertEquals(Types.ARRAY, value.getSqlType());
+		StatementCreatorUtils.setParameterValue(ps, 1, value, value.getValue());
+		return created;
+	}
+
+	@SafeVarargs
+	private static <T> List<T> repeat(final int n, final T... values) {
+		final List<T> list = new ArrayList<T>(n);
+		for (int i = 0; i < n; i++) {
+			list.add(values[i % values.length]);
+		}
+		return list;
+	}
+
+	@Test
+	public void longInListBindsOneArray() throws Exception {
+		final List<Long> ids = new ArrayList<Long>();
+		for (long id = 0; id < Where.MAX_IN_LIST_BUCKET + 1; id++) {
+			ids.add(id);
+		}
+
+		final MapSqlParameterSource params = new MapSqlParameterSource();
+		assertEquals("id = ANY(:where_0)", Where.and().in("id", ids).toSql(params, repository::convertParameterValue));
+
+		final Object[] created = bindArray(params.getValue("where_0"));
+		assertEquals("int8", created[0]);
+		assertEquals(ids, Arrays.asList((Object[]) created[1]));
+	}
+
+	@Test
+	public void enumElementsAreConverted() throws Exception {
+		final MapSqlParameterSource params = new MapSqlParameterSource();
+		Where.and().in("level", repeat(Where.MAX_IN_LIST_BUCKET + 1, LongEnum.A, LongEnum.C)).in("kind", repeat(Where.MAX_IN_LIST_BUCKET + 1, TestEnum.B)).any("since", Arrays.asList(new LocalDate(2015, 1, 2))).toSql(params, repository::convertParameterValue);
+
+		// identified enums by id
+		Object[] created = bindArray(params.getValue("where_0"));
+		assertEquals("int8", created[0]);
+		assertEquals(Where.MAX_IN_LIST_BUCKET + 1, ((Object[]) created[1]).length);
+		assertEquals(-3000L, ((Object[]) created[1])[1]);
+
+		// others by name
+		created = bindArray(params.getValue("where_1"));
+		assertEquals("varchar", created[0]);
+		assertEquals("B", ((Object[]) created[1])[0]);
+
+		created = bindArray(params.getValue("where_2"));
+		assertEquals("date", created[0]);
+		assertEquals(java.sql.Date.class, ((Object[]) created[1])[0].getClass());
+	}
+
+}
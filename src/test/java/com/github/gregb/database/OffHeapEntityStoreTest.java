@@ -0,0 +1,75 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import com.github.gregb.database.fixtures.Item;
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+
+public class OffHeapEntityStoreTest {
+
+	private static Item item(final long id, final String name) {
+		final Item item = new Item();
+		item.id = id;
+		item.name = name;
+		item.count = (int) id * 2;
+		item.price = id / 4.0;
+		item.active = id % 2 == 0;
+		item.since = new LocalDate(2015, 1, 1).plusDays((int) id);
+		item.kind = TestEnum.values()[(int) id % 2];
+		return item;
+	}
+
+	@Test
+	public void roundTrip() {
+		try (OffHeapEntityStore<Item> store = new OffHeapEntityStore<Item>(Item.class)) {
+			for (long id = 1; id <= 1000; id++) {
+				store.put(item(id, "item ü " + id));
+			}
+
+			final Item got = store.get(17);
+			assertEquals("item ü 17", got.name);
+			assertEquals(34, got.count);
+			assertEquals(4.25, got.price, 0);
+			assertFalse(got.active);
+			assertEquals(new LocalDate(2015, 1, 18), got.since);
+			assertEquals(TestEnum.B, got.kind);
+
+			assertEquals(34L, store.reader("count").getLong(17, -1));
+			assertEquals("item ü 999", store.reader("name").get(999));
+			assertEquals(-1L, store.reader("count").getLong(5000, -1));
+		}
+	}
+
+	@Test
+	public void updatesNullsAndRemoval() throws IOException {
+		final Path dir = Files.createTempDirectory("offheap");
+		try (OffHeapEntityStore<Item> store = OffHeapEntityStore.mapped(Item.class, dir)) {
+			store.put(item(1, "one"));
+			store.put(item(2, "two"));
+
+			final Item replaced = item(1, null);
+			replaced.price = null;
+			store.put(replaced);
+
+			assertNull(store.get(1).name);
+			assertNull(store.reader("price").get(1));
+			assertEquals(-1.0, store.reader("price").getDouble(1, -1), 0);
+
+			assertTrue(store.remove(2));
+			assertNull(store.get(2));
+			store.put(item(3, "three"));
+			assertEquals(2, store.size());
+			assertEquals("three", store.get(3).name);
+		} finally {
+			Files.delete(dir);
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.gregb.database.fixtures.Item;
+import com.github.gregb.database.fixtures.ItemRepository;
+
+public class RepeatedQueryDetectorTest {
+
+	@Test
+	public void reportsRepeatsByCallSite() {
+		final List<RepeatedQueryDetector.Repeat> repeated;
+
+		try (RepeatedQueryDetector.Scope scope = RepeatedQueryDetector.open(3, false)) {
+			for (long id = 0; id < 5; id++) {
+				RepeatedQueryDetector.record(Object.class, "SELECT * FROM t WHERE id = " + id);
+			}
+			for (long id = 0; id < 2; id++) {
+				RepeatedQueryDetector.record(Object.class, "SELECT * FROM u WHERE id = " + id);
+			}
+			repeated = scope.getRepeated();
+		}
+
+		assertEquals(1, repeated.size());
+		assertEquals(5, repeated.get(0).getCount());
+		assertEquals("SELECT * FROM t WHERE id = ?", repeated.get(0).getFingerprint());
+		assertEquals(getClass().getName(), repeated.get(0).getCallSite().getClassName());
+
+		// closed, so no longer counted
+		RepeatedQueryDetector.record(Object.class, "SELECT * FROM t WHERE id = 9");
+	}
+
+	@Test
+	public void strictThrowsOverThreshold() {
+		try (RepeatedQueryDetector.Scope scope = RepeatedQueryDetector.open(2, true)) {
+			for (long id = 1; id <= 3; id++) {
+				// at or under the threshold until the third
+				assertTrue(scope.getRepeated().isEmpty());
+				RepeatedQueryDetector.record(Object.class, "SELECT * FROM t WHERE id = " + id);
+			}
+			fail();
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getMessage().contains("3 times"));
+		}
+	}
+
+	@Test
+	public void strictThrowsFromRepositoryOnce() {
+		final ItemRepository repository = new ItemRepository();
+		repository.jdbcTemplate.update("INSERT INTO item (id, name, count) VALUES (1, 'a', 1), (2, 'b', 2), (3, 'c', 3)");
+
+		final List<String> calls = new ArrayList<String>();
+		final RepositoryListener listener = new RepositoryListener() {
+
+			@Override
+			public void afterOperation(final RepositoryEvent event) {
+				calls.add(event.getRows() + " " + event.getError());
+			}
+		};
+
+		final OperationMetrics metrics = repository.getMetrics().get(RepositoryOperation.FIND_BY_ID);
+		final long count = metrics.getCount();
+		final long errors = metrics.getErrors();
+		RepositoryListeners.add(listener);
+
+		try (RepeatedQueryDetector.Scope scope = RepeatedQueryDetector.open(2, true)) {
+			for (long id = 1; id <= 3; id++) {
+				assertTrue(scope.getRepeated().isEmpty());
+				assertTrue(repository.findById(id).isPresent());
+			}
+			fail();
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getMessage().contains("3 times"));
+		} finally {
+			RepositoryListeners.remove(listener);
+		}
+
+		// the third statement succeeded; only the detector threw, after it was counted
+		assertEquals(3, metrics.getCount() - count);
+		assertEquals(0, metrics.getErrors() - errors);
+		assertEquals("[1 null, 1 null, 1 null]", calls.toString());
+	}
+
+	@Test
+	public void insertSetsIdBeforeStrictThrows() {
+		final ItemRepository repository = new ItemRepository();
+		final List<Item> items = new ArrayList<Item>();
+
+		try (RepeatedQueryDetector.Scope scope = RepeatedQueryDetector.open(2, true)) {
+			for (int i = 1; i <= 3; i++) {
+				assertTrue(scope.getRepeated().isEmpty());
+				items.add(ItemRepository.item(null, "item" + i, i));
+				repository.insert(items.get(i - 1));
+			}
+			fail();
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getMessage().contains("3 times"));
+		}
+
+		// the third insert went through, and its entity has the id, though the detector threw
+		assertEquals(Long.valueOf(3), items.get(2).id);
+		assertEquals(Long.valueOf(3), repository.countAll());
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RepositoryListenersTest {
+
+	@After
+	public void clear() {
+		RepositoryListeners.clear();
+	}
+
+	@Test
+	public void noEventWithoutListeners() {
+		assertNull(RepositoryListeners.before(Object.class, RepositoryOperation.SELECT, "SELECT 1"));
+		RepositoryListeners.after(null, 1, null);
+	}
+
+	@Test
+	public void callsInOrder() throws Exception {
+		final List<String> calls = new ArrayList<String>();
+
+		RepositoryListeners.add(new RepositoryListener() {
+
+			@Override
+			public void beforeOperation(final RepositoryEvent event) {
+				calls.add("before " + event.getOperation());
+				event.put(this, "span");
+			}
+
+			@Override
+			public void firstRow(final RepositoryEvent event) {
+				calls.add("first row");
+			}
+
+			@Override
+			public void mappingComplete(final RepositoryEvent event) {
+				calls.add("mapped");
+			}
+
+			@Override
+			public void afterOperation(final RepositoryEvent event) {
+				calls.add("after " + event.getRows() + " " + event.get(this));
+			}
+		});
+
+		// a failing listener doesn't stop the others, or the operation
+		RepositoryListeners.add(new RepositoryListener() {
+
+			@Override
+			public void beforeOperation(final RepositoryEvent event) {
+				throw new RuntimeException("broken");
+			}
+		});
+
+		final RepositoryEvent event = RepositoryListeners.before(Object.class, RepositoryOperation.SELECT, "SELECT * FROM t WHERE id = :id");
+		assertEquals("SELECT * FROM t WHERE id = ?", event.getFingerprint());
+
+		final TimedRowMapper<Integer> mapper = new TimedRowMapper<Integer>((rs, rowNum) -> rowNum, event);
+		mapper.mapRow(null, 0);
+		mapper.mapRow(null, 1);
+		RepositoryListeners.after(event, 2, null);
+
+		assertEquals("[before SELECT, first row, mapped, after 2 span]", calls.toString());
+		assertTrue(event.getFirstRowNanos() >= 0);
+		assertTrue(event.getElapsedNanos() >= event.getMappingNanos());
+	}
+
+	@Test
+	public void eventKeepsItsListeners() throws Exception {
+		final List<String> calls = new ArrayList<String>();
+
+		final RepositoryListener first = new RepositoryListener() {
+
+			@Override
+			public void afterOperation(final RepositoryEvent event) {
+				calls.add("first");
+			}
+		};
+		final RepositoryListener late = new RepositoryListener() {
+
+			@Override
+			public void firstRow(final RepositoryEvent event) {
+				calls.add("late first row");
+			}
+
+			@Override
+			public void afterOperation(final RepositoryEvent event) {
+				calls.add("late");
+			}
+		};
+
+		RepositoryListeners.add(first);
+		final RepositoryEvent event = RepositoryListeners.before(Object.class, RepositoryOperation.SELECT, "SELECT 1");
+
+		// changes while the operation runs apply to the next one
+		RepositoryListeners.remove(first);
+		RepositoryListeners.add(late);
+
+		new TimedRowMapper<Integer>((rs, rowNum) -> rowNum, event).mapRow(null, 0);
+		RepositoryListeners.after(event, 1, null);
+
+		assertEquals("[first]", calls.toString());
+	}
+
+}
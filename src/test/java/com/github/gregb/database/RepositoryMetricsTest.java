@@ -0,0 +1,51 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+
+import org.junit.Test;
+
+import com.github.gregb.database.fixtures.Event;
+import com.github.gregb.database.fixtures.Item;
+
+public class RepositoryMetricsTest {
+
+	@Test
+	public void recordsAndExposes() throws Exception {
+		final RepositoryMetrics metrics = RepositoryMetrics.forEntity(Item.class);
+		assertSame(metrics, RepositoryMetrics.forEntity(Item.class));
+		metrics.reset();
+
+		metrics.complete(RepositoryOperation.SELECT, metrics.begin(), 20);
+		metrics.complete(RepositoryOperation.SELECT, metrics.begin(), 5);
+		metrics.fail(RepositoryOperation.SELECT, metrics.begin());
+
+		final OperationMetrics select = metrics.get(RepositoryOperation.SELECT);
+		assertEquals(3, select.getCount());
+		assertEquals(1, select.getErrors());
+		assertEquals(25, select.getRows());
+		assertTrue(select.get99thPercentileMicros() <= select.getMaxMicros() * 17 / 16 + 1);
+		assertEquals(0, metrics.get(RepositoryOperation.INSERT).getCount());
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertEquals(3L, server.getAttribute(RepositoryMetrics.objectName(Item.class, RepositoryOperation.SELECT), "Count"));
+	}
+
+	@Test
+	public void disabled() {
+		final RepositoryMetrics metrics = RepositoryMetrics.forEntity(Event.class);
+
+		RepositoryMetrics.setEnabled(false);
+		try {
+			metrics.complete(RepositoryOperation.INSERT, metrics.begin(), 1);
+		} finally {
+			RepositoryMetrics.setEnabled(true);
+		}
+
+		assertEquals(0, metrics.get(RepositoryOperation.INSERT).getCount());
+	}
+
+}
@@ -0,0 +1,198 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.github.gregb.database.fixtures.Event;
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+
+public class RowMapperStrategyTest {
+
+	// the JDK's row set can't coerce with getObject(int, Class), like a driver that doesn't know
+	// an enum or a Joda type
+	private static CachedRowSet resultSet(final Object[]... rows) throws Exception {
+		// flag as PostgreSQL reports booleans
+		return resultSet(new String[] { "id", "kind", "at", "flag", "extra" }, new int[] { Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP, Types.BIT, Types.VARCHAR }, rows);
+	}
+
+	private static CachedRowSet resultSet(final String[] names, final int[] types, final Object[]... rows) throws Exception {
+		final RowSetMetaDataImpl metadata = new RowSetMetaDataImpl();
+		metadata.setColumnCount(names.length);
+		for (int i = 0; i < names.length; i++) {
+			metadata.setColumnName(i + 1, names[i]);
+			metadata.setColumnType(i + 1, types[i]);
+		}
+
+		final CachedRowSet rs = RowSetProvider.newFactory().createCachedRowSet();
+		rs.setMetaData(metadata);
+
+		// each row is inserted before the current one, so add them last first
+		for (int r = rows.length - 1; r >= 0; r--) {
+			rs.moveToInsertRow();
+			for (int i = 0; i < rows[r].length; i++) {
+				rs.updateObject(i + 1, rows[r][i]);
+			}
+			rs.insertRow();
+			rs.moveToCurrentRow();
+		}
+
+		rs.beforeFirst();
+		return rs;
+	}
+
+	private static <T> List<T> mapAll(final RowMapper<T> mapper, final CachedRowSet rs) throws Exception {
+		final List<T> result = new ArrayList<T>();
+		int rowNum = 0;
+		while (rs.next()) {
+			result.add(mapper.mapRow(rs, rowNum++));
+		}
+		return result;
+	}
+
+	@Test
+	public void learnsStrategyPerColumn() throws Exception {
+		final RowMappingRepository<Event> repo = new RowMappingRepository<Event>(Event.class);
+
+		final List<Event> events = mapAll(repo.getRowMapper(), resultSet(new Object[] { 1L, "A", new Timestamp(1000), true, "x" }, new Object[] { 2L, null, new Timestamp(2000), false, "y" }, new Object[] { 3L, "B", null, true, null }));
+
+		assertEquals(3, events.size());
+		assertEquals(Long.valueOf(1), events.get(0).id);
+		assertEquals(TestEnum.A, events.get(0).kind);
+		assertEquals(1000, events.get(0).at.getMillis());
+		assertTrue(events.get(0).flag);
+		assertNull(events.get(1).kind);
+		assertFalse(events.get(1).flag);
+		assertEquals(TestEnum.B, events.get(2).kind);
+		assertNull(events.get(2).at);
+
+		final Map<String, Map<ColumnStrategy, Long>> counts = repo.getColumnStrategyCounts();
+		assertEquals(Long.valueOf(3), counts.get("id").get(ColumnStrategy.DIRECT));
+		assertEquals(Long.valueOf(3), counts.get("kind").get(ColumnStrategy.CONVERTER));
+		assertEquals(Long.valueOf(3), counts.get("at").get(ColumnStrategy.CONVERTER));
+		assertEquals(Long.valueOf(3), counts.get("flag").get(ColumnStrategy.DIRECT));
+		assertEquals(Long.valueOf(3), counts.get("extra").get(ColumnStrategy.SKIP));
+		assertEquals(1, counts.get("kind").size());
+
+		// the same shape again reuses the plan
+		mapAll(repo.getRowMapper(), resultSet(new Object[] { 4L, "A", null, false, null }));
+		assertEquals(Long.valueOf(4), repo.getColumnStrategyCounts().get("kind").get(ColumnStrategy.CONVERTER));
+	}
+
+	public static class Defaulted {
+		public Long id = -1L;
+		public String text = "default";
+	}
+
+	@Test
+	public void nullsAreSet() throws Exception {
+		final RowMappingRepository<Defaulted> repo = new RowMappingRepository<Defaulted>(Defaulted.class);
+		final List<Defaulted> rows = mapAll(repo.newQueryMapper(), resultSet(new String[] { "id", "text" }, new int[] { Types.BIGINT, Types.VARCHAR }, new Object[] { 1L, "a" }, new Object[] { null, null }));
+
+		assertEquals(Long.valueOf(1), rows.get(0).id);
+		assertNull(rows.get(1).id);
+		assertNull(rows.get(1).text);
+		assertEquals(Long.valueOf(2), repo.getColumnStrategyCounts().get("id").get(ColumnStrategy.DIRECT));
+	}
+
+	@Test
+	public void driverFallsBackToConverter() throws Exception {
+		final CachedRowSet delegate = resultSet(new Object[] { 1L, "A", new Timestamp(1000), true, null }, new Object[] { 2L, "B", new Timestamp(2000), true, null });
+		final AtomicInteger coercions = new AtomicInteger();
+
+		// coerces the first timestamp, then gives up
+		final ResultSet rs = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+			if (method.getName().equals("getObject") && args.length == 2 && args[1] == DateTime.class) {
+				if (coercions.incrementAndGet() > 1) {
+					throw new SQLException("Can't coerce");
+				}
+				return new DateTime(delegate.getTimestamp((Integer) args[0]).getTime());
+			}
+			if (method.getName().equals("getObject") && args.length == 2 && args[1] instanceof Class) {
+				throw new SQLFeatureNotSupportedException();
+			}
+			try {
+				return method.invoke(delegate, args);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		});
+
+		final RowMappingRepository<Event> repo = new RowMappingRepository<Event>(Event.class);
+		final RowMapper<Event> mapper = repo.newQueryMapper();
+		final List<Event> events = new ArrayList<Event>();
+		for (int rowNum = 0; rs.next(); rowNum++) {
+			events.add(mapper.mapRow(rs, rowNum));
+		}
+
+		assertEquals(1000, events.get(0).at.getMillis());
+		assertEquals(2000, events.get(1).at.getMillis());
+
+		final Map<ColumnStrategy, Long> at = repo.getColumnStrategyCounts().get("at");
+		assertEquals(Long.valueOf(1), at.get(ColumnStrategy.DRIVER));
+		assertEquals(Long.valueOf(1), at.get(ColumnStrategy.CONVERTER));
+	}
+
+	@Test
+	public void sharedMapperFollowsEachResultSet() throws Exception {
+		final RowMappingRepository<Event> repo = new RowMappingRepository<Event>(Event.class);
+		final RowMapper<Event> shared = repo.getRowMapper();
+
+		final CachedRowSet a = resultSet(new Object[] { 1L, "A", null, true, null }, new Object[] { 2L, "B", null, false, null });
+		final CachedRowSet b = resultSet(new String[] { "kind", "id" }, new int[] { Types.VARCHAR, Types.BIGINT }, new Object[] { "B", 10L }, new Object[] { "A", 20L });
+
+		// two queries on the same mapper, row by row in turn
+		a.next();
+		b.next();
+		assertEquals(Long.valueOf(1), shared.mapRow(a, 0).id);
+		assertEquals(Long.valueOf(10), shared.mapRow(b, 0).id);
+		a.next();
+		b.next();
+		assertEquals(TestEnum.B, shared.mapRow(a, 1).kind);
+		assertEquals(TestEnum.A, shared.mapRow(b, 1).kind);
+		assertEquals(Long.valueOf(20), shared.mapRow(b, 1).id);
+	}
+
+	@Test
+	public void sharedMapperResolvesOncePerResultSet() throws Exception {
+		final CachedRowSet delegate = resultSet(new Object[] { 1L, "A", null, true, null }, new Object[] { 2L, "B", null, false, null }, new Object[] { 3L, "A", null, true, null });
+		final AtomicInteger metadataReads = new AtomicInteger();
+
+		final ResultSet rs = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+			if (method.getName().equals("getMetaData")) {
+				metadataReads.incrementAndGet();
+			}
+			try {
+				return method.invoke(delegate, args);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		});
+
+		final RowMapper<Event> shared = new RowMappingRepository<Event>(Event.class).getRowMapper();
+		for (int rowNum = 0; rs.next(); rowNum++) {
+			assertEquals(Long.valueOf(rowNum + 1), shared.mapRow(rs, rowNum).id);
+		}
+
+		assertEquals(1, metadataReads.get());
+	}
+
+}
@@ -122,6 +122,44 @@ public class RowMappingRepositoryTest {
 		assertEquals("renamed = :renamed", cc.assignment);
 	}
 
+	@Test
+	public void diffPlanExcludesUnchangeableColumns() {
+		final DiffPlan<TestObject> plan = repo.getDiffPlan();
+
+		for (int i = 0; i < plan.size(); i++) {
+			assertNotEquals("not_updatable", plan.getColumnName(i));
+			assertNotEquals("ignore", plan.getColumnName(i));
+			assertNotEquals("take_original", plan.getColumnName(i));
+		}
+	}
+
+	@Test
+	public void diffReuse() {
+		final DiffPlan<TestObject> plan = repo.getDiffPlan();
+		final DiffPlan.Diff diff = plan.newDiff();
+
+		final TestObject existing = new TestObject();
+		existing.s = "test";
+		existing.l = 2L;
+
+		final TestObject updated = new TestObject();
+		updated.s = "DIFFERENT";
+		updated.l = null;
+
+		assertTrue(plan.diff(existing, updated, true, diff));
+		assertEquals(2, diff.changed.cardinality());
+		assertEquals(1, diff.nulled.cardinality());
+
+		final int l = diff.nulled.nextSetBit(0);
+		assertEquals("l", plan.getColumnName(l));
+		assertEquals("l = NULL", plan.getAssignment(l, true));
+		assertEquals(2L, diff.oldValues[l]);
+
+		assertFalse(plan.diff(existing, existing, true, diff));
+		assertTrue(diff.isEmpty());
+		assertNull(diff.oldValues[l]);
+	}
+
 	@Test
 	public void mixedUpdateNoOverride() {
 		final TestObject existing = new TestObject();
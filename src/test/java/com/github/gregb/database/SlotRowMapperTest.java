@@ -0,0 +1,105 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.sql.Types;
+import java.util.Arrays;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.github.gregb.mapping.SlotPropertyContainer;
+
+public class SlotRowMapperTest {
+
+	private static CachedRowSet resultSet(final String[] names, final int[] types, final Object[]... rows) throws Exception {
+		final RowSetMetaDataImpl metadata = new RowSetMetaDataImpl();
+		metadata.setColumnCount(names.length);
+		for (int i = 0; i < names.length; i++) {
+			metadata.setColumnName(i + 1, names[i]);
+			metadata.setColumnType(i + 1, types[i]);
+		}
+
+		final CachedRowSet rs = RowSetProvider.newFactory().createCachedRowSet();
+		rs.setMetaData(metadata);
+
+		// each row is inserted before the current one, so add them last first
+		for (int r = rows.length - 1; r >= 0; r--) {
+			rs.moveToInsertRow();
+			for (int i = 0; i < rows[r].length; i++) {
+				rs.updateObject(i + 1, rows[r][i]);
+			}
+			rs.insertRow();
+			rs.moveToCurrentRow();
+		}
+
+		rs.beforeFirst();
+		return rs;
+	}
+
+	private static CachedRowSet people() throws Exception {
+		return resultSet(new String[] { "id", "first_name" }, new int[] { Types.BIGINT, Types.VARCHAR }, new Object[] { 1L, "Ann" }, new Object[] { 2L, "Bob" });
+	}
+
+	private static CachedRowSet joined() throws Exception {
+		return resultSet(new String[] { "id", "city", "id" }, new int[] { Types.INTEGER, Types.VARCHAR, Types.BIGINT }, new Object[] { 7, "Oslo", 1L }, new Object[] { 8, "Rome", 2L });
+	}
+
+	@Test
+	public void twoShapesInTurn() throws Exception {
+		final SlotRowMapper mapper = new SlotRowMapper();
+		final CachedRowSet a = people();
+		final CachedRowSet b = joined();
+
+		a.next();
+		b.next();
+		final SlotPropertyContainer ann = mapper.mapRow(a, 0);
+		final SlotPropertyContainer oslo = mapper.mapRow(b, 0);
+
+		assertEquals(Arrays.asList("id", "firstName"), ann.getSchema().getNames());
+		assertEquals("Ann", ann.get("firstName"));
+		assertEquals(Arrays.asList("id", "city", "id3"), oslo.getSchema().getNames());
+		assertEquals(7, oslo.get("id"));
+		assertEquals(1L, oslo.get("id3"));
+
+		a.next();
+		b.next();
+		assertEquals("Bob", mapper.mapRow(a, 1).get("firstName"));
+		assertEquals("Rome", mapper.mapRow(b, 1).get("city"));
+
+		// same shape, same schema
+		final CachedRowSet again = people();
+		again.next();
+		assertSame(ann.getSchema(), mapper.mapRow(again, 0).getSchema());
+	}
+
+	@Test
+	public void queryMapperKeepsItsSchema() throws Exception {
+		final SlotRowMapper shared = new SlotRowMapper();
+		final RowMapper<SlotPropertyContainer> first = shared.newQueryMapper();
+		final RowMapper<SlotPropertyContainer> second = shared.newQueryMapper();
+		final CachedRowSet a = people();
+		final CachedRowSet b = joined();
+
+		for (int row = 0; a.next() && b.next(); row++) {
+			assertEquals(Long.valueOf(row + 1), first.mapRow(a, row).get("id"));
+			assertEquals(row + 7, second.mapRow(b, row).get("id"));
+			assertEquals(Long.valueOf(row + 1), second.mapRow(b, row).get("id3"));
+		}
+	}
+
+	@Test
+	public void repeatedNameAvoidsOtherColumns() throws Exception {
+		final CachedRowSet rs = resultSet(new String[] { "id", "id", "id2" }, new int[] { Types.BIGINT, Types.BIGINT, Types.BIGINT }, new Object[] { 1L, 2L, 3L });
+		rs.next();
+
+		final SlotPropertyContainer row = new SlotRowMapper().mapRow(rs, 0);
+		assertEquals(Arrays.asList("id", "id3", "id2"), row.getSchema().getNames());
+		assertEquals(2L, row.get("id3"));
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.jdbc.BadSqlGrammarException;
+
+import com.github.gregb.database.fixtures.ItemRepository;
+
+public class SlowQueryLogTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void keepsMostRecentSlowQueries() {
+		final SlowQueryLog slow = new SlowQueryLog(10, TimeUnit.MILLISECONDS, 2);
+
+		slow.capture(null, Object.class, RepositoryOperation.SELECT, "SELECT 1", null, 9 * MS, 1);
+		assertEquals(0, slow.getCapturedCount());
+
+		slow.capture(null, Object.class, RepositoryOperation.SELECT, "SELECT 2", null, 10 * MS, 2);
+		slow.capture(null, Object.class, RepositoryOperation.COUNT, "SELECT 3", null, 20 * MS, 3);
+		slow.capture(null, Object.class, RepositoryOperation.UPDATE, "UPDATE 4", null, 30 * MS, 4);
+
+		final List<SlowQueryLog.SlowQuery> entries = slow.getEntries();
+		assertEquals(3, slow.getCapturedCount());
+		assertEquals(2, entries.size());
+		assertEquals("UPDATE 4", entries.get(0).getSql());
+		assertEquals(30000, entries.get(0).getMicros());
+		assertEquals(4, entries.get(0).getRows());
+		assertEquals("SELECT 3", entries.get(1).getSql());
+		assertNull(entries.get(1).getPlan());
+	}
+
+	@Test
+	public void redactsParameters() {
+		final SlowQueryLog slow = new SlowQueryLog(0, TimeUnit.MILLISECONDS, 4);
+		slow.setMaxValueLength(5);
+
+		final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+		parameters.put("name", "Bob");
+		parameters.put("passwordHash", "abc");
+		parameters.put("apiToken", "def");
+		parameters.put("note", "too long to keep");
+		slow.capture(null, Object.class, RepositoryOperation.UPDATE, "UPDATE u SET ...", parameters, MS, 1);
+
+		final Map<String, String> captured = slow.getEntries().get(0).getParameters();
+		assertEquals("Bob", captured.get("name"));
+		assertEquals(SlowQueryLog.REDACTED, captured.get("passwordHash"));
+		assertEquals(SlowQueryLog.REDACTED, captured.get("apiToken"));
+		assertEquals("too l...", captured.get("note"));
+	}
+
+	@Test
+	public void explainsSlowRepositoryQueries() {
+		final ItemRepository repository = new ItemRepository();
+		final long id = repository.insert(ItemRepository.item(null, "a", 1));
+
+		final SlowQueryLog slow = new SlowQueryLog(0, TimeUnit.MILLISECONDS, 4);
+		slow.setExplain(true);
+		repository.setSlowQueryLog(slow);
+
+		assertEquals("a", repository.findByIdOrException(id).name);
+
+		final SlowQueryLog.SlowQuery entry = slow.getEntries().get(0);
+		assertEquals(RepositoryOperation.FIND_BY_ID, entry.getOperation());
+		assertEquals(Long.toString(id), entry.getParameters().get("1"));
+		assertEquals(1, entry.getRows());
+		assertNull(entry.getError());
+		assertNotNull(entry.getPlan());
+		assertFalse(entry.getPlan(), entry.getPlan().startsWith("EXPLAIN failed"));
+		assertTrue(entry.getPlan(), entry.getPlan().toLowerCase().contains("item"));
+	}
+
+	@Test
+	public void capturesFailedRepositoryStatements() {
+		final ItemRepository repository = new ItemRepository();
+		final SlowQueryLog slow = new SlowQueryLog(0, TimeUnit.MILLISECONDS, 4);
+		repository.setSlowQueryLog(slow);
+
+		try {
+			repository.update("missing = 1", "id = :id", Collections.<String, Object> singletonMap("id", 1));
+			fail();
+		} catch (final BadSqlGrammarException e) {
+			final SlowQueryLog.SlowQuery entry = slow.getEntries().get(0);
+			assertEquals(RepositoryOperation.UPDATE, entry.getOperation());
+			assertEquals("1", entry.getParameters().get("id"));
+			assertSame(e, entry.getError());
+		}
+	}
+
+}
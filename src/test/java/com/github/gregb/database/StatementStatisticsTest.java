@@ -0,0 +1,44 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class StatementStatisticsTest {
+
+	@Test
+	public void fingerprint() {
+		assertEquals("SELECT * FROM t WHERE a = ? AND b IN (...) AND c = ? AND d::int = ?", StatementStatistics.fingerprint("SELECT *  FROM t\n WHERE a = :a AND b IN (:p0, :p1, :p2) AND c = 'it''s' AND d::int = 42 -- comment"));
+		assertEquals(StatementStatistics.fingerprint("SELECT x1 FROM t WHERE id IN (1,2)"), StatementStatistics.fingerprint("SELECT x1 FROM t WHERE id IN (3, 4, 5, 6)"));
+		assertEquals("SELECT \"Col 1\" FROM t LIMIT ? OFFSET ?", StatementStatistics.fingerprint("SELECT \"Col 1\" /* hint */ FROM t LIMIT 20 OFFSET 40"));
+	}
+
+	@Test
+	public void aggregates() {
+		final StatementStatistics statistics = new StatementStatistics(2);
+
+		statistics.record("SELECT * FROM a WHERE id = 1", 3000, 1, 1000);
+		statistics.record("SELECT * FROM a WHERE id = 2", 5000, 1, 2000);
+		statistics.recordError("SELECT * FROM a WHERE id = 3", 1000);
+		statistics.record("UPDATE b SET x = :x", 2000, 4, 0);
+		statistics.record("DELETE FROM c", 50000, 9, 0);
+
+		final StatementStatistics.Stats select = statistics.get("SELECT * FROM a WHERE id = :id");
+		assertEquals(3, select.getCalls());
+		assertEquals(1, select.getErrors());
+		assertEquals(2, select.getRows());
+		assertEquals(9, select.getTotalMicros());
+		assertEquals(3, select.getMappingMicros());
+		assertEquals(6, select.getExecutionMicros());
+		assertEquals(5, select.getMaxMicros());
+
+		// full, so the third shape went to OTHER
+		assertNull(statistics.get("DELETE FROM c"));
+		final List<StatementStatistics.Stats> top = statistics.topByTotalTime(2);
+		assertEquals(StatementStatistics.OTHER, top.get(0).getFingerprint());
+		assertEquals(select, top.get(1));
+	}
+
+}
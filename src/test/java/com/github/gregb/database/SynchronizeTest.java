@@ -0,0 +1,132 @@
+package com.github.gregb.database;
+
+import static com.github.gregb.database.fixtures.ItemRepository.item;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.gregb.database.fixtures.Item;
+import com.github.gregb.database.fixtures.ItemRepository;
+
+public class SynchronizeTest {
+
+	private ItemRepository repository;
+
+	@Before
+	public void setUp() {
+		repository = new ItemRepository();
+		repository.jdbcTemplate.update("INSERT INTO item (id, name, count) VALUES (1, 'a', 1), (2, 'b', 2), (3, 'c', 3), (4, 'x', 4)");
+	}
+
+	private Map<String, Integer> countsByName() {
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (final Item item : repository.findAll()) {
+			counts.put(item.name, item.count);
+		}
+		return counts;
+	}
+
+	private static void assertResult(final SyncResult result, final int inserted, final int updated, final int deleted, final int unchanged) {
+		assertEquals("inserted", inserted, result.inserted);
+		assertEquals("updated", updated, result.updated);
+		assertEquals("deleted", deleted, result.deleted);
+		assertEquals("unchanged", unchanged, result.unchanged);
+	}
+
+	@Test
+	public void synchronizeById() {
+		final List<Item> desired = Arrays.asList(item(1L, "a", 1), item(2L, "b", 20), item(null, "d", 5));
+		final SyncResult result = repository.synchronize(desired, Where.and().with("id < 4"));
+
+		assertResult(result, 1, 1, 1, 1);
+
+		// row 4 is out of scope
+		final Map<String, Integer> counts = countsByName();
+		assertEquals(4, counts.size());
+		assertEquals(Integer.valueOf(20), counts.get("b"));
+		assertEquals(Integer.valueOf(5), counts.get("d"));
+		assertEquals(Integer.valueOf(4), counts.get("x"));
+		assertFalse(counts.containsKey("c"));
+	}
+
+	@Test
+	public void unchangedRowsAreSkipped() {
+		final List<Item> desired = Arrays.asList(item(1L, "a", 1), item(2L, "b", 2), item(3L, "c", 3), item(4L, "x", 40));
+		assertResult(repository.synchronize(desired, null), 0, 1, 0, 3);
+		assertEquals(Integer.valueOf(40), countsByName().get("x"));
+	}
+
+	@Test
+	public void sortedOnNaturalKey() {
+		final List<Item> desired = Arrays.asList(item(null, "a", 1), item(null, "b", 20), item(null, "d", 5), item(null, "x", 4));
+		final SyncResult result = repository.synchronizeSorted(desired.iterator(), null, "name");
+
+		assertResult(result, 1, 1, 1, 2);
+
+		final Map<String, Integer> counts = countsByName();
+		assertEquals(4, counts.size());
+		assertEquals(Integer.valueOf(20), counts.get("b"));
+		assertEquals(Integer.valueOf(5), counts.get("d"));
+		assertFalse(counts.containsKey("c"));
+	}
+
+	@Test
+	public void sortedRejectsUnorderedInput() {
+		try {
+			repository.synchronizeSorted(Arrays.asList(item(2L, "b", 2), item(1L, "a", 1)).iterator(), null, "id");
+			fail();
+		} catch (final IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("order"));
+		}
+	}
+
+	@Test
+	public void nullsClearOnlyWithDeleteOverride() {
+		repository.jdbcTemplate.update("UPDATE item SET price = 1.5");
+		final List<Item> desired = Arrays.asList(item(1L, "a", 1), item(2L, "b", 2), item(3L, "c", 3), item(4L, "x", 4));
+
+		assertResult(repository.synchronize(desired, null), 0, 0, 0, 4);
+		assertEquals(4, repository.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM item WHERE price IS NOT NULL", Integer.class).intValue());
+
+		assertResult(repository.synchronizeSorted(desired.subList(0, 2).iterator(), Where.and().with("id < 3"), "id", true), 0, 2, 0, 0);
+		assertEquals(2, repository.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM item WHERE price IS NOT NULL", Integer.class).intValue());
+
+		assertResult(repository.synchronize(desired, null, "id", true), 0, 2, 0, 2);
+		assertEquals(0, repository.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM item WHERE price IS NOT NULL", Integer.class).intValue());
+	}
+
+	@Test
+	public void nullKeysAreLeftAlone() {
+		repository.jdbcTemplate.update("INSERT INTO item (id, name, count) VALUES (5, NULL, 5)");
+		final List<Item> desired = Arrays.asList(item(null, "a", 1), item(null, "b", 2), item(null, "c", 3), item(null, "x", 4));
+
+		assertResult(repository.synchronize(desired, null, "name"), 0, 0, 0, 4);
+		assertResult(repository.synchronizeSorted(desired.iterator(), null, "name"), 0, 0, 0, 4);
+		assertEquals(5, repository.countAll().intValue());
+
+		try {
+			repository.synchronize(Arrays.asList(item(null, null, 6)), null, "name");
+			fail();
+		} catch (final IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Null name"));
+		}
+	}
+
+	@Test
+	public void sortedDeletesBeforeInsertBatches() {
+		repository.jdbcTemplate.execute("CREATE UNIQUE INDEX item_name ON item (name)");
+		repository.synchronizeBatchSize = 2;
+
+		// 5 takes the name of 1, and its batch is full before the end of the merge
+		final List<Item> desired = Arrays.asList(item(2L, "b", 2), item(3L, "c", 3), item(4L, "x", 4), item(5L, "a", 5), item(6L, "z", 6));
+		assertResult(repository.synchronizeSorted(desired.iterator(), null, "id"), 2, 0, 1, 3);
+		assertEquals(Integer.valueOf(5), countsByName().get("a"));
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import com.github.gregb.database.TableSnapshot.Stamp;
+import com.github.gregb.database.fixtures.Item;
+import com.github.gregb.database.fixtures.ItemRepository;
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+import com.github.gregb.mapping.Identified;
+
+public class TableSnapshotTest {
+
+	@SuppressWarnings("serial")
+	public static class Narrower implements Identified<Long> {
+
+		public Long id;
+		public String name;
+
+		@Override
+		public Long getId() {
+			return id;
+		}
+	}
+
+	private static Path write(final RowMappingRepository<Item> repository, final int rows) throws IOException {
+		final TableSnapshot.Builder<Item> builder = new TableSnapshot.Builder<Item>(Item.class, repository.propertiesByColumn, "id");
+
+		for (long id = 1; id <= rows; id++) {
+			final Item item = new Item();
+			item.id = id;
+			item.name = id % 10 == 0 ? null : "item ü " + id;
+			item.count = (int) id * 2;
+			item.price = id / 4.0;
+			item.active = id % 2 == 0;
+			item.since = new LocalDate(2015, 1, 1).plusDays((int) id);
+			item.kind = TestEnum.values()[(int) id % 2];
+			builder.add(item);
+		}
+
+		final Path file = Files.createTempFile("snapshot", ".dat");
+		builder.write(file, new Stamp(rows, (long) rows, null));
+		return file;
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		final RowMappingRepository<Item> repository = new RowMappingRepository<Item>(Item.class);
+		final Path file = write(repository, 1000);
+
+		try {
+			final TableSnapshot<Item> snapshot = TableSnapshot.open(repository, file);
+			assertEquals(1000, snapshot.size());
+			assertEquals(new Stamp(1000, 1000L, null), snapshot.getStamp());
+
+			final Item got = snapshot.findById(17).get();
+			assertEquals("item ü 17", got.name);
+			assertEquals(34, got.count);
+			assertEquals(4.25, got.price, 0);
+			assertFalse(got.active);
+			assertEquals(new LocalDate(2015, 1, 18), got.since);
+			assertEquals(TestEnum.B, got.kind);
+			assertSame(got, snapshot.get(16));
+
+			assertNull(snapshot.findById(20).get().name);
+			assertFalse(snapshot.findById(1001).isPresent());
+			assertEquals(1000, snapshot.mapById().size());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void otherEntity() throws IOException {
+		final Path file = write(new RowMappingRepository<Item>(Item.class), 3);
+
+		try {
+			TableSnapshot.open(new RowMappingRepository<Narrower>(Narrower.class), file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void loadReusesOnlyCurrentSnapshots() throws IOException {
+		final ItemRepository repository = new ItemRepository();
+		repository.jdbcTemplate.update("INSERT INTO item (id, name, count) VALUES (1, 'a', 1), (2, 'b', 2)");
+
+		final Path directory = Files.createTempDirectory("snapshots");
+		final Path file = directory.resolve("items.dat");
+
+		try {
+			final TableSnapshot<Item> first = TableSnapshot.load(repository, null, null, file);
+			assertEquals(new Stamp(2, 2L, null), first.getStamp());
+			assertEquals("a", first.findById(1).get().name);
+
+			// same count and highest id: the file is trusted, so the rename isn't seen
+			repository.jdbcTemplate.update("UPDATE item SET name = 'renamed' WHERE id = 1");
+			assertEquals("a", TableSnapshot.load(repository, null, null, file).findById(1).get().name);
+
+			// a new row makes it stale; the rows are read again and the file replaced
+			repository.jdbcTemplate.update("INSERT INTO item (id, name, count) VALUES (3, 'c', 3)");
+			final TableSnapshot<Item> refetched = TableSnapshot.load(repository, null, null, file);
+			assertEquals(new Stamp(3, 3L, null), refetched.getStamp());
+			assertEquals("renamed", refetched.findById(1).get().name);
+			assertEquals(3, refetched.size());
+
+			// the snapshot mapped before the replacement still reads its own rows
+			assertEquals(2, first.size());
+			assertEquals("b", first.get(1).name);
+
+			assertEquals(new Stamp(3, 3L, null), TableSnapshot.open(repository, file).getStamp());
+			try (Stream<Path> files = Files.list(directory)) {
+				assertEquals(1, files.count());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.github.gregb.database;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+public class WhereTest {
+
+	@Test
+	public void bucketSizes() {
+		assertEquals(1, Where.bucketSize(0));
+		assertEquals(1, Where.bucketSize(1));
+		assertEquals(2, Where.bucketSize(2));
+		assertEquals(4, Where.bucketSize(3));
+		assertEquals(4, Where.bucketSize(4));
+		assertEquals(8, Where.bucketSize(5));
+		assertEquals(1024, Where.bucketSize(1000));
+	}
+
+	@Test
+	public void emptyIn() {
+		final MapSqlParameterSource params = new MapSqlParameterSource();
+		final String sql = Where.and().in("id", Collections.emptyList()).toSql(params);
+
+		assertEquals("1 = 0", sql);
+		assertEquals(0, params.getValues().size());
+	}
+
+	@Test
+	public void existingParametersNotReused() {
+		final MapSqlParameterSource params = new MapSqlParameterSource("where_0", "mine");
+		final String sql = Where.and().equalTo("name", "x").toSql(params);
+
+		assertEquals("name = :where_1", sql);
+		assertEquals("mine", params.getValue("where_0"));
+		assertEquals("x", params.getValue("where_1"));
+	}
+
+	@Test
+	public void inListIsPadded() {
+		final MapSqlParameterSource params = new MapSqlParameterSource();
+		final String sql = Where.and().in("id", Arrays.asList(1L, 2L, 3L)).toSql(params);
+
+		assertEquals("id IN (:where_0, :where_1, :where_2, :where_2)", sql);
+		assertEquals(3, params.getValues().size());
+		assertEquals(3L, params.getValue("where_2"));
+	}
+
+	@Test
+	public void inListsShareShapes() {
+		final String five = Where.and().in("id", Arrays.asList(1, 2, 3, 4, 5)).toString();
+		final String seven = Where.and().in("id", Arrays.asList(7, 6, 5, 4, 3, 2, 1)).toString();
+
+		assertEquals(five.replaceAll(":where_\\d+", "?"), seven.replaceAll(":where_\\d+", "?"));
+	}
+
+	@Test
+	public void nested() {
+		final MapSqlParameterSource params = new MapSqlParameterSource();
+		final Where w = Where.and().with("active").with(Where.or().equalTo("a", 1).equalTo("b", null)).any("c", Arrays.asList("x", "y"));
+
+		assertEquals("active AND (a = :where_0 OR b IS NULL) AND c = ANY(:where_1)", w.toSql(params));
+		assertArrayEquals(new Object[] { "x", "y" }, (Object[]) params.getValue("where_1"));
+	}
+
+	@Test
+	public void valuesAreConverted() {
+		final MapSqlParameterSource params = new MapSqlParameterSource();
+		Where.and().equalTo("s", "abc").toSql(params, v -> v.toString().toUpperCase());
+
+		assertEquals("ABC", params.getValue("where_0"));
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.github.gregb.database.fixtures;
+
+import org.joda.time.DateTime;
+
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+import com.github.gregb.mapping.fixtures.LongEnum;
+
+public class Event {
+	public Long id;
+	public String text;
+	public DateTime at;
+	public LongEnum level;
+	public TestEnum kind;
+	public boolean flag;
+}
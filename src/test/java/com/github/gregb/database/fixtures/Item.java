@@ -0,0 +1,26 @@
+package com.github.gregb.database.fixtures;
+
+import javax.persistence.Id;
+
+import org.joda.time.LocalDate;
+
+import com.github.gregb.database.fixtures.TestObject.TestEnum;
+import com.github.gregb.mapping.Identified;
+
+@SuppressWarnings("serial")
+public class Item implements Identified<Long> {
+
+	@Id
+	public Long id;
+	public String name;
+	public int count;
+	public Double price;
+	public Boolean active;
+	public LocalDate since;
+	public TestEnum kind;
+
+	@Override
+	public Long getId() {
+		return id;
+	}
+}
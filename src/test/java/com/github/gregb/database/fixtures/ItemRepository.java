@@ -0,0 +1,38 @@
+package com.github.gregb.database.fixtures;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import com.github.gregb.database.JdbcRepository;
+
+/**
+ * An {@link Item} repository on its own in-memory H2 database.
+ */
+public class ItemRepository extends JdbcRepository<Item> {
+
+	private static final AtomicInteger DATABASES = new AtomicInteger();
+
+	public ItemRepository() {
+		super(Item.class);
+
+		final JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:items" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE");
+
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+
+		jdbcTemplate.execute("CREATE TABLE item (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(100), count INT, price DOUBLE, active BOOLEAN, since DATE, kind VARCHAR(10))");
+	}
+
+	public static Item item(final Long id, final String name, final int count) {
+		final Item item = new Item();
+		item.id = id;
+		item.name = name;
+		item.count = count;
+		return item;
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.github.gregb.mapping;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.github.gregb.mapping.fixtures.LongEnum;
+import com.github.gregb.mapping.fixtures.StringEnum;
+
+public class IdentifiedEnumIndexTest {
+
+	public static enum CompactEnum implements Identified<Integer> {
+
+		A(10),
+		B(11),
+		C(13);
+
+		private Integer id;
+
+		private CompactEnum(Integer id) {
+			this.id = id;
+		}
+
+		@Override
+		public Integer getId() {
+			return id;
+		}
+	}
+
+	@Test
+	public void dense() {
+		final IdentifiedEnumIndex<CompactEnum> index = IdentifiedEnumIndex.of(CompactEnum.class);
+
+		assertTrue(index.isDense());
+		assertSame(CompactEnum.A, index.lookup(10));
+		assertSame(CompactEnum.B, index.lookup(11));
+		assertSame(CompactEnum.C, index.lookup(13));
+		assertNull(index.lookup(12));
+		assertNull(index.lookup(9));
+		assertNull(index.lookup(Long.MIN_VALUE));
+		assertSame(CompactEnum.C, IntegerIdentifiedEnumMapper.lookup(CompactEnum.class, 13));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nonIntegralIds() {
+		IdentifiedEnumIndex.of(StringEnum.class);
+	}
+
+	@Test
+	public void sameInstance() {
+		assertSame(IdentifiedEnumIndex.of(LongEnum.class), IdentifiedEnumIndex.of(LongEnum.class));
+	}
+
+	@Test
+	public void sparse() {
+		final IdentifiedEnumIndex<LongEnum> index = IdentifiedEnumIndex.of(LongEnum.class);
+
+		assertFalse(index.isDense());
+		assertSame(LongEnum.A, index.lookup(1));
+		assertSame(LongEnum.B, index.lookup(42));
+		assertSame(LongEnum.C, index.lookup(-3000));
+		assertNull(index.lookup(0));
+		assertSame(LongEnum.B, LongIdentifiedEnumMapper.lookup(LongEnum.class, Long.valueOf(42)));
+		assertNull(LongIdentifiedEnumMapper.lookup(LongEnum.class, (Long) null));
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.github.gregb.mapping;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.github.gregb.mapping.fixtures.LongEnum;
+import com.github.gregb.mapping.fixtures.StringEnum;
+
+public class IdentifiedEnumParserTest {
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test(expected = IllegalArgumentException.class)
+	public void differentIdentityClass() {
+		IdentifiedEnumParser.forType(Long.class, LongEnum.class);
+		IdentifiedEnumParser.forType(Integer.class, (Class) LongEnum.class);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void malformed() {
+		IdentifiedEnumParser.forType(Long.class, LongEnum.class).parse("4x2");
+	}
+
+	@Test
+	public void parseLong() {
+		assertEquals(0L, IdentifiedEnumParser.parseLong("0", 0, 1));
+		assertEquals(-3000L, IdentifiedEnumParser.parseLong(" -3000 ", 1, 6));
+		assertEquals(Long.MAX_VALUE, IdentifiedEnumParser.parseLong("9223372036854775807", 0, 19));
+		assertEquals(Long.MIN_VALUE, IdentifiedEnumParser.parseLong("-9223372036854775808", 0, 20));
+
+		try {
+			IdentifiedEnumParser.parseLong("9223372036854775808", 0, 19);
+			fail();
+		} catch (final NumberFormatException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void shared() {
+		assertSame(IdentifiedEnumParser.forType(String.class, StringEnum.class), IdentifiedEnumParser.forType(String.class, StringEnum.class));
+	}
+
+	@Test
+	public void untrimmedCharSequence() {
+		final IdentifiedEnumParser<Long, LongEnum> parser = IdentifiedEnumParser.forType(Long.class, LongEnum.class);
+
+		assertSame(LongEnum.B, parser.parse(new StringBuilder("\t42 ")));
+		assertSame(LongEnum.C, parser.parse("-3000"));
+		assertNull(parser.parse("   "));
+		assertNull(parser.parse("7"));
+
+		final IdentifiedEnumParser<String, StringEnum> strings = IdentifiedEnumParser.forType(String.class, StringEnum.class);
+		assertSame(StringEnum.B, strings.parse(new StringBuilder(" SECOND\n")));
+		assertNull(strings.parse("second"));
+	}
+
+}
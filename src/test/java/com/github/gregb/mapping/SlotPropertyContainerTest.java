@@ -0,0 +1,34 @@
+package com.github.gregb.mapping;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SlotPropertyContainerTest {
+
+	private final SlotSchema schema = new SlotSchema(new String[] { "id", "name" }, new Class<?>[] { Long.class, String.class });
+
+	@Test
+	public void byNameAndSlot() {
+		final SlotPropertyContainer row = schema.newContainer();
+		final int name = schema.indexOf("name");
+
+		row.set("id", 7L);
+		row.set(name, "seven");
+
+		assertEquals(7L, row.get(0));
+		assertEquals("seven", row.get("name"));
+		assertNull(row.get("missing"));
+		assertEquals(String.class, row.getPropertyType("name"));
+		assertEquals(Arrays.asList("id", "name"), row.getPropertyNames());
+		assertSame(schema, row.getSchema());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void schemaIsFixed() {
+		schema.newContainer().set("missing", 1);
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.github.gregb.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CommaSeparatedLongsTest {
+
+	@Test
+	public void parse() {
+		assertArrayEquals(new long[] { 1, 5, 10, 11, 12, -3, -5, -4 }, CommaSeparatedLongs.parseArray(" 1, 5,10 - 12, -3 ,-5--4,, "));
+		assertArrayEquals(new long[0], CommaSeparatedLongs.parseArray(""));
+		assertArrayEquals(new long[] { Long.MIN_VALUE, Long.MAX_VALUE },
+				CommaSeparatedLongs.parseArray(Long.MIN_VALUE + "," + Long.MAX_VALUE));
+
+		final CommaSeparatedLongs list = new CommaSeparatedLongs("7,8");
+		assertEquals(Arrays.asList(7L, 8L), list.longs);
+		list.longs.add(9L);
+		list.longs.set(0, 6L);
+		assertEquals(Arrays.asList(6L, 8L, 9L), list.longs);
+		assertArrayEquals(new long[] { 7, 8 }, list.getValues());
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void emptyItem() {
+		CommaSeparatedLongs.parseArray("1,,2");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void leadingEmptyItem() {
+		CommaSeparatedLongs.parseArray(" ,1");
+	}
+
+	@Test
+	public void tooManyValues() {
+		final StringBuilder sb = new StringBuilder();
+		for (long i = 0; i < CommaSeparatedLongs.MAX_VALUES; i += CommaSeparatedLongs.MAX_RANGE) {
+			sb.append(i).append('-').append(i + CommaSeparatedLongs.MAX_RANGE - 1).append(',');
+		}
+		assertEquals(CommaSeparatedLongs.MAX_VALUES, CommaSeparatedLongs.parseArray(sb).length);
+
+		try {
+			CommaSeparatedLongs.parseArray(sb.append("-1"));
+			fail();
+		} catch (final IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("More than"));
+		}
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void notANumber() {
+		CommaSeparatedLongs.parseArray("1,x");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void descendingRange() {
+		CommaSeparatedLongs.parseArray("20-10");
+	}
+
+	@Test
+	public void roundTrip() {
+		final long[] values = { 1, 2, 3, 4, 9, 10, -7, 1000000, Long.MAX_VALUE, Long.MIN_VALUE };
+
+		assertEquals("1-4,9,10,-7,1000000," + Long.MAX_VALUE + "," + Long.MIN_VALUE, CommaSeparatedLongs.format(values));
+		assertArrayEquals(values, CommaSeparatedLongs.parseArray(CommaSeparatedLongs.format(values)));
+
+		final String compact = CommaSeparatedLongs.encodeCompact(values);
+		assertEquals(CommaSeparatedLongs.COMPACT_PREFIX, compact.charAt(0));
+		assertArrayEquals(values, new CommaSeparatedLongs.FromStringConverter().convert(compact).getValues());
+	}
+
+}
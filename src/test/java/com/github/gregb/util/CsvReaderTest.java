@@ -0,0 +1,148 @@
+package com.github.gregb.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.BiMap;
+
+public class CsvReaderTest {
+
+	private static final String DATA = "\uFEFFa,b,c\r\n" + "\"quoted, with comma\",\"say \"\"hi\"\"\",\"multi\nline\"\n" + "\n" + "x,,\n" + "ü,é,last";
+
+	private static final List<List<String>> EXPECTED = Arrays.asList(
+			Arrays.asList("a", "b", "c"),
+			Arrays.asList("quoted, with comma", "say \"hi\"", "multi\nline"),
+			Arrays.asList("x", "", ""),
+			Arrays.asList("ü", "é", "last"));
+
+	/**
+	 * Hands out one byte per read, so every row straddles buffer refills.
+	 */
+	private static InputStream trickle(final byte[] bytes) {
+		return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+	}
+
+	private static List<List<String>> collect(final List<String[]> rows) {
+		final List<List<String>> result = new ArrayList<List<String>>();
+		rows.forEach(r -> result.add(Arrays.asList(r)));
+		return result;
+	}
+
+	@Test
+	public void biMapper() throws IOException {
+		final Path file = Files.createTempFile("bimap", ".csv");
+		try {
+			Files.write(file, "1,one\n2,two\n3,\"th,ree\"\n".getBytes(StandardCharsets.UTF_8));
+
+			final BiMap<String, String> map = CSVBiMapper.map(file.toString());
+			assertEquals(3, map.size());
+			assertEquals("th,ree", map.get("3"));
+			assertEquals("2", map.inverse().get("two"));
+
+			assertEquals(map, CSVBiMapper.mapParallel(file, 3));
+			assertEquals(map, CSVBiMapper.mapParallel(file, 0));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void file() throws IOException {
+		final Path file = Files.createTempFile("reader", ".csv");
+		try {
+			Files.write(file, DATA.getBytes(StandardCharsets.UTF_8));
+
+			final List<String[]> rows = new ArrayList<String[]>();
+			assertEquals(4, new CsvReader().read(file, rows::add));
+			assertEquals(EXPECTED, collect(rows));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void parallel() throws IOException {
+		final Path file = Files.createTempFile("parallel", ".csv");
+		try {
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 1000; i++) {
+				sb.append(i).append(",\"v").append(i).append("\"\n");
+			}
+			Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+
+			final List<List<String[]>> ranges = new ArrayList<List<String[]>>();
+			final long rows = new CsvReader().readParallel(file, 7, i -> {
+				final List<String[]> range = new ArrayList<String[]>();
+				ranges.add(range);
+				return range::add;
+			});
+
+			assertEquals(1000, rows);
+
+			int expected = 0;
+			for (final List<String[]> range : ranges) {
+				for (final String[] row : range) {
+					assertEquals(Integer.toString(expected), row[0]);
+					assertEquals("v" + expected, row[1]);
+					expected++;
+				}
+			}
+			assertEquals(1000, expected);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void stream() throws IOException {
+		final List<String[]> rows = new ArrayList<String[]>();
+		new CsvReader().read(trickle(DATA.getBytes(StandardCharsets.UTF_8)), rows::add);
+		assertEquals(EXPECTED, collect(rows));
+	}
+
+	@Test
+	public void writerRoundTrip() throws IOException {
+		final StringWriter sw = new StringWriter();
+		final CsvWriter writer = new CsvWriter(sw);
+		for (final List<String> row : EXPECTED) {
+			writer.row(row.toArray(new String[row.size()]));
+		}
+
+		assertTrue(sw.toString().contains("\"say \"\"hi\"\"\""));
+
+		final List<String[]> rows = new ArrayList<String[]>();
+		new CsvReader().read(new ByteArrayInputStream(sw.toString().getBytes(StandardCharsets.UTF_8)), rows::add);
+		assertEquals(EXPECTED, collect(rows));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unterminatedQuote() throws IOException {
+		new CsvReader().read(new ByteArrayInputStream("a,\"b\n".getBytes(StandardCharsets.UTF_8)), r -> {
+		});
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void missingFile() throws IOException {
+		CSVBiMapper.map("does-not-exist.csv");
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.github.gregb.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class CsvWriterTest {
+
+	private static String write(final char delimiter, final CharSequence... fields) throws IOException {
+		final StringWriter sw = new StringWriter();
+		new CsvWriter(sw, delimiter).row(fields);
+		return sw.toString();
+	}
+
+	@Test
+	public void plainFieldsAreNotQuoted() throws IOException {
+		assertEquals("a,b c,1.5\n", write(',', "a", "b c", "1.5"));
+	}
+
+	@Test
+	public void nullAndEmptyAreEmptyFields() throws IOException {
+		assertEquals(",,x,\n", write(',', null, "", "x", null));
+		assertEquals("\n", write(','));
+	}
+
+	@Test
+	public void quoting() throws IOException {
+		assertEquals("\"a,b\",\"say \"\"hi\"\"\",\"two\nlines\",\"cr\r\",\"\"\"\"\n", write(',', "a,b", "say \"hi\"", "two\nlines", "cr\r", "\""));
+	}
+
+	@Test
+	public void otherDelimiter() throws IOException {
+		assertEquals("a,b;\"c;d\"\n", write(';', "a,b", "c;d"));
+		assertEquals("a\t\"b\tc\"\n", write('\t', "a", "b\tc"));
+	}
+
+	@Test
+	public void rows() throws IOException {
+		final StringWriter sw = new StringWriter();
+		final CsvWriter writer = new CsvWriter(sw);
+		writer.field("a").field("b").endRow();
+		writer.row("c");
+		writer.endRow();
+
+		assertEquals("a,b\nc\n\n", sw.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void quoteIsNoDelimiter() {
+		new CsvWriter(new StringWriter(), '"');
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.github.gregb.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void buckets() {
+		for (final long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE }) {
+			final int bucket = LatencyHistogram.bucketOf(value);
+			assertTrue(value + " in " + bucket, LatencyHistogram.lowestIn(bucket) <= value && value <= LatencyHistogram.highestIn(bucket));
+			assertTrue(LatencyHistogram.highestIn(bucket) - LatencyHistogram.lowestIn(bucket) <= value / 16);
+		}
+	}
+
+	@Test
+	public void percentiles() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		assertEquals(10000, histogram.getCount());
+		assertEquals(5_000_000, histogram.getValueAtPercentile(50), 5_000_000 / 16);
+		assertEquals(9_900_000, histogram.getValueAtPercentile(99), 9_900_000 / 16);
+		assertEquals(10_000_000, histogram.getValueAtPercentile(100), 10_000_000 / 16);
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+	}
+
+}